@@ -0,0 +1,167 @@
+package mk.ukim.finki.wp.jan2023.benchmark;
+
+import mk.ukim.finki.wp.jan2023.ExampleApplication;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.impl.CandidateBirthIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the CandidateBirthIndex filter against the query of the repository mode on the same candidates.
+ *
+ * Every trial boots the application without the web server in the INDEX filter mode and inserts 'candidates'
+ * synthetic candidates with random dates of birth, one in a hundred of them without one. Before measuring, the
+ * trial checks that the index returns the same ids as the repository for every cutoff and gender, and fails
+ * when they differ. The unit tests check the same on a few thousand candidates. Run it with
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.class=CandidateBirthIndexBenchmark
+ *       [-Dbenchmark.sizes=100000,1000000] [-Dbenchmark.threads=1,8] [-Dbenchmark.quick=true]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class CandidateBirthIndexBenchmark {
+
+    private static final long SYNTHETIC_ID_OFFSET = 1_000_000_000L;
+
+    @Param({"100000", "1000000"})
+    public int candidates;
+
+    private ConfigurableApplicationContext context;
+    private CandidateRepository candidateRepository;
+    private CandidateBirthIndex birthIndex;
+    private LocalDate cutoff;
+
+    @Setup(Level.Trial)
+    public void boot() {
+        this.context = new SpringApplicationBuilder(ExampleApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.datasource.url=jdbc:h2:mem:birth-index-benchmark-" + this.candidates,
+                        "--candidates.filter.mode=INDEX");
+        this.candidateRepository = this.context.getBean(CandidateRepository.class);
+        this.birthIndex = this.context.getBean(CandidateBirthIndex.class);
+
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        Long partyId = this.context.getBean(CandidateService.class).listAllCandidates().get(0).getParty().getId();
+        List<Object[]> rows = new ArrayList<>(this.candidates);
+        for (int i = 0; i < this.candidates; i++) {
+            LocalDate dateOfBirth = random.nextInt(100) == 0 ? null : today.minusDays(random.nextInt(365 * 90));
+            Gender gender = Gender.values()[random.nextInt(Gender.values().length)];
+            rows.add(new Object[]{SYNTHETIC_ID_OFFSET + i, "Synthetic " + i, "Bio", dateOfBirth, gender.ordinal(), partyId});
+        }
+        this.context.getBean(JdbcTemplate.class).batchUpdate("insert into candidate " +
+                "(id, name, bio, date_of_birth, gender, party_id, votes, version) values (?, ?, ?, ?, ?, ?, 0, 0)", rows);
+        this.birthIndex.load(this.candidateRepository.findAllBirthDates());
+
+        if (this.birthIndex.size() != this.candidateRepository.count()) {
+            throw new IllegalStateException("The index has " + this.birthIndex.size() + " of "
+                    + this.candidateRepository.count() + " candidates");
+        }
+        for (Integer years : new Integer[]{null, 0, 45, 120}) {
+            LocalDate cutoff = years == null ? null : today.minusYears(years);
+            for (Gender gender : new Gender[]{null, Gender.MALE, Gender.FEMALE}) {
+                if (years == null && gender == null) {
+                    continue;
+                }
+                long[] actual = this.birthIndex.idsBornBefore(cutoff, gender);
+                Arrays.sort(actual);
+                if (!Arrays.equals(repositoryIds(cutoff, gender), actual)) {
+                    throw new IllegalStateException("The index differs from the repository for years=" + years
+                            + ", gender=" + gender);
+                }
+            }
+        }
+        this.cutoff = today.minusYears(45);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.context.close();
+    }
+
+    private long[] repositoryIds(LocalDate cutoff, Gender gender) {
+        return this.candidateRepository.findRows(cutoff, gender).stream().mapToLong(CandidateRow::getId).toArray();
+    }
+
+    @Benchmark
+    public long[] indexIdsBornBefore() {
+        return this.birthIndex.idsBornBefore(this.cutoff, Gender.FEMALE);
+    }
+
+    @Benchmark
+    public long[] repositoryIdsBornBefore() {
+        return repositoryIds(this.cutoff, Gender.FEMALE);
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] sizes = System.getProperty("benchmark.sizes", "100000,1000000").split(",");
+        String[] threads = System.getProperty("benchmark.threads", "1,8").split(",");
+        Path output = Paths.get(System.getProperty("benchmark.output", "target/jmh-result.json"));
+        boolean quick = Boolean.getBoolean("benchmark.quick");
+        String methods = System.getProperty("benchmark.methods", ".*");
+
+        List<RunResult> results = new ArrayList<>();
+        for (String count : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(CandidateBirthIndexBenchmark.class.getName() + "\\.(" + methods + ")$")
+                    .param("candidates", sizes)
+                    .threads(Integer.parseInt(count.trim()));
+            if (quick) {
+                options.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(1).measurementTime(TimeValue.seconds(1));
+            }
+            results.addAll(new Runner(options.build()).run());
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output), true, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+}
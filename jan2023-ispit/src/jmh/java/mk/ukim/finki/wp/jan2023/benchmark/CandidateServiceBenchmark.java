@@ -0,0 +1,186 @@
+package mk.ukim.finki.wp.jan2023.benchmark;
+
+import mk.ukim.finki.wp.jan2023.ExampleApplication;
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.ImportReport;
+import mk.ukim.finki.wp.jan2023.service.CandidateImportService;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Sort;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and allocation rate of the CandidateService methods against the JPA layer on an in-memory H2 database.
+ *
+ * Every trial boots the application without the web server and imports 'candidates' synthetic candidates
+ * with the CandidateImportService. Run it with
+ *
+ *   mvn -Pbenchmark test-compile exec:exec [-Dbenchmark.sizes=1000,100000] [-Dbenchmark.threads=1,8] [-Dbenchmark.quick=true]
+ *       [-Dbenchmark.methods=listCandidateRows|listCandidatesYearsMoreThanAndGender]
+ *
+ * The main method runs all benchmarks once for every thread count with the GC profiler, and writes all results
+ * into one JSON file ('benchmark.output', target/jmh-result.json by default). The allocation rate per operation is
+ * the 'gc.alloc.rate.norm' secondary metric of every benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class CandidateServiceBenchmark {
+
+    private static final int PARTIES = 5;
+
+    @Param({"1000", "100000", "1000000"})
+    public int candidates;
+
+    private ConfigurableApplicationContext context;
+    private CandidateService candidateService;
+    private long[] ids;
+    private Long partyId;
+
+    @Setup(Level.Trial)
+    public void boot() throws IOException {
+        this.context = new SpringApplicationBuilder(ExampleApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                // arguments, because they take precedence over application.properties
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark-" + this.candidates,
+                        "--candidates.import.batch-size=1000",
+                        "--candidates.import.commit-interval=50000");
+        this.candidateService = this.context.getBean(CandidateService.class);
+
+        int existing = this.candidateService.listAllCandidates().size();
+        ImportReport report = this.context.getBean(CandidateImportService.class)
+                .importCandidates(new SyntheticCandidates(Math.max(0, this.candidates - existing), PARTIES), ImportFormat.CSV);
+        if (report.getRejected() > 0) {
+            throw new IllegalStateException("Synthetic candidates were rejected: " + report.getErrors());
+        }
+
+        List<Candidate> all = this.candidateService.listAllCandidates();
+        this.ids = all.stream().mapToLong(Candidate::getId).toArray();
+        this.partyId = all.get(0).getParty().getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.context.close();
+    }
+
+    private Long randomId() {
+        return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+    }
+
+    @Benchmark
+    public List<Candidate> listAllCandidates() {
+        return this.candidateService.listAllCandidates();
+    }
+
+    @Benchmark
+    public List<Candidate> listCandidatesYearsMoreThanAndGender() {
+        return this.candidateService.listCandidatesYearsMoreThanAndGender(60, Gender.FEMALE);
+    }
+
+    /**
+     * The same candidates as listCandidatesYearsMoreThanAndGender, as unmanaged rows without the biography.
+     */
+    @Benchmark
+    public List<CandidateRow> listCandidateRows() {
+        return this.candidateService.listCandidateRows(60, Gender.FEMALE);
+    }
+
+    @Benchmark
+    public CandidatePage listCandidatesPage() {
+        return this.candidateService.listCandidatesPage(null, null, CandidateSort.VOTES, Sort.Direction.DESC, null, null, 20);
+    }
+
+    @Benchmark
+    public Candidate findById() {
+        return this.candidateService.findById(randomId());
+    }
+
+    @Benchmark
+    public Candidate vote() {
+        return this.candidateService.vote(randomId());
+    }
+
+    /**
+     * create, update and delete together, so the size of the data set does not change during the run.
+     */
+    @Benchmark
+    public Candidate createUpdateDelete() {
+        Candidate candidate = this.candidateService.create("Benchmark", "Bio", LocalDate.of(1970, 1, 1), Gender.MALE, this.partyId);
+        this.candidateService.update(candidate.getId(), "Benchmark", "Updated", LocalDate.of(1971, 1, 1), Gender.FEMALE, this.partyId);
+        return this.candidateService.delete(candidate.getId());
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] sizes = System.getProperty("benchmark.sizes", "1000,100000,1000000").split(",");
+        String[] threads = System.getProperty("benchmark.threads", "1,8,32").split(",");
+        Path output = Paths.get(System.getProperty("benchmark.output", "target/jmh-result.json"));
+        boolean quick = Boolean.getBoolean("benchmark.quick");
+        String methods = System.getProperty("benchmark.methods", ".*");
+
+        List<RunResult> results = new ArrayList<>();
+        for (String count : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(CandidateServiceBenchmark.class.getName() + "\\.(" + methods + ")$")
+                    .param("candidates", sizes)
+                    .threads(Integer.parseInt(count.trim()))
+                    .addProfiler(GCProfiler.class);
+            if (quick) {
+                options.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(1).measurementTime(TimeValue.seconds(1));
+            }
+            results.addAll(new Runner(options.build()).run());
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output), true, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+}
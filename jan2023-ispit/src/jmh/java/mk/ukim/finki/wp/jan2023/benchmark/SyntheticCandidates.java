@@ -0,0 +1,56 @@
+package mk.ukim.finki.wp.jan2023.benchmark;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+/**
+ * CSV rows generated while they are read, so a million candidates never exist as one string.
+ * The candidates are spread round robin over the parties 'Party: 1' to 'Party: <parties>', the import creates
+ * the parties that do not exist yet.
+ */
+final class SyntheticCandidates extends InputStream {
+
+    private final int rows;
+    private final int parties;
+    private int row;
+    private byte[] line = new byte[0];
+    private int position;
+
+    SyntheticCandidates(int rows, int parties) {
+        this.rows = rows;
+        this.parties = parties;
+    }
+
+    @Override
+    public int read() {
+        if (this.position == this.line.length) {
+            if (this.row == this.rows) {
+                return -1;
+            }
+            this.line = nextLine().getBytes(StandardCharsets.UTF_8);
+            this.position = 0;
+        }
+        return this.line[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int read = 0;
+        while (read < length) {
+            int b = read();
+            if (b == -1) {
+                return read == 0 ? -1 : read;
+            }
+            buffer[offset + read++] = (byte) b;
+        }
+        return read;
+    }
+
+    private String nextLine() {
+        int i = this.row++;
+        LocalDate dateOfBirth = LocalDate.of(1930, 1, 1).plusDays(i % (365 * 70));
+        return "Synthetic " + i + ",Bio " + i + "," + dateOfBirth + "," + (i % 2 == 0 ? "MALE" : "FEMALE") + ","
+                + "Party: " + (i % this.parties + 1) + "\n";
+    }
+}
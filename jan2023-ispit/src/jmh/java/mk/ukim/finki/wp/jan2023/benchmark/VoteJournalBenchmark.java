@@ -0,0 +1,224 @@
+package mk.ukim.finki.wp.jan2023.benchmark;
+
+import mk.ukim.finki.wp.jan2023.ExampleApplication;
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.ImportReport;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
+import mk.ukim.finki.wp.jan2023.service.CandidateImportService;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteJournal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one vote in the VoteJournal against writing it to the candidate table, and cost of rebuilding
+ * the votes from the journal against reading them back from the table.
+ *
+ * Every trial boots the application without the web server and imports 'candidates' synthetic candidates.
+ * The append benchmarks write into journals of their own under target/vote-journal-benchmark, the replay
+ * benchmarks read a journal with one record per candidate, so replayJournal and readVotesFromTable return
+ * the same number of votes. Run it with
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.class=VoteJournalBenchmark [-Dbenchmark.sizes=100000,1000000]
+ *       [-Dbenchmark.threads=1,8] [-Dbenchmark.quick=true] [-Dbenchmark.methods=appendDurable|savePerVote]
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class VoteJournalBenchmark {
+
+    private static final int PARTIES = 5;
+    private static final Path DIRECTORY = Paths.get("target/vote-journal-benchmark");
+
+    @Param({"100000", "1000000"})
+    public int candidates;
+
+    private ConfigurableApplicationContext context;
+    private CandidateRepository candidateRepository;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private VoteJournal durable;
+    private VoteJournal buffered;
+    private VoteJournal replayed;
+    private long[] ids;
+
+    @Setup(Level.Trial)
+    public void boot() throws IOException {
+        this.context = new SpringApplicationBuilder(ExampleApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.datasource.url=jdbc:h2:mem:journal-benchmark-" + this.candidates,
+                        "--candidates.import.batch-size=1000",
+                        "--candidates.import.commit-interval=50000");
+        CandidateService candidateService = this.context.getBean(CandidateService.class);
+        this.candidateRepository = this.context.getBean(CandidateRepository.class);
+        this.jdbcTemplate = this.context.getBean(JdbcTemplate.class);
+        PlatformTransactionManager transactionManager = this.context.getBean(PlatformTransactionManager.class);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+
+        int existing = candidateService.listAllCandidates().size();
+        ImportReport report = this.context.getBean(CandidateImportService.class)
+                .importCandidates(new SyntheticCandidates(Math.max(0, this.candidates - existing), PARTIES), ImportFormat.CSV);
+        if (report.getRejected() > 0) {
+            throw new IllegalStateException("Synthetic candidates were rejected: " + report.getErrors());
+        }
+        this.ids = candidateService.listAllCandidates().stream().mapToLong(Candidate::getId).toArray();
+
+        FileSystemUtils.deleteRecursively(DIRECTORY);
+        this.durable = open(transactionManager, "durable", true);
+        this.buffered = open(transactionManager, "buffered", false);
+
+        VoteJournal writer = open(transactionManager, "replay", false);
+        for (long id : this.ids) {
+            writer.append(id, id);
+        }
+        close(writer);
+        // a journal that is only read, opening it would replay it into the table
+        this.replayed = new VoteJournal(this.jdbcTemplate, transactionManager,
+                DIRECTORY.resolve("replay").toString(), 1 << 16, false);
+    }
+
+    private VoteJournal open(PlatformTransactionManager transactionManager, String name, boolean durable) {
+        VoteJournal journal = new VoteJournal(this.jdbcTemplate, transactionManager,
+                DIRECTORY.resolve(name).toString(), 1 << 16, durable);
+        journal.afterSingletonsInstantiated();
+        return journal;
+    }
+
+    private static void close(VoteJournal journal) {
+        try {
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        close(this.durable);
+        close(this.buffered);
+        this.context.close();
+    }
+
+    private long randomId() {
+        return this.ids[ThreadLocalRandom.current().nextInt(this.ids.length)];
+    }
+
+    /**
+     * The write path before the accumulator and the journal: load the candidate and write its votes in a transaction.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void savePerVote() {
+        long id = randomId();
+        this.transactionTemplate.executeWithoutResult(status -> {
+            this.candidateRepository.findById(id).get();
+            this.candidateRepository.incrementVotes(id, 1);
+        });
+    }
+
+    /**
+     * One vote that waits for the group commit that writes it to disk.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void appendDurable() {
+        long id = randomId();
+        this.durable.append(id, id);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public void appendBuffered() {
+        long id = randomId();
+        this.buffered.append(id, id);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public VoteJournal.VoteCounts replayJournal() throws IOException {
+        return this.replayed.replay();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long readVotesFromTable() {
+        return this.jdbcTemplate.query("select id, votes from candidate", rs -> {
+            long votes = 0;
+            while (rs.next()) {
+                votes += rs.getLong(2);
+            }
+            return votes;
+        });
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] sizes = System.getProperty("benchmark.sizes", "100000,1000000").split(",");
+        String[] threads = System.getProperty("benchmark.threads", "1,8").split(",");
+        Path output = Paths.get(System.getProperty("benchmark.output", "target/jmh-result.json"));
+        boolean quick = Boolean.getBoolean("benchmark.quick");
+        String methods = System.getProperty("benchmark.methods", ".*");
+
+        List<RunResult> results = new ArrayList<>();
+        for (String count : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(VoteJournalBenchmark.class.getName() + "\\.(" + methods + ")$")
+                    .param("candidates", sizes)
+                    .threads(Integer.parseInt(count.trim()));
+            if (quick) {
+                options.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(1).measurementTime(TimeValue.seconds(1));
+            }
+            results.addAll(new Runner(options.build()).run());
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output), true, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+}
@@ -0,0 +1,16 @@
+package mk.ukim.finki.wp.jan2023.config;
+
+/**
+ * Selects how CandidateService.listCandidatesYearsMoreThanAndGender finds the matching candidates.
+ * Set with the property 'candidates.filter.mode'.
+ */
+public enum CandidateFilterMode {
+    /**
+     * Derived queries of the CandidateRepository.
+     */
+    REPOSITORY,
+    /**
+     * The in-memory CandidateBirthIndex, followed by a primary key lookup of the matching ids.
+     */
+    INDEX
+}
@@ -0,0 +1,48 @@
+package mk.ukim.finki.wp.jan2023.config;
+
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.ImportReport;
+import mk.ukim.finki.wp.jan2023.service.CandidateImportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Imports the candidates from the file given with 'candidates.import.file' when the application starts.
+ * The format is chosen by the file extension, see ImportFormat.fromFileName.
+ */
+@Component
+public class CandidateImportRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CandidateImportRunner.class);
+
+    private final CandidateImportService candidateImportService;
+    private final String file;
+
+    public CandidateImportRunner(CandidateImportService candidateImportService,
+                                 @Value("${candidates.import.file:}") String file) {
+        this.candidateImportService = candidateImportService;
+        this.file = file;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (this.file.isEmpty()) {
+            return;
+        }
+        Path path = Paths.get(this.file);
+        try (InputStream input = Files.newInputStream(path)) {
+            ImportReport report = this.candidateImportService.importCandidates(input, ImportFormat.fromFileName(this.file));
+            log.info("Imported {}: {}", path, report);
+            report.getErrors().forEach(error -> log.warn("Rejected {}", error));
+        }
+    }
+}
@@ -1,12 +1,14 @@
 package mk.ukim.finki.wp.jan2023.config;
 
 import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.Party;
 import mk.ukim.finki.wp.jan2023.service.CandidateService;
 import mk.ukim.finki.wp.jan2023.service.PartyService;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.time.LocalDate;
+import java.util.List;
 
 @Component
 public class DataInitializer {
@@ -31,8 +33,9 @@ public class DataInitializer {
             this.partyService.create("Party: " + i);
         }
 
+        List<Party> parties = this.partyService.listAll();
         for (int i = 1; i < 11; i++) {
-            this.candidateService.create("Candidate: " + i, "Bio: " + i , LocalDate.now().minusYears(25+i), this.randomizeGender(i), this.partyService.listAll().get((i-1)%5).getId());
+            this.candidateService.create("Candidate: " + i, "Bio: " + i , LocalDate.now().minusYears(25+i), this.randomizeGender(i), parties.get((i-1)%5).getId());
         }
     }
 }
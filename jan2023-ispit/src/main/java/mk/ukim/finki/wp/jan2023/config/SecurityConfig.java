@@ -17,7 +17,7 @@ import org.springframework.security.web.util.matcher.RequestMatcher;
 
 /**
  *  This class is used to configure user login on path '/login' and logout on path '/logout'.
- *  The only public page in the application should be '/'.
+ *  The only public pages in the application should be '/', '/candidates', the leaderboard stream and the party tallies.
  *  All other pages should be visible only for a user with role 'ROLE_ADMIN'.
  *  Furthermore, in the "list.html" template, the 'Edit', 'Delete', 'Add' buttons should only be
  *  visible for a user with role 'ROLE_ADMIN'.
@@ -62,7 +62,7 @@ public class SecurityConfig {
         http
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeRequests( (requests) -> requests
-                        .antMatchers("/","/candidates").permitAll()
+                        .antMatchers("/","/candidates","/candidates/leaderboard/stream","/parties/tallies").permitAll()
                         .anyRequest().hasRole("ADMIN")
                 )
                 .formLogin((form) -> form
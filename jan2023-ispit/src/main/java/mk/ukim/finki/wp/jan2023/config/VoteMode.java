@@ -0,0 +1,29 @@
+package mk.ukim.finki.wp.jan2023.config;
+
+/**
+ * Selects how CandidateService.vote counts a vote in the database.
+ * Set with the property 'candidates.votes.mode'.
+ */
+public enum VoteMode {
+    /**
+     * The VoteAccumulator of the instance collects the votes in memory and writes them with its background flush.
+     * Totals stay exact with several instances, but an instance only sees the votes of the others after their flush.
+     */
+    ACCUMULATE,
+    /**
+     * Every vote is one 'votes = votes + 1' update in its own transaction, so all instances see it right away.
+     */
+    ATOMIC,
+    /**
+     * Every vote reads the candidate and writes its votes only if Candidate.version did not change in between,
+     * retrying up to 'candidates.votes.max-retries' times.
+     */
+    OPTIMISTIC;
+
+    /**
+     * @return Whether every vote is written to the database before vote returns, so instances can share the database
+     */
+    public boolean isClusterSafe() {
+        return this != ACCUMULATE;
+    }
+}
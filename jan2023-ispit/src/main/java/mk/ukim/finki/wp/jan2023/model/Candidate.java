@@ -1,13 +1,20 @@
 package mk.ukim.finki.wp.jan2023.model;
 
+import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.persistence.Version;
 import java.time.LocalDate;
 
 @Entity
-public class Candidate {
+@Table(indexes = @Index(name = "candidate_votes_id_idx", columnList = "votes, id"))
+public class Candidate implements Votable {
 
     public Candidate() {
     }
@@ -33,11 +40,32 @@ public class Candidate {
 
     private Gender gender;
 
-    @ManyToOne
+    /**
+     * Loaded lazily, the list queries of the CandidateRepository fetch it together with the candidates.
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
     private Party party;
 
+    /**
+     * Votes that are already written to the database. The column is only changed through
+     * CandidateRepository.incrementVotes, so saving an edited candidate never overwrites it.
+     */
+    @Column(updatable = false)
     private Integer votes = 0;
 
+    /**
+     * Votes that are accepted but not yet flushed to the database.
+     */
+    @Transient
+    private int pendingVotes;
+
+    /**
+     * Incremented by every write of the candidate, including the vote increments of the CandidateRepository,
+     * so a vote counted against an older version can be detected.
+     */
+    @Version
+    private long version;
+
     public Long getId() {
         return id;
     }
@@ -87,10 +115,29 @@ public class Candidate {
     }
 
     public Integer getVotes() {
+        return votes + pendingVotes;
+    }
+
+    /**
+     * @return Only the votes that are already written to the database
+     */
+    public Integer getPersistedVotes() {
         return votes;
     }
 
     public void setVotes(Integer votes) {
         this.votes = votes;
     }
+
+    public int getPendingVotes() {
+        return pendingVotes;
+    }
+
+    public void setPendingVotes(int pendingVotes) {
+        this.pendingVotes = pendingVotes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
 }
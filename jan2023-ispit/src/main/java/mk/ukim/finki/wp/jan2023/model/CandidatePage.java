@@ -0,0 +1,49 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+import java.util.List;
+
+/**
+ * One page of candidate rows with the cursors of the neighbouring pages.
+ * A cursor is the sort key of the last (next) or first (previous) candidate on this page,
+ * so fetching a neighbouring page is a range query that costs the same on every page.
+ */
+public class CandidatePage {
+
+    private final List<CandidateRow> content;
+
+    private final String nextCursor;
+
+    private final String previousCursor;
+
+    public CandidatePage(List<CandidateRow> content, String nextCursor, String previousCursor) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+        this.previousCursor = previousCursor;
+    }
+
+    public List<CandidateRow> getContent() {
+        return content;
+    }
+
+    /**
+     * @return The cursor to pass as 'after' for the next page, or null when this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return The cursor to pass as 'before' for the previous page, or null when this is the first page
+     */
+    public String getPreviousCursor() {
+        return previousCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    public boolean hasPrevious() {
+        return previousCursor != null;
+    }
+}
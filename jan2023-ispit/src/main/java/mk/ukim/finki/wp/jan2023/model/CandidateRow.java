@@ -0,0 +1,91 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+import java.time.LocalDate;
+
+/**
+ * Read-only row of a candidate for the list views.
+ *
+ * It is built directly by the query with the columns that are displayed, so it is not managed by the persistence
+ * context: there is no entity snapshot for dirty checking and no Party proxy. The biography is cut to its first
+ * BIO_EXCERPT_LENGTH characters by the database.
+ */
+public class CandidateRow implements Votable {
+
+    public static final int BIO_EXCERPT_LENGTH = 80;
+
+    private final Long id;
+
+    private final String name;
+
+    private final String bio;
+
+    private final LocalDate dateOfBirth;
+
+    private final Gender gender;
+
+    private final Long partyId;
+
+    private final String partyName;
+
+    private final Integer votes;
+
+    private int pendingVotes;
+
+    public CandidateRow(Long id, String name, String bio, LocalDate dateOfBirth, Gender gender,
+                        Long partyId, String partyName, Integer votes) {
+        this.id = id;
+        this.name = name;
+        this.bio = bio;
+        this.dateOfBirth = dateOfBirth;
+        this.gender = gender;
+        this.partyId = partyId;
+        this.partyName = partyName;
+        this.votes = votes;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The first BIO_EXCERPT_LENGTH characters of the biography
+     */
+    public String getBio() {
+        return bio;
+    }
+
+    public LocalDate getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    public Long getPartyId() {
+        return partyId;
+    }
+
+    public String getPartyName() {
+        return partyName;
+    }
+
+    /**
+     * @return The persisted votes together with the votes that are not flushed yet
+     */
+    public Integer getVotes() {
+        return votes + pendingVotes;
+    }
+
+    public Integer getPersistedVotes() {
+        return votes;
+    }
+
+    public void setPendingVotes(int pendingVotes) {
+        this.pendingVotes = pendingVotes;
+    }
+}
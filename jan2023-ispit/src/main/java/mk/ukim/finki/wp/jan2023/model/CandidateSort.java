@@ -0,0 +1,9 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+/**
+ * Key that the paged candidate list is ordered by. Candidates with equal votes are ordered by id.
+ */
+public enum CandidateSort {
+    ID,
+    VOTES
+}
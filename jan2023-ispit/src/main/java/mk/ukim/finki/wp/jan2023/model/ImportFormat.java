@@ -0,0 +1,24 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+/**
+ * Formats accepted by the candidate bulk import.
+ *
+ * CSV has one candidate per line with the columns name,bio,dateOfBirth,gender,party and an optional header line.
+ * NDJSON has one JSON object per line with the same property names.
+ * The party is given by name, dateOfBirth in ISO format (yyyy-MM-dd) and gender as MALE or FEMALE.
+ */
+public enum ImportFormat {
+    CSV,
+    NDJSON;
+
+    /**
+     * @return NDJSON for '.ndjson', '.jsonl' and '.json' files, CSV otherwise
+     */
+    public static ImportFormat fromFileName(String fileName) {
+        String name = fileName == null ? "" : fileName.toLowerCase();
+        if (name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json")) {
+            return NDJSON;
+        }
+        return CSV;
+    }
+}
@@ -0,0 +1,74 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a candidate bulk import.
+ */
+public class ImportReport {
+
+    /**
+     * Only the first rejected rows are described, the rest are only counted.
+     */
+    public static final int MAX_ERRORS = 20;
+
+    private long imported;
+
+    private long rejected;
+
+    private long partiesCreated;
+
+    private long elapsedMillis;
+
+    private final List<String> errors = new ArrayList<>();
+
+    public void addImported(long rows) {
+        this.imported += rows;
+    }
+
+    public void reject(long line, String reason) {
+        this.rejected++;
+        if (this.errors.size() < MAX_ERRORS) {
+            this.errors.add("line " + line + ": " + reason);
+        }
+    }
+
+    public void partyCreated() {
+        this.partiesCreated++;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getPartiesCreated() {
+        return partiesCreated;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public long getRowsPerSecond() {
+        return elapsedMillis == 0 ? imported : imported * 1000 / elapsedMillis;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    @Override
+    public String toString() {
+        return "imported " + imported + " candidates (" + getRowsPerSecond() + " rows/s), rejected " + rejected
+                + ", created " + partiesCreated + " parties in " + elapsedMillis + " ms";
+    }
+}
@@ -0,0 +1,52 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+import java.util.Objects;
+
+/**
+ * One row of the live leaderboard. Instances are immutable so a single snapshot can be shared by all subscribers.
+ */
+public class LeaderboardEntry {
+
+    private final Long id;
+
+    private final String name;
+
+    private final String party;
+
+    private final int votes;
+
+    private final int rank;
+
+    public LeaderboardEntry(Long id, String name, String party, int votes, int rank) {
+        this.id = id;
+        this.name = name;
+        this.party = party;
+        this.votes = votes;
+        this.rank = rank;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getParty() {
+        return party;
+    }
+
+    public int getVotes() {
+        return votes;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    public boolean sameAs(LeaderboardEntry other) {
+        return other != null && votes == other.votes && rank == other.rank
+                && Objects.equals(name, other.name) && Objects.equals(party, other.party);
+    }
+}
@@ -0,0 +1,89 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.OneToOne;
+import javax.persistence.Transient;
+
+/**
+ * Read model with the total votes and number of candidates of a party.
+ * It is kept up to date by the CandidateService, so it never has to be computed from the candidate table.
+ * Like Candidate, it shows the persisted votes plus the votes of its candidates that are not flushed yet.
+ */
+@Entity
+public class PartyTally {
+
+    public PartyTally() {
+    }
+
+    public PartyTally(Party party) {
+        this.party = party;
+        this.votes = 0L;
+        this.candidates = 0L;
+    }
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    @OneToOne(optional = false)
+    private Party party;
+
+    private Long votes = 0L;
+
+    /**
+     * Votes for candidates of the party that are accepted but not yet flushed to the database.
+     */
+    @Transient
+    private long pendingVotes;
+
+    private Long candidates = 0L;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Party getParty() {
+        return party;
+    }
+
+    public void setParty(Party party) {
+        this.party = party;
+    }
+
+    public Long getVotes() {
+        return votes + pendingVotes;
+    }
+
+    /**
+     * @return Only the votes that are already written to the database
+     */
+    public Long getPersistedVotes() {
+        return votes;
+    }
+
+    public void setVotes(Long votes) {
+        this.votes = votes;
+    }
+
+    public long getPendingVotes() {
+        return pendingVotes;
+    }
+
+    public void setPendingVotes(long pendingVotes) {
+        this.pendingVotes = pendingVotes;
+    }
+
+    public Long getCandidates() {
+        return candidates;
+    }
+
+    public void setCandidates(Long candidates) {
+        this.candidates = candidates;
+    }
+}
@@ -0,0 +1,11 @@
+package mk.ukim.finki.wp.jan2023.model;
+
+/**
+ * Anything that shows the votes of a candidate, so the VoteAccumulator can add the votes that are not flushed yet.
+ */
+public interface Votable {
+
+    Long getId();
+
+    void setPendingVotes(int pendingVotes);
+}
@@ -0,0 +1,22 @@
+package mk.ukim.finki.wp.jan2023.model.events;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by CandidateService.create, update and delete, so views that show candidates can refresh.
+ * Inside a transaction it is published before the commit, listeners that read the candidates should
+ * handle it after the commit.
+ */
+public class CandidateChangedEvent extends ApplicationEvent {
+
+    private final Long candidateId;
+
+    public CandidateChangedEvent(Object source, Long candidateId) {
+        super(source);
+        this.candidateId = candidateId;
+    }
+
+    public Long getCandidateId() {
+        return candidateId;
+    }
+}
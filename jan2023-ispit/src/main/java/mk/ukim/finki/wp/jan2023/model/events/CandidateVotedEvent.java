@@ -0,0 +1,20 @@
+package mk.ukim.finki.wp.jan2023.model.events;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by CandidateService.vote after a vote for the candidate is accepted.
+ */
+public class CandidateVotedEvent extends ApplicationEvent {
+
+    private final Long candidateId;
+
+    public CandidateVotedEvent(Object source, Long candidateId) {
+        super(source);
+        this.candidateId = candidateId;
+    }
+
+    public Long getCandidateId() {
+        return candidateId;
+    }
+}
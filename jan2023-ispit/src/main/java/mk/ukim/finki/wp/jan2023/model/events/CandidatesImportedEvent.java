@@ -0,0 +1,21 @@
+package mk.ukim.finki.wp.jan2023.model.events;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published after a bulk import wrote candidates directly to the database,
+ * so in-memory structures built from the candidate table can be rebuilt.
+ */
+public class CandidatesImportedEvent extends ApplicationEvent {
+
+    private final long imported;
+
+    public CandidatesImportedEvent(Object source, long imported) {
+        super(source);
+        this.imported = imported;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+}
@@ -0,0 +1,26 @@
+package mk.ukim.finki.wp.jan2023.model.events;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Map;
+
+/**
+ * Published by the VoteAccumulator after a flush committed, while it still holds off readers of pending votes,
+ * so copies of the persisted votes can be brought up to date before the pending votes are read again.
+ */
+public class VotesFlushedEvent extends ApplicationEvent {
+
+    private final Map<Long, Long> deltas;
+
+    public VotesFlushedEvent(Object source, Map<Long, Long> deltas) {
+        super(source);
+        this.deltas = deltas;
+    }
+
+    /**
+     * @return Candidate id mapped to the votes that were added to its persisted votes
+     */
+    public Map<Long, Long> getDeltas() {
+        return deltas;
+    }
+}
@@ -0,0 +1,8 @@
+package mk.ukim.finki.wp.jan2023.model.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class DuplicateVoteException extends RuntimeException {
+}
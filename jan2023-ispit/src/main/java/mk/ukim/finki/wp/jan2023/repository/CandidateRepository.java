@@ -1,18 +1,126 @@
 package mk.ukim.finki.wp.jan2023.repository;
 
 import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
 import mk.ukim.finki.wp.jan2023.model.Gender;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface CandidateRepository extends JpaRepository<Candidate,Long> {
 
+    /*
+     * Candidate.party is lazy. The methods that return candidates for the list views fetch the party in the same
+     * query, so rendering a list never issues a select per party.
+     */
+
+    @Override
+    @EntityGraph(attributePaths = "party")
+    List<Candidate> findAll();
+
+    @Override
+    @EntityGraph(attributePaths = "party")
+    List<Candidate> findAllById(Iterable<Long> ids);
+
+    @EntityGraph(attributePaths = "party")
     List<Candidate> findAllByDateOfBirthBeforeAndGender(LocalDate birthday, Gender gender);
+    @EntityGraph(attributePaths = "party")
     List<Candidate> findAllByDateOfBirthBefore(LocalDate birthday);
 
+    @EntityGraph(attributePaths = "party")
     List<Candidate> findAllByGender(Gender gender);
+
+    /*
+     * Read-only rows for the list views. They select only the displayed columns into CandidateRow,
+     * so the candidates never enter the persistence context. The birthday and gender parameters
+     * can be null, in which case they are not used for filtering.
+     */
+
+    String ROWS = "select new mk.ukim.finki.wp.jan2023.model.CandidateRow(c.id, c.name, " +
+            "substring(c.bio, 1, " + CandidateRow.BIO_EXCERPT_LENGTH + "), c.dateOfBirth, c.gender, p.id, p.name, c.votes) " +
+            "from Candidate c join c.party p ";
+
+    String FILTER = "(:birthday is null or c.dateOfBirth < :birthday) and (:gender is null or c.gender = :gender) ";
+
+    @Query(ROWS + "where " + FILTER + "order by c.id")
+    List<CandidateRow> findRows(@Param("birthday") LocalDate birthday, @Param("gender") Gender gender);
+
+    @Query(ROWS + "where c.id in :ids")
+    List<CandidateRow> findRowsByIds(@Param("ids") Collection<Long> ids);
+
+    /*
+     * Keyset pages of the filtered rows. Each method returns the rows that come strictly after the
+     * given key in its order, the pageable only limits the number of rows.
+     */
+
+    @Query(ROWS + "where " + FILTER + "and c.id > :id order by c.id asc")
+    List<CandidateRow> pageByIdAscending(@Param("birthday") LocalDate birthday, @Param("gender") Gender gender,
+                                         @Param("id") Long id, Pageable pageable);
+
+    @Query(ROWS + "where " + FILTER + "and c.id < :id order by c.id desc")
+    List<CandidateRow> pageByIdDescending(@Param("birthday") LocalDate birthday, @Param("gender") Gender gender,
+                                          @Param("id") Long id, Pageable pageable);
+
+    @Query(ROWS + "where " + FILTER +
+            "and (c.votes > :votes or (c.votes = :votes and c.id > :id)) order by c.votes asc, c.id asc")
+    List<CandidateRow> pageByVotesAscending(@Param("birthday") LocalDate birthday, @Param("gender") Gender gender,
+                                            @Param("votes") Integer votes, @Param("id") Long id, Pageable pageable);
+
+    @Query(ROWS + "where " + FILTER +
+            "and (c.votes < :votes or (c.votes = :votes and c.id < :id)) order by c.votes desc, c.id desc")
+    List<CandidateRow> pageByVotesDescending(@Param("birthday") LocalDate birthday, @Param("gender") Gender gender,
+                                             @Param("votes") Integer votes, @Param("id") Long id, Pageable pageable);
+
+    /**
+     * @return One row per candidate with its id, date of birth and gender, used to build the CandidateBirthIndex
+     */
+    @Query("select c.id, c.dateOfBirth, c.gender from Candidate c")
+    List<Object[]> findAllBirthDates();
+
+    /**
+     * @return One row per given candidate with its id and the id of its party, used to add pending votes to tallies
+     */
+    @Query("select c.id, c.party.id from Candidate c where c.id in :ids")
+    List<Object[]> findPartyIdsByIds(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Loads the candidate and locks its row until the end of the transaction,
+     * so vote flushes for the candidate wait until its party tallies are moved.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select c from Candidate c where c.id = :id")
+    Optional<Candidate> findByIdForUpdate(@Param("id") Long id);
+
+    /**
+     * Adds delta to the stored votes of the candidate in a single UPDATE statement,
+     * so concurrent writers never overwrite each other.
+     *
+     * @return The number of updated rows (0 when the candidate no longer exists)
+     */
+    @Modifying
+    @Query("update Candidate c set c.votes = c.votes + :delta, c.version = c.version + 1 where c.id = :id")
+    int incrementVotes(@Param("id") Long id, @Param("delta") Integer delta);
+
+    /**
+     * Adds delta to the stored votes of the candidate only if it still has the given version.
+     * The persistence context is cleared, so the candidate is read again with its new votes.
+     *
+     * @return The number of updated rows (0 when the candidate was changed or deleted since it was read)
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update Candidate c set c.votes = c.votes + :delta, c.version = c.version + 1 " +
+            "where c.id = :id and c.version = :version")
+    int incrementVotesIfVersion(@Param("id") Long id, @Param("version") Long version, @Param("delta") Integer delta);
 }
@@ -0,0 +1,33 @@
+package mk.ukim.finki.wp.jan2023.repository;
+
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface PartyTallyRepository extends JpaRepository<PartyTally,Long> {
+
+    @Query("select t from PartyTally t join fetch t.party order by t.party.id")
+    List<PartyTally> findAllWithParty();
+
+    @Modifying
+    @Query("update PartyTally t set t.votes = t.votes + :votes, t.candidates = t.candidates + :candidates where t.party.id = :partyId")
+    int increment(@Param("partyId") Long partyId, @Param("votes") Long votes, @Param("candidates") Long candidates);
+
+    @Modifying
+    @Query("update PartyTally t set t.votes = :votes, t.candidates = :candidates where t.party.id = :partyId")
+    int overwrite(@Param("partyId") Long partyId, @Param("votes") Long votes, @Param("candidates") Long candidates);
+
+    /**
+     * Adds votes to the tally of the party that the candidate currently belongs to.
+     */
+    @Modifying
+    @Query("update PartyTally t set t.votes = t.votes + :votes " +
+            "where t.party.id = (select c.party.id from Candidate c where c.id = :candidateId)")
+    int incrementVotesOfCandidate(@Param("candidateId") Long candidateId, @Param("votes") Long votes);
+}
@@ -0,0 +1,21 @@
+package mk.ukim.finki.wp.jan2023.service;
+
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.ImportReport;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+public interface CandidateImportService {
+
+    /**
+     * This method is used to import candidates in bulk. The input is parsed one line at a time,
+     * so its size is not limited by the available memory. Parties are resolved by name and created when missing.
+     * Invalid rows are skipped and reported, the valid rows are written in JDBC batches.
+     *
+     * @param input  The content to import, it is not closed by this method
+     * @param format The format of the content
+     * @return The number of imported and rejected rows and the import speed
+     */
+    ImportReport importCandidates(InputStream input, ImportFormat format) throws IOException;
+}
@@ -1,10 +1,16 @@
 package mk.ukim.finki.wp.jan2023.service;
 
 import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
 import mk.ukim.finki.wp.jan2023.model.Gender;
 import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCandidateIdException;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCursorException;
 import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidPartyIdException;
 
+import org.springframework.data.domain.Sort;
+
 import java.time.LocalDate;
 import java.util.List;
 
@@ -80,4 +86,35 @@ public interface CandidateService {
      * @return The candidates that meet the filtering criteria
      */
     List<Candidate> listCandidatesYearsMoreThanAndGender(Integer yearsMoreThan, Gender gender);
+
+    /**
+     * Returns the same candidates as listCandidatesYearsMoreThanAndGender, as read-only rows for displaying.
+     * The rows are not managed entities and do not contain the full biography.
+     *
+     * @param yearsMoreThan that is used to filter the candidates who are older than this value.
+     *                        This param can be null, and is not used for filtering in this case.
+     * @param gender        Used for filtering the candidates gender.
+     *                        This param can be null, and is not used for filtering in this case.
+     * @return The rows of the candidates that meet the filtering criteria, ordered by id
+     */
+    List<CandidateRow> listCandidateRows(Integer yearsMoreThan, Gender gender);
+
+    /**
+     * Returns one page of the candidates that meet the filtering criteria, using keyset pagination.
+     * Only one of 'after' and 'before' should be given. When both are null, the first page is returned.
+     *
+     * @param yearsMoreThan that is used to filter the candidates who are older than this value.
+     *                        This param can be null, and is not used for filtering in this case.
+     * @param gender        Used for filtering the candidates gender.
+     *                        This param can be null, and is not used for filtering in this case.
+     * @param sort          The key the candidates are ordered by
+     * @param direction     The direction of the order
+     * @param after         The next cursor of the current page, to obtain the next page
+     * @param before        The previous cursor of the current page, to obtain the previous page
+     * @param size          The maximal number of candidates on the page
+     * @return The page of candidate rows with the cursors of the neighbouring pages
+     * @throws InvalidCursorException when 'after' or 'before' is not a cursor of the given sort
+     */
+    CandidatePage listCandidatesPage(Integer yearsMoreThan, Gender gender, CandidateSort sort, Sort.Direction direction,
+                                     String after, String before, int size);
 }
@@ -2,6 +2,7 @@ package mk.ukim.finki.wp.jan2023.service;
 
 import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidPartyIdException;
 import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
 
 import java.util.List;
 
@@ -28,4 +29,13 @@ public interface PartyService {
      * @return The party that is created. The id should be generated when the party is created.
      */
     Party create(String name);
+
+    /**
+     * Returns the votes and number of candidates for every party.
+     * The tallies are maintained when candidates are created, updated, deleted or voted for,
+     * so this method never reads the candidate table.
+     *
+     * @return List of the tallies of all parties
+     */
+    List<PartyTally> listTallies();
 }
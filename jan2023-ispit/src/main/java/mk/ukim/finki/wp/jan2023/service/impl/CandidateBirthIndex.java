@@ -0,0 +1,263 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory secondary index of candidate ids sorted by date of birth and partitioned by gender.
+ *
+ * Each partition keeps two parallel primitive arrays: the epoch day of the birth date in ascending order and the
+ * candidate id. "Born before a date" is therefore a binary search for the first day that is not before the cutoff,
+ * and the answer is the prefix of the id array up to that position.
+ *
+ * Changes made inside a transaction are applied only after the transaction commits.
+ */
+@Component
+public class CandidateBirthIndex {
+
+    /**
+     * Candidates without a date of birth are never born before a cutoff, so they are kept at the end of a partition.
+     * They are only returned by a filter without a cutoff, which returns the whole partition.
+     */
+    private static final long NO_DATE = Long.MAX_VALUE;
+
+    private final Partition[] partitions = new Partition[Gender.values().length + 1];
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public CandidateBirthIndex() {
+        for (int i = 0; i < this.partitions.length; i++) {
+            this.partitions[i] = new Partition();
+        }
+    }
+
+    /**
+     * Replaces the content of the index with the given rows of (id, date of birth, gender).
+     */
+    public void load(List<Object[]> rows) {
+        int[] counts = new int[this.partitions.length];
+        for (Object[] row : rows) {
+            counts[slot((Gender) row[2])]++;
+        }
+        long[][] days = new long[this.partitions.length][];
+        long[][] ids = new long[this.partitions.length][];
+        for (int i = 0; i < this.partitions.length; i++) {
+            days[i] = new long[counts[i]];
+            ids[i] = new long[counts[i]];
+            counts[i] = 0;
+        }
+        for (Object[] row : rows) {
+            int slot = slot((Gender) row[2]);
+            days[slot][counts[slot]] = day((LocalDate) row[1]);
+            ids[slot][counts[slot]] = (Long) row[0];
+            counts[slot]++;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < this.partitions.length; i++) {
+                this.partitions[i].replace(days[i], ids[i]);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the candidates with the given gender that are born before the cutoff.
+     *
+     * @param cutoff Only candidates born before this date are returned. When null, the date is not used for filtering.
+     * @param gender Only candidates with this gender are returned. When null, the gender is not used for filtering.
+     * @return The matching ids, ordered by date of birth within each gender
+     */
+    public long[] idsBornBefore(LocalDate cutoff, Gender gender) {
+        this.lock.readLock().lock();
+        try {
+            if (gender != null) {
+                return this.partitions[slot(gender)].prefix(cutoff);
+            }
+            long[][] prefixes = new long[this.partitions.length][];
+            int total = 0;
+            for (int i = 0; i < this.partitions.length; i++) {
+                prefixes[i] = this.partitions[i].prefix(cutoff);
+                total += prefixes[i].length;
+            }
+            long[] result = new long[total];
+            int offset = 0;
+            for (long[] prefix : prefixes) {
+                System.arraycopy(prefix, 0, result, offset, prefix.length);
+                offset += prefix.length;
+            }
+            return result;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            int size = 0;
+            for (Partition partition : this.partitions) {
+                size += partition.size;
+            }
+            return size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    public void add(Long id, LocalDate dateOfBirth, Gender gender) {
+        afterCommit(() -> {
+            this.lock.writeLock().lock();
+            try {
+                this.partitions[slot(gender)].insert(day(dateOfBirth), id);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void remove(Long id, LocalDate dateOfBirth, Gender gender) {
+        afterCommit(() -> {
+            this.lock.writeLock().lock();
+            try {
+                this.partitions[slot(gender)].remove(day(dateOfBirth), id);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void move(Long id, LocalDate oldDateOfBirth, Gender oldGender, LocalDate dateOfBirth, Gender gender) {
+        afterCommit(() -> {
+            this.lock.writeLock().lock();
+            try {
+                this.partitions[slot(oldGender)].remove(day(oldDateOfBirth), id);
+                this.partitions[slot(gender)].insert(day(dateOfBirth), id);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private static int slot(Gender gender) {
+        return gender == null ? 0 : gender.ordinal() + 1;
+    }
+
+    private static long day(LocalDate date) {
+        return date == null ? NO_DATE : date.toEpochDay();
+    }
+
+    private static final class Partition {
+
+        private long[] days = new long[16];
+        private long[] ids = new long[16];
+        private int size;
+
+        /**
+         * Sorts the given arrays by day and uses them as the content of the partition.
+         * The days and positions are packed into one long each, so the sort stays on primitives.
+         */
+        void replace(long[] days, long[] ids) {
+            long[] packed = new long[days.length];
+            for (int i = 0; i < days.length; i++) {
+                packed[i] = (days[i] == NO_DATE ? Integer.MAX_VALUE : days[i]) << 32 | i;
+            }
+            Arrays.sort(packed);
+            this.days = new long[Math.max(16, days.length)];
+            this.ids = new long[this.days.length];
+            for (int i = 0; i < packed.length; i++) {
+                int position = (int) packed[i];
+                this.days[i] = days[position];
+                this.ids[i] = ids[position];
+            }
+            this.size = days.length;
+        }
+
+        /**
+         * @return Position of the first entry whose day is not before the given day
+         */
+        int lowerBound(long day) {
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.days[mid] < day) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return Position of the first entry whose day is after the given day
+         */
+        int upperBound(long day) {
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.days[mid] <= day) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The ids of the entries born before the cutoff, or of all entries when the cutoff is null
+         */
+        long[] prefix(LocalDate cutoff) {
+            return Arrays.copyOf(this.ids, cutoff == null ? this.size : lowerBound(cutoff.toEpochDay()));
+        }
+
+        void insert(long day, long id) {
+            if (this.size == this.days.length) {
+                this.days = Arrays.copyOf(this.days, this.size * 2);
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            int position = upperBound(day);
+            System.arraycopy(this.days, position, this.days, position + 1, this.size - position);
+            System.arraycopy(this.ids, position, this.ids, position + 1, this.size - position);
+            this.days[position] = day;
+            this.ids[position] = id;
+            this.size++;
+        }
+
+        void remove(long day, long id) {
+            for (int i = lowerBound(day); i < this.size && this.days[i] == day; i++) {
+                if (this.ids[i] == id) {
+                    System.arraycopy(this.days, i + 1, this.days, i, this.size - i - 1);
+                    System.arraycopy(this.ids, i + 1, this.ids, i, this.size - i - 1);
+                    this.size--;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.events.CandidatesImportedEvent;
+import mk.ukim.finki.wp.jan2023.model.events.VotesFlushedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Caches the results of CandidateService.listCandidatesYearsMoreThanAndGender by (cutoff date, gender).
+ *
+ * A result only changes when a candidate is written or when the calendar day rolls over and moves the cutoff.
+ * Entries therefore hold the day they were loaded on and expire at local midnight, and all entries are dropped
+ * after a candidate is created, updated or deleted, or after a bulk import. The persisted votes of the cached
+ * candidates are brought up to date with the deltas of every VotesFlushedEvent, and the caller adds the pending
+ * votes on every read, so votes never make an entry stale.
+ *
+ * At most 'candidates.filter.cache-size' results are kept, the least recently used one is evicted first, and 0
+ * disables the cache. Concurrent misses for the same key wait for the one query that is already running.
+ *
+ * Cached candidates are detached copies that are replaced instead of changed. Every call gets its own copies,
+ * so setting their pending votes never changes the cached ones.
+ */
+@Component
+public class CandidateFilterCache {
+
+    private final VoteAccumulator voteAccumulator;
+    private final int maxSize;
+    private final Clock clock;
+
+    private final Map<Key, Entry> entries;
+    private final Map<Key, CompletableFuture<Candidate[]>> loading = new ConcurrentHashMap<>();
+    private final AtomicLong writes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private LocalDate day;
+
+    @Autowired
+    public CandidateFilterCache(VoteAccumulator voteAccumulator, @Value("${candidates.filter.cache-size:256}") int maxSize) {
+        this(voteAccumulator, maxSize, Clock.systemDefaultZone());
+    }
+
+    public CandidateFilterCache(VoteAccumulator voteAccumulator, int maxSize, Clock clock) {
+        this.voteAccumulator = voteAccumulator;
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns copies of the cached candidates for the filter, or loads them with the loader on a miss.
+     * Their pending votes are not set, the caller sets them with VoteAccumulator.loadAll.
+     *
+     * @param yearsMoreThan Used to compute the cutoff date from the current day, can be null
+     * @param gender        Can be null
+     * @param loader        Queries the candidates born before the given cutoff date (null when yearsMoreThan is null)
+     *                      with the given gender
+     */
+    public List<Candidate> get(Integer yearsMoreThan, Gender gender, Function<LocalDate, List<Candidate>> loader) {
+        LocalDate today = LocalDate.now(this.clock);
+        LocalDate cutoff = yearsMoreThan == null ? null : today.minusYears(yearsMoreThan);
+        if (this.maxSize <= 0) {
+            return loader.apply(cutoff);
+        }
+        Key key = new Key(cutoff, gender);
+
+        Entry entry;
+        synchronized (this.entries) {
+            if (!today.equals(this.day)) {
+                // the cutoffs of all entries moved at midnight
+                this.entries.clear();
+                this.day = today;
+            }
+            entry = this.entries.get(key);
+        }
+        if (entry != null && entry.day.equals(today)) {
+            this.hits.increment();
+            return copies(entry.candidates);
+        }
+
+        CompletableFuture<Candidate[]> mine = new CompletableFuture<>();
+        CompletableFuture<Candidate[]> running = this.loading.putIfAbsent(key, mine);
+        if (running != null) {
+            this.hits.increment();
+            return copies(await(running));
+        }
+        this.misses.increment();
+        try {
+            long writes = this.writes.get();
+            long flushes = this.voteAccumulator.flushes();
+            List<Candidate> loaded = loader.apply(cutoff);
+            Candidate[] snapshot = new Candidate[loaded.size()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = copy(loaded.get(i), loaded.get(i).getPersistedVotes());
+            }
+            // a flush that committed during the query may or may not be in the result, so it is not cached
+            this.voteAccumulator.runUnlessFlushedSince(flushes, () -> {
+                synchronized (this.entries) {
+                    if (this.writes.get() == writes) {
+                        this.entries.put(key, new Entry(today, snapshot));
+                    }
+                }
+            });
+            mine.complete(snapshot);
+            return loaded;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loading.remove(key, mine);
+        }
+    }
+
+    /**
+     * Adds the flushed votes to the cached candidates. It runs before readers of pending votes continue,
+     * so a cached candidate never misses the votes that just stopped being pending.
+     */
+    @EventListener
+    public void votesFlushed(VotesFlushedEvent event) {
+        synchronized (this.entries) {
+            for (Entry entry : this.entries.values()) {
+                event.getDeltas().forEach((id, delta) -> {
+                    Integer position = entry.positions.get(id);
+                    if (position != null) {
+                        Candidate cached = entry.candidates[position];
+                        entry.candidates[position] = copy(cached, cached.getPersistedVotes() + delta.intValue());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Drops all cached results once the current transaction commits, or right away outside of a transaction.
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    clear();
+                }
+            });
+        } else {
+            clear();
+        }
+    }
+
+    @EventListener(CandidatesImportedEvent.class)
+    public void clear() {
+        synchronized (this.entries) {
+            this.writes.incrementAndGet();
+            this.entries.clear();
+            // later misses must not wait for a query that started before the write
+            this.loading.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long hits() {
+        return this.hits.sum();
+    }
+
+    public long misses() {
+        return this.misses.sum();
+    }
+
+    private static Candidate[] await(CompletableFuture<Candidate[]> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static List<Candidate> copies(Candidate[] candidates) {
+        List<Candidate> copies = new ArrayList<>(candidates.length);
+        for (Candidate candidate : candidates) {
+            copies.add(copy(candidate, candidate.getPersistedVotes()));
+        }
+        return copies;
+    }
+
+    private static Candidate copy(Candidate candidate, int votes) {
+        Candidate copy = new Candidate(candidate.getName(), candidate.getBio(), candidate.getDateOfBirth(),
+                candidate.getGender(), candidate.getParty());
+        copy.setId(candidate.getId());
+        copy.setVotes(votes);
+        return copy;
+    }
+
+    private static final class Key {
+
+        private final LocalDate cutoff;
+        private final Gender gender;
+
+        Key(LocalDate cutoff, Gender gender) {
+            this.cutoff = cutoff;
+            this.gender = gender;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(this.cutoff, key.cutoff) && this.gender == key.gender;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.cutoff, this.gender);
+        }
+    }
+
+    private static final class Entry {
+
+        private final LocalDate day;
+        private final Candidate[] candidates;
+        private final Map<Long, Integer> positions;
+
+        Entry(LocalDate day, Candidate[] candidates) {
+            this.day = day;
+            this.candidates = candidates;
+            this.positions = new HashMap<>(candidates.length * 2);
+            for (int i = 0; i < candidates.length; i++) {
+                this.positions.put(candidates[i].getId(), i);
+            }
+        }
+    }
+}
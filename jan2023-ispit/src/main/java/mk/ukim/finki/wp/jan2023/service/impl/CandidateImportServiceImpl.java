@@ -0,0 +1,291 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.ImportReport;
+import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.events.CandidatesImportedEvent;
+import mk.ukim.finki.wp.jan2023.repository.PartyRepository;
+import mk.ukim.finki.wp.jan2023.repository.PartyTallyRepository;
+import mk.ukim.finki.wp.jan2023.service.CandidateImportService;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Service
+public class CandidateImportServiceImpl implements CandidateImportService {
+
+    /**
+     * Length of the varchar columns of the candidate table.
+     */
+    private static final int MAX_TEXT_LENGTH = 255;
+
+    private final PartyRepository partyRepository;
+    private final PartyTallyRepository partyTallyRepository;
+    private final PartyService partyService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CandidateShards shards;
+    private final int batchSize;
+    private final int commitInterval;
+    private final String insertSql;
+
+    public CandidateImportServiceImpl(PartyRepository partyRepository,
+                                      PartyTallyRepository partyTallyRepository,
+                                      PartyService partyService,
+                                      JdbcTemplate jdbcTemplate,
+                                      PlatformTransactionManager transactionManager,
+                                      EntityManagerFactory entityManagerFactory,
+                                      ObjectMapper objectMapper,
+                                      ApplicationEventPublisher eventPublisher,
+                                      ObjectProvider<CandidateShards> shards,
+                                      @Value("${candidates.import.batch-size:1000}") int batchSize,
+                                      @Value("${candidates.import.commit-interval:10000}") int commitInterval) {
+        this.partyRepository = partyRepository;
+        this.partyTallyRepository = partyTallyRepository;
+        this.partyService = partyService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.eventPublisher = eventPublisher;
+        this.shards = shards.getIfAvailable();
+        this.batchSize = batchSize;
+        this.commitInterval = Math.max(batchSize, commitInterval);
+        // ids come from the same sequence Hibernate uses for Candidate, so imported rows never collide with it
+        String nextId = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+                .getSelectSequenceNextValString("hibernate_sequence");
+        this.insertSql = "insert into candidate (id, name, bio, date_of_birth, gender, party_id, votes, version) " +
+                "values (" + nextId + ", ?, ?, ?, ?, ?, 0, 0)";
+    }
+
+    /**
+     * This method is used to import candidates in bulk. The input is parsed one line at a time,
+     * so its size is not limited by the available memory. Parties are resolved by name and created when missing.
+     * Invalid rows are skipped and reported, the valid rows are written in JDBC batches of
+     * 'candidates.import.batch-size' rows, and committed every 'candidates.import.commit-interval' rows
+     * together with the party tallies.
+     * When the candidates are stored in CandidateShards, every batch is split by the shards of the parties.
+     *
+     * @param input  The content to import, it is not closed by this method
+     * @param format The format of the content
+     * @return The number of imported and rejected rows and the import speed
+     */
+    public ImportReport importCandidates(InputStream input, ImportFormat format) throws IOException {
+        long start = System.nanoTime();
+        ImportReport report = new ImportReport();
+        Map<String, Long> parties = new HashMap<>();
+        this.partyRepository.findAll().forEach(party -> parties.putIfAbsent(party.getName(), party.getId()));
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        Chunk chunk = new Chunk(reader, format, parties, report);
+        try {
+            while (Boolean.TRUE.equals(this.transactionTemplate.execute(status -> chunk.importNext()))) {
+                // every iteration commits one chunk of at most 'commitInterval' rows
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        report.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        if (report.getImported() > 0) {
+            this.eventPublisher.publishEvent(new CandidatesImportedEvent(this, report.getImported()));
+        }
+        return report;
+    }
+
+    /**
+     * Reads the input in chunks that are each written in one transaction.
+     */
+    private class Chunk {
+
+        private final BufferedReader reader;
+        private final ImportFormat format;
+        private final Map<String, Long> parties;
+        private final ImportReport report;
+        private long line;
+
+        Chunk(BufferedReader reader, ImportFormat format, Map<String, Long> parties, ImportReport report) {
+            this.reader = reader;
+            this.format = format;
+            this.parties = parties;
+            this.report = report;
+        }
+
+        /**
+         * Imports the next 'commitInterval' valid rows.
+         *
+         * @return false when the end of the input is reached
+         */
+        boolean importNext() {
+            List<Object[]> batch = new ArrayList<>(batchSize);
+            Map<Long, Long> candidatesPerParty = new HashMap<>();
+            int rows = 0;
+            String text;
+            try {
+                while (rows < commitInterval && (text = this.reader.readLine()) != null) {
+                    this.line++;
+                    if (text.trim().isEmpty() || isHeader(text)) {
+                        continue;
+                    }
+                    Object[] row;
+                    try {
+                        row = parse(text);
+                    } catch (IllegalArgumentException | DateTimeParseException | IOException e) {
+                        this.report.reject(this.line, e.getMessage());
+                        continue;
+                    }
+                    candidatesPerParty.merge((Long) row[4], 1L, Long::sum);
+                    batch.add(row);
+                    rows++;
+                    if (batch.size() == batchSize) {
+                        writeBatch(batch);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            writeBatch(batch);
+            candidatesPerParty.forEach((party, count) -> partyTallyRepository.increment(party, 0L, count));
+            this.report.addImported(rows);
+            return rows == commitInterval;
+        }
+
+        private void writeBatch(List<Object[]> batch) {
+            if (!batch.isEmpty() && shards != null) {
+                // the shards commit their rows on their own, the tallies are committed with the chunk
+                shards.insertBatch(batch);
+                batch.clear();
+            } else if (!batch.isEmpty()) {
+                jdbcTemplate.batchUpdate(insertSql, batch);
+                batch.clear();
+            }
+        }
+
+        private boolean isHeader(String text) {
+            return this.line == 1 && this.format == ImportFormat.CSV && text.trim().toLowerCase().startsWith("name,");
+        }
+
+        /**
+         * @return The insert parameters: name, bio, date of birth, gender ordinal and party id
+         */
+        private Object[] parse(String text) throws IOException {
+            String name;
+            String bio;
+            String dateOfBirth;
+            String gender;
+            String party;
+            if (this.format == ImportFormat.NDJSON) {
+                JsonNode node = objectMapper.readTree(text);
+                name = node.path("name").asText(null);
+                bio = node.path("bio").asText(null);
+                dateOfBirth = node.path("dateOfBirth").asText(null);
+                gender = node.path("gender").asText(null);
+                party = node.path("party").asText(null);
+            } else {
+                List<String> columns = splitCsv(text);
+                if (columns.size() != 5) {
+                    throw new IllegalArgumentException("expected 5 columns but found " + columns.size());
+                }
+                name = columns.get(0);
+                bio = columns.get(1);
+                dateOfBirth = columns.get(2);
+                gender = columns.get(3);
+                party = columns.get(4);
+            }
+            return new Object[]{
+                    text("name", name),
+                    text("bio", bio),
+                    Date.valueOf(LocalDate.parse(required("dateOfBirth", dateOfBirth))),
+                    Gender.valueOf(required("gender", gender).toUpperCase()).ordinal(),
+                    partyId(text("party", party))
+            };
+        }
+
+        private Long partyId(String name) {
+            Long id = this.parties.get(name);
+            if (id == null) {
+                Party party = partyService.create(name);
+                // the JDBC inserts reference the party, so it has to reach the database first
+                partyRepository.flush();
+                id = party.getId();
+                this.parties.put(name, id);
+                this.report.partyCreated();
+            }
+            return id;
+        }
+    }
+
+    private static String required(String column, String value) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing " + column);
+        }
+        return value.trim();
+    }
+
+    private static String text(String column, String value) {
+        String text = required(column, value);
+        if (text.length() > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException(column + " is longer than " + MAX_TEXT_LENGTH + " characters");
+        }
+        return text;
+    }
+
+    /**
+     * Splits one CSV line. Fields can be quoted with '"', and a quote inside a quoted field is written as '""'.
+     */
+    static List<String> splitCsv(String line) {
+        List<String> columns = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                columns.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        columns.add(current.toString());
+        return columns;
+    }
+}
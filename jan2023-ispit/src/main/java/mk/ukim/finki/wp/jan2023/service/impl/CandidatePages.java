@@ -0,0 +1,80 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCursorException;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds keyset pages of candidate rows. The cursors contain the sort key of a candidate ('id' or 'votes_id'),
+ * so every page is a range query that starts right after the cursor instead of skipping the previous rows.
+ */
+final class CandidatePages {
+
+    /**
+     * Selects at most 'limit' rows that come strictly after the given key in the scanned order.
+     */
+    interface RangeQuery {
+        List<CandidateRow> find(boolean ascending, int votes, long id, int limit);
+    }
+
+    private CandidatePages() {
+    }
+
+    /**
+     * @throws InvalidCursorException when 'after' or 'before' is not a cursor of the given sort
+     */
+    static CandidatePage page(CandidateSort sort, Sort.Direction direction, String after, String before, int size,
+                              RangeQuery query) {
+        boolean backwards = before != null;
+        String cursor = backwards ? before : after;
+        boolean ascending = direction.isAscending() != backwards;
+
+        int votes = ascending ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long id = ascending ? Long.MIN_VALUE : Long.MAX_VALUE;
+        try {
+            if (cursor != null && sort == CandidateSort.VOTES) {
+                int separator = cursor.indexOf('_');
+                if (separator < 0) {
+                    throw new InvalidCursorException();
+                }
+                votes = Integer.parseInt(cursor.substring(0, separator));
+                id = Long.parseLong(cursor.substring(separator + 1));
+            } else if (cursor != null) {
+                id = Long.parseLong(cursor);
+            }
+        } catch (NumberFormatException e) {
+            throw new InvalidCursorException();
+        }
+        // one extra row tells whether there is another page in the scanned direction
+        List<CandidateRow> candidates = query.find(ascending, votes, id, size + 1);
+
+        boolean more = candidates.size() > size;
+        candidates = new ArrayList<>(candidates.subList(0, Math.min(size, candidates.size())));
+        if (backwards) {
+            Collections.reverse(candidates);
+        }
+        if (candidates.isEmpty()) {
+            return new CandidatePage(candidates, null, null);
+        }
+
+        String first = cursorOf(candidates.get(0), sort);
+        String last = cursorOf(candidates.get(candidates.size() - 1), sort);
+        if (backwards) {
+            return new CandidatePage(candidates, last, more ? first : null);
+        }
+        return new CandidatePage(candidates, more ? last : null, cursor != null ? first : null);
+    }
+
+    private static String cursorOf(CandidateRow candidate, CandidateSort sort) {
+        if (sort == CandidateSort.VOTES) {
+            return candidate.getPersistedVotes() + "_" + candidate.getId();
+        }
+        return String.valueOf(candidate.getId());
+    }
+}
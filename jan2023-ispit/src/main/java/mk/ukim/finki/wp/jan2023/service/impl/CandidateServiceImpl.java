@@ -1,27 +1,97 @@
 package mk.ukim.finki.wp.jan2023.service.impl;
 
+import mk.ukim.finki.wp.jan2023.config.CandidateFilterMode;
+import mk.ukim.finki.wp.jan2023.config.VoteMode;
 import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
 import mk.ukim.finki.wp.jan2023.model.Gender;
 import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.Votable;
+import mk.ukim.finki.wp.jan2023.model.exceptions.DuplicateVoteException;
 import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCandidateIdException;
+import mk.ukim.finki.wp.jan2023.model.events.CandidateChangedEvent;
+import mk.ukim.finki.wp.jan2023.model.events.CandidateVotedEvent;
+import mk.ukim.finki.wp.jan2023.model.events.CandidatesImportedEvent;
 import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidPartyIdException;
 import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
 import mk.ukim.finki.wp.jan2023.repository.PartyRepository;
+import mk.ukim.finki.wp.jan2023.repository.PartyTallyRepository;
 import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.function.Function;
 
 @Service
+@ConditionalOnExpression("${candidates.shards.count:0} == 0")
 public class CandidateServiceImpl implements CandidateService {
 
+    private static final int ID_CHUNK_SIZE = 1000;
+
     private final CandidateRepository candidateRepository;
     private final PartyRepository partyRepository;
+    private final PartyTallyRepository partyTallyRepository;
+    private final VoteAccumulator voteAccumulator;
+    private final VoteJournal voteJournal;
+    private final VoterRegistry voterRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final CandidateBirthIndex birthIndex;
+    private final CandidateFilterCache filterCache;
+    private final DatabaseVoteCounter databaseVoteCounter;
+    private final CandidateFilterMode filterMode;
+    private final VoteMode voteMode;
 
-    public CandidateServiceImpl(CandidateRepository candidateRepository, PartyRepository partyRepository) {
+    public CandidateServiceImpl(CandidateRepository candidateRepository, PartyRepository partyRepository,
+                                PartyTallyRepository partyTallyRepository,
+                                VoteAccumulator voteAccumulator, VoteJournal voteJournal, VoterRegistry voterRegistry,
+                                ApplicationEventPublisher eventPublisher,
+                                CandidateBirthIndex birthIndex, CandidateFilterCache filterCache,
+                                DatabaseVoteCounter databaseVoteCounter,
+                                @Value("${candidates.filter.mode:REPOSITORY}") CandidateFilterMode filterMode,
+                                @Value("${candidates.votes.mode:ACCUMULATE}") VoteMode voteMode) {
+        if (voteMode.isClusterSafe() && voteJournal.isEnabled()) {
+            // the replay on startup overwrites the votes in the database with the votes of this instance only
+            throw new IllegalStateException("The vote journal can not be used with candidates.votes.mode=" + voteMode);
+        }
         this.candidateRepository = candidateRepository;
         this.partyRepository = partyRepository;
+        this.partyTallyRepository = partyTallyRepository;
+        this.voteAccumulator = voteAccumulator;
+        this.voteJournal = voteJournal;
+        this.voterRegistry = voterRegistry;
+        this.eventPublisher = eventPublisher;
+        this.birthIndex = birthIndex;
+        this.filterCache = filterCache;
+        this.databaseVoteCounter = databaseVoteCounter;
+        this.filterMode = filterMode;
+        this.voteMode = voteMode;
+    }
+
+    /**
+     * Builds the CandidateBirthIndex from the existing candidates when the index is used for filtering.
+     * A bulk import writes candidates without this service, so the index is rebuilt after it.
+     */
+    @PostConstruct
+    @EventListener(CandidatesImportedEvent.class)
+    public void loadBirthIndex() {
+        if (this.filterMode == CandidateFilterMode.INDEX) {
+            this.birthIndex.load(this.candidateRepository.findAllBirthDates());
+        }
     }
 
     /**
@@ -29,7 +99,7 @@ public class CandidateServiceImpl implements CandidateService {
      */
 
     public List<Candidate> listAllCandidates(){
-        return this.candidateRepository.findAll();
+        return this.voteAccumulator.loadAll(this.candidateRepository::findAll);
     }
 
     /**
@@ -40,7 +110,7 @@ public class CandidateServiceImpl implements CandidateService {
      * @throws InvalidCandidateIdException when there is no candidate with the given id
      */
     public Candidate findById(Long id){
-        return this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
+        return this.voteAccumulator.load(() -> this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new));
     }
 
     /**
@@ -54,11 +124,19 @@ public class CandidateServiceImpl implements CandidateService {
      * @return The candidate that is created. The id should be generated when the candidate is created.
      * @throws InvalidPartyIdException when there is no party with the given id
      */
+    @Transactional
     public Candidate create(String name, String bio, LocalDate dateOfBirth, Gender gender, Long party){
         Party party1=this.partyRepository.findById(party).orElseThrow(InvalidPartyIdException::new);
 
         Candidate candidate=new Candidate(name,bio,dateOfBirth,gender,party1);
-        return this.candidateRepository.save(candidate);
+        this.partyTallyRepository.increment(party1.getId(), 0L, 1L);
+        this.candidateRepository.save(candidate);
+        if (this.filterMode == CandidateFilterMode.INDEX) {
+            this.birthIndex.add(candidate.getId(), dateOfBirth, gender);
+        }
+        this.filterCache.invalidate();
+        this.eventPublisher.publishEvent(new CandidateChangedEvent(this, candidate.getId()));
+        return candidate;
     }
 
     /**
@@ -74,17 +152,32 @@ public class CandidateServiceImpl implements CandidateService {
      * @throws InvalidCandidateIdException when there is no candidate with the given id
      * @throws InvalidPartyIdException when there is no party with the given id
      */
+    @Transactional
     public Candidate update(Long id, String name, String bio, LocalDate dateOfBirth, Gender gender, Long party){
-        Candidate candidate=this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
+        Candidate candidate=this.candidateRepository.findByIdForUpdate(id).orElseThrow(InvalidCandidateIdException::new);
         Party party1=this.partyRepository.findById(party).orElseThrow(InvalidPartyIdException::new);
 
+        Long oldParty=candidate.getParty().getId();
+        if(!oldParty.equals(party1.getId())){
+            long votes=candidate.getPersistedVotes();
+            this.partyTallyRepository.increment(oldParty, -votes, -1L);
+            this.partyTallyRepository.increment(party1.getId(), votes, 1L);
+        }
+
+        if (this.filterMode == CandidateFilterMode.INDEX) {
+            this.birthIndex.move(id, candidate.getDateOfBirth(), candidate.getGender(), dateOfBirth, gender);
+        }
+
         candidate.setName(name);
         candidate.setBio(bio);
         candidate.setDateOfBirth(dateOfBirth);
         candidate.setGender(gender);
         candidate.setParty(party1);
+        this.filterCache.invalidate();
 
-        return this.candidateRepository.save(candidate);
+        candidate=this.candidateRepository.save(candidate);
+        this.eventPublisher.publishEvent(new CandidateChangedEvent(this, id));
+        return this.voteAccumulator.applyPending(candidate);
     }
 
     /**
@@ -94,29 +187,72 @@ public class CandidateServiceImpl implements CandidateService {
      * @return The candidate that is deleted.
      * @throws InvalidCandidateIdException when there is no candidate with the given id
      */
+    @Transactional
     public Candidate delete(Long id){
-        Candidate candidate=this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
+        Candidate candidate=this.candidateRepository.findByIdForUpdate(id).orElseThrow(InvalidCandidateIdException::new);
+         this.partyTallyRepository.increment(candidate.getParty().getId(), -candidate.getPersistedVotes().longValue(), -1L);
          this.candidateRepository.delete(candidate);
+         if (this.filterMode == CandidateFilterMode.INDEX) {
+             this.birthIndex.remove(id, candidate.getDateOfBirth(), candidate.getGender());
+         }
+         this.voteAccumulator.discard(id);
+         this.voterRegistry.discard(id);
+         this.filterCache.invalidate();
+         this.eventPublisher.publishEvent(new CandidateChangedEvent(this, id));
          return candidate;
     }
 
     /**
      * Method that should vote for a candidate. If the id is invalid, it should throw InvalidCandidateIdException.
+     * The vote is appended to the VoteJournal together with the current user, and added to the VoteAccumulator
+     * that writes it to the database by its background flush.
+     * When 'candidates.votes.mode' is ATOMIC or OPTIMISTIC, the vote is written to the database by the
+     * DatabaseVoteCounter before this method returns instead, so several instances can share the database.
+     * An authenticated user can vote for a candidate only once. A repeated vote is rejected by the VoterRegistry
+     * before the database is used.
      *
      * @param id
      * @return The candidate that is voted for.
      * @throws InvalidCandidateIdException when there is no candidate with the given id
+     * @throws DuplicateVoteException when the current user already voted for the candidate
+     * @throws OptimisticLockingFailureException when an OPTIMISTIC vote ran out of retries
      */
     public Candidate vote(Long id){
-        Candidate candidate=this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
-
-        Integer votes=candidate.getVotes()+1;
-        candidate.setVotes(votes);
-        return this.candidateRepository.save(candidate);
+        String voter=CurrentVoter.name();
+        long voterKey=VoteJournal.voterKey(voter==null ? VoterRegistry.ANONYMOUS_VOTER : voter);
+        if(voter!=null && !this.voterRegistry.register(id, voterKey)){
+            throw new DuplicateVoteException();
+        }
+        Candidate candidate;
+        try{
+            if(this.voteMode.isClusterSafe()){
+                candidate=this.databaseVoteCounter.vote(id);
+            }else{
+                // only the journal record and the pending vote are added under the read lock of the accumulator,
+                // the database read and the wait for the disk do not hold up a flush
+                long flushes=this.voteAccumulator.flushes();
+                Candidate found=this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
+                long sequence=this.voteAccumulator.add(id, () -> this.voteJournal.write(id, voterKey));
+                this.voteJournal.awaitDurable(sequence);
+                candidate=this.voteAccumulator.applyPending(found, flushes,
+                        () -> this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new));
+            }
+        }catch(InvalidCandidateIdException | OptimisticLockingFailureException e){
+            if(voter!=null){
+                this.voterRegistry.unregister(id, voterKey);
+            }
+            throw e;
+        }
+        this.eventPublisher.publishEvent(new CandidateVotedEvent(this, id));
+        return candidate;
     }
 
     /**
      * The implementation of this method should use repository implementation for the filtering.
+     * When 'candidates.filter.mode' is INDEX, the matching ids are taken from the CandidateBirthIndex instead
+     * and only those candidates are loaded by their primary key.
+     * Results are kept in the CandidateFilterCache until a candidate is written or the day ends. The cache is not
+     * used in the cluster safe vote modes, because the votes and writes of other instances do not reach it.
      *
      * @param yearsMoreThan that is used to filter the candidates who are older than this value.
      *                        This param can be null, and is not used for filtering in this case.
@@ -125,19 +261,86 @@ public class CandidateServiceImpl implements CandidateService {
      * @return The candidates that meet the filtering criteria
      */
     public List<Candidate> listCandidatesYearsMoreThanAndGender(Integer yearsMoreThan, Gender gender){
+        if(this.voteMode.isClusterSafe()){
+            LocalDate birthday=yearsMoreThan==null ? null : LocalDate.now().minusYears(yearsMoreThan);
+            return this.voteAccumulator.loadAll(() -> findCandidatesBornBefore(birthday, gender));
+        }
+        return this.voteAccumulator.loadAll(() -> this.filterCache.get(yearsMoreThan, gender,
+                birthday -> findCandidatesBornBefore(birthday, gender)));
+    }
+
+    private List<Candidate> findCandidatesBornBefore(LocalDate birthday, Gender gender){
         // 24 godini - 21.01.2000 togas 21.01.2024 - 24 = before
-        if(yearsMoreThan==null && gender==null){
+        if(this.filterMode==CandidateFilterMode.INDEX && (birthday!=null || gender!=null)){
+            return findAllByIds(this.birthIndex.idsBornBefore(birthday, gender), this.candidateRepository::findAllById);
+        }
+        if(birthday==null && gender==null){
             return this.candidateRepository.findAll();
-        }else if(yearsMoreThan!=null && gender!=null){
-            LocalDate birthday=LocalDate.now().minusYears(yearsMoreThan);
+        }else if(birthday!=null && gender!=null){
             return this.candidateRepository.findAllByDateOfBirthBeforeAndGender(birthday,gender);
-        }else if(yearsMoreThan!=null)
+        }else if(birthday!=null)
         {
-            LocalDate birthday=LocalDate.now().minusYears(yearsMoreThan);
             return this.candidateRepository.findAllByDateOfBirthBefore(birthday);
-        }else if(gender!=null){
-            return this.candidateRepository.findAllByGender(gender);
         }
-        return null;
+        return this.candidateRepository.findAllByGender(gender);
+    }
+
+    /**
+     * The rows are selected directly into CandidateRow, so they are never managed by the persistence context.
+     * When 'candidates.filter.mode' is INDEX, the matching ids are taken from the CandidateBirthIndex.
+     */
+    public List<CandidateRow> listCandidateRows(Integer yearsMoreThan, Gender gender){
+        LocalDate birthday=yearsMoreThan==null ? null : LocalDate.now().minusYears(yearsMoreThan);
+        if(this.filterMode==CandidateFilterMode.INDEX && (yearsMoreThan!=null || gender!=null)){
+            return this.voteAccumulator.loadAll(() -> findAllByIds(this.birthIndex.idsBornBefore(birthday, gender),
+                    this.candidateRepository::findRowsByIds));
+        }
+        return this.voteAccumulator.loadAll(() -> this.candidateRepository.findRows(birthday, gender));
+    }
+
+    /**
+     * Loads the candidates with the given ids in chunks, so the IN lists of the queries stay small.
+     *
+     * @return The candidates ordered by id
+     */
+    private <T extends Votable> List<T> findAllByIds(long[] ids, Function<List<Long>, List<T>> loader) {
+        List<T> candidates = new ArrayList<>(ids.length);
+        List<Long> chunk = new ArrayList<>(ID_CHUNK_SIZE);
+        for (long id : ids) {
+            chunk.add(id);
+            if (chunk.size() == ID_CHUNK_SIZE) {
+                candidates.addAll(loader.apply(chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            candidates.addAll(loader.apply(chunk));
+        }
+        candidates.sort(Comparator.comparing(Votable::getId));
+        return candidates;
+    }
+
+    /**
+     * Returns one page of the rows of the candidates that meet the filtering criteria, using keyset pagination.
+     * The cursors contain the sort key of a candidate ('id' or 'votes_id'), so every page is a range query
+     * starting right after the cursor instead of skipping the previous rows.
+     * Candidates are ordered by their persisted votes, pending votes are only added for display.
+     * Pages do not use the CandidateFilterCache: a page is one range query that reads only its own rows through
+     * an index, while the cache keeps whole filter results.
+     */
+    public CandidatePage listCandidatesPage(Integer yearsMoreThan, Gender gender, CandidateSort sort, Sort.Direction direction,
+                                            String after, String before, int size){
+        LocalDate birthday=yearsMoreThan==null ? null : LocalDate.now().minusYears(yearsMoreThan);
+        return CandidatePages.page(sort, direction, after, before, size, (ascending, votes, id, limit) -> {
+            Pageable pageable=PageRequest.of(0, limit);
+            if(sort==CandidateSort.VOTES){
+                return this.voteAccumulator.loadAll(() -> ascending
+                        ? this.candidateRepository.pageByVotesAscending(birthday, gender, votes, id, pageable)
+                        : this.candidateRepository.pageByVotesDescending(birthday, gender, votes, id, pageable));
+            }
+            return this.voteAccumulator.loadAll(() -> ascending
+                    ? this.candidateRepository.pageByIdAscending(birthday, gender, id, pageable)
+                    : this.candidateRepository.pageByIdDescending(birthday, gender, id, pageable));
+        });
     }
 }
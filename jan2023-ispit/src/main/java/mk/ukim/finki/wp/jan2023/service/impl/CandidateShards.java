@@ -0,0 +1,515 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import com.zaxxer.hikari.HikariDataSource;
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCandidateIdException;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidPartyIdException;
+import mk.ukim.finki.wp.jan2023.repository.PartyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Candidate storage split over 'candidates.shards.count' databases, used instead of the candidate table of the
+ * CandidateRepository when the count is greater than 0. The JDBC URL of shard i is 'candidates.shards.url'
+ * formatted with i.
+ *
+ * A candidate lives on the shard of its party, so all candidates of a party are on one shard. Parties and their
+ * tallies stay in the main database. Every shard has its own id sequence that starts at the shard index and
+ * increments by MAX_SHARDS, so ids never collide and a candidate keeps its id when it moves to another shard.
+ *
+ * A directory of the ids on every shard sends findById, vote, update and delete to a single shard. It is built from
+ * the shards on startup. Ids created by other instances are found by asking all shards once. A candidate that is
+ * not on the shard of the directory, because it was moved by an update that has not switched the directory yet,
+ * is looked up on all shards and the operation is retried once.
+ * Filters and pages are sent to all shards in parallel and the results are merged.
+ */
+@Component
+@ConditionalOnExpression("${candidates.shards.count:0} > 0")
+public class CandidateShards {
+
+    private static final Logger log = LoggerFactory.getLogger(CandidateShards.class);
+
+    public static final int MAX_SHARDS = 1024;
+
+    private static final String COLUMNS = "select id, name, bio, date_of_birth, gender, party_id, votes from candidate ";
+    private static final String ROW_COLUMNS = "select id, name, substring(bio, 1, " + CandidateRow.BIO_EXCERPT_LENGTH + "), " +
+            "date_of_birth, gender, party_id, votes from candidate ";
+    private static final String INSERT = "insert into candidate (id, name, bio, date_of_birth, gender, party_id, votes) " +
+            "values (?, ?, ?, ?, ?, ?, ?)";
+    private static final String MERGE = "merge into candidate (id, name, bio, date_of_birth, gender, party_id, votes) " +
+            "key (id) values (?, ?, ?, ?, ?, ?, ?)";
+
+    private final Shard[] shards;
+    private final PartyRepository partyRepository;
+    private final Map<Long, Party> parties = new ConcurrentHashMap<>();
+    private final ReadWriteLock directoryLock = new ReentrantReadWriteLock();
+    private final ExecutorService executor;
+
+    public CandidateShards(PartyRepository partyRepository,
+                           @Value("${candidates.shards.count}") int count,
+                           @Value("${candidates.shards.url:jdbc:h2:mem:candidates-shard-%d}") String url,
+                           @Value("${candidates.shards.username:sa}") String username,
+                           @Value("${candidates.shards.password:}") String password) {
+        if (count > MAX_SHARDS) {
+            throw new IllegalArgumentException("At most " + MAX_SHARDS + " shards are supported");
+        }
+        this.partyRepository = partyRepository;
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl(String.format(url, i));
+            dataSource.setUsername(username);
+            dataSource.setPassword(password);
+            dataSource.setPoolName("candidate-shard-" + i);
+            this.shards[i] = new Shard(i, dataSource);
+        }
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(count, r -> {
+            Thread thread = new Thread(r, "candidate-shard-query-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        for (Shard shard : this.shards) {
+            shard.jdbc.execute("create table if not exists candidate (id bigint primary key, name varchar(255), " +
+                    "bio varchar(255), date_of_birth date, gender integer, party_id bigint not null, votes integer not null)");
+            shard.jdbc.execute("create index if not exists candidate_gender_birth_idx on candidate (gender, date_of_birth)");
+            shard.jdbc.execute("create index if not exists candidate_votes_id_idx on candidate (votes, id)");
+            shard.jdbc.execute("create sequence if not exists candidate_id_seq start with " + (shard.index + 1) +
+                    " increment by " + MAX_SHARDS);
+        }
+        reloadDirectory();
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.executor.shutdownNow();
+        for (Shard shard : this.shards) {
+            shard.dataSource.close();
+        }
+    }
+
+    public int count() {
+        return this.shards.length;
+    }
+
+    /**
+     * @return The index of the shard that stores the candidates of the party
+     */
+    public int shardOf(Long partyId) {
+        // party ids come from a sequence shared with other entities, so they are mixed before the modulo
+        return (int) Math.floorMod(partyId * 0x9E3779B97F4A7C15L >>> 16, (long) this.shards.length);
+    }
+
+    /**
+     * @return The number of candidates on every shard, according to the directory
+     */
+    public int[] sizes() {
+        this.directoryLock.readLock().lock();
+        try {
+            int[] sizes = new int[this.shards.length];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = this.shards[i].ids.size();
+            }
+            return sizes;
+        } finally {
+            this.directoryLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuilds the directory from the ids on the shards, after candidates were written without this class.
+     */
+    public void reloadDirectory() {
+        // scatter keeps the order of the shards, so the i-th set belongs to shard i
+        List<LongHashSet> ids = scatter(shard -> {
+            LongHashSet set = new LongHashSet();
+            shard.jdbc.query("select id from candidate", rs -> {
+                set.add(rs.getLong(1));
+            });
+            return Collections.singletonList(set);
+        });
+        this.directoryLock.writeLock().lock();
+        try {
+            for (int i = 0; i < this.shards.length; i++) {
+                this.shards[i].ids = ids.get(i);
+            }
+        } finally {
+            this.directoryLock.writeLock().unlock();
+        }
+        log.info("Candidate shards contain {} candidates", Arrays.toString(sizes()));
+    }
+
+    public Candidate findById(Long id) {
+        return onShard(id, shard -> shard.jdbc.query(COLUMNS + "where id = ?", this::candidate, id).stream()
+                .findFirst().orElseThrow(InvalidCandidateIdException::new));
+    }
+
+    /**
+     * Stores a new candidate on the shard of its party and assigns its id.
+     */
+    public Candidate insert(Candidate candidate) {
+        Shard shard = this.shards[shardOf(candidate.getParty().getId())];
+        Long id = shard.jdbc.queryForObject("select next value for candidate_id_seq", Long.class);
+        candidate.setId(id);
+        shard.jdbc.update(INSERT, insertArguments(candidate));
+        register(shard, id);
+        return candidate;
+    }
+
+    /**
+     * Inserts rows of (name, bio, date of birth, gender ordinal, party id) in JDBC batches on the shards of their
+     * parties, with ids from the sequences of the shards. The new ids are not added to the directory,
+     * reloadDirectory has to be called after the last batch.
+     */
+    public void insertBatch(List<Object[]> rows) {
+        List<List<Object[]>> perShard = new ArrayList<>(this.shards.length);
+        for (int i = 0; i < this.shards.length; i++) {
+            perShard.add(new ArrayList<>());
+        }
+        for (Object[] row : rows) {
+            perShard.get(shardOf((Long) row[4])).add(row);
+        }
+        scatter(shard -> {
+            List<Object[]> batch = perShard.get(shard.index);
+            if (!batch.isEmpty()) {
+                shard.jdbc.batchUpdate("insert into candidate (id, name, bio, date_of_birth, gender, party_id, votes) " +
+                        "values (next value for candidate_id_seq, ?, ?, ?, ?, ?, 0)", batch);
+            }
+            return Collections.emptyList();
+        });
+    }
+
+    /**
+     * Changes a candidate. When the new party is on another shard, the candidate is copied there with its votes
+     * and then deleted from its old shard. The copy is committed first, so a failure never loses the candidate.
+     * It is a merge that is removed again when the delete fails, so a retried move neither fails on the copy
+     * nor leaves the candidate on both shards.
+     *
+     * @return The candidate as it was before the change
+     */
+    public Candidate update(Candidate changed) {
+        Long id = changed.getId();
+        Shard target = this.shards[shardOf(changed.getParty().getId())];
+        Candidate previous = onShard(id, shard -> {
+            boolean[] copied = new boolean[1];
+            try {
+                Candidate locked = shard.transaction.execute(status -> {
+                    Candidate current = shard.jdbc.query(COLUMNS + "where id = ? for update", this::candidate, id)
+                            .stream().findFirst().orElseThrow(InvalidCandidateIdException::new);
+                    if (shard == target) {
+                        shard.jdbc.update("update candidate set name = ?, bio = ?, date_of_birth = ?, gender = ?, " +
+                                        "party_id = ? where id = ?", changed.getName(), changed.getBio(), date(changed),
+                                ordinal(changed.getGender()), changed.getParty().getId(), id);
+                    } else {
+                        changed.setVotes(current.getPersistedVotes());
+                        target.jdbc.update(MERGE, insertArguments(changed));
+                        copied[0] = true;
+                        shard.jdbc.update("delete from candidate where id = ?", id);
+                    }
+                    return current;
+                });
+                if (shard != target) {
+                    register(target, id);
+                    unregister(shard, id);
+                }
+                return locked;
+            } catch (RuntimeException e) {
+                if (copied[0]) {
+                    target.jdbc.update("delete from candidate where id = ?", id);
+                }
+                throw e;
+            }
+        });
+        changed.setVotes(previous.getPersistedVotes());
+        return previous;
+    }
+
+    /**
+     * @return The deleted candidate
+     */
+    public Candidate delete(Long id) {
+        return onShard(id, shard -> {
+            Candidate deleted = shard.transaction.execute(status -> {
+                Candidate locked = shard.jdbc.query(COLUMNS + "where id = ? for update", this::candidate, id).stream()
+                        .findFirst().orElseThrow(InvalidCandidateIdException::new);
+                shard.jdbc.update("delete from candidate where id = ?", id);
+                return locked;
+            });
+            unregister(shard, id);
+            return deleted;
+        });
+    }
+
+    /**
+     * Adds delta to the votes of the candidate with a single 'votes = votes + ?' update on its shard.
+     *
+     * @return The candidate with its votes after the update
+     */
+    public Candidate incrementVotes(Long id, int delta) {
+        return onShard(id, shard -> shard.transaction.execute(status -> {
+            if (shard.jdbc.update("update candidate set votes = votes + ? where id = ?", delta, id) == 0) {
+                throw new InvalidCandidateIdException();
+            }
+            return shard.jdbc.query(COLUMNS + "where id = ?", this::candidate, id).get(0);
+        }));
+    }
+
+    /**
+     * Sums the votes and counts the candidates of every party on all shards.
+     *
+     * @return Party id mapped to {votes, candidates}
+     */
+    public Map<Long, long[]> tallies() {
+        Map<Long, long[]> tallies = new HashMap<>();
+        for (long[] row : scatter(shard -> shard.jdbc.query(
+                "select party_id, coalesce(sum(votes), 0), count(*) from candidate group by party_id",
+                (rs, rowNum) -> new long[]{rs.getLong(1), rs.getLong(2), rs.getLong(3)}))) {
+            long[] tally = tallies.computeIfAbsent(row[0], id -> new long[2]);
+            tally[0] += row[1];
+            tally[1] += row[2];
+        }
+        return tallies;
+    }
+
+    /**
+     * Sends the filter to all shards in parallel.
+     *
+     * @param birthday Only candidates born before this date are returned, can be null
+     * @param gender   Can be null
+     * @return The matching candidates ordered by id
+     */
+    public List<Candidate> findAll(LocalDate birthday, Gender gender) {
+        List<Object> arguments = new ArrayList<>();
+        String sql = COLUMNS + where(birthday, gender, arguments);
+        List<Candidate> candidates = scatter(shard -> shard.jdbc.query(sql, this::candidate, arguments.toArray()));
+        candidates.sort(Comparator.comparing(Candidate::getId));
+        return candidates;
+    }
+
+    /**
+     * The same as findAll, as rows with the excerpt of the biography.
+     */
+    public List<CandidateRow> findRows(LocalDate birthday, Gender gender) {
+        List<Object> arguments = new ArrayList<>();
+        String sql = ROW_COLUMNS + where(birthday, gender, arguments);
+        List<CandidateRow> rows = scatter(shard -> shard.jdbc.query(sql, this::row, arguments.toArray()));
+        rows.sort(Comparator.comparing(CandidateRow::getId));
+        return rows;
+    }
+
+    /**
+     * Every shard returns its first 'limit' rows after the key, and the first 'limit' rows of their merge
+     * are the first rows after the key over all shards.
+     */
+    public List<CandidateRow> page(LocalDate birthday, Gender gender, CandidateSort sort, boolean ascending,
+                                   int votes, long id, int limit) {
+        List<Object> arguments = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(ROW_COLUMNS).append(where(birthday, gender, arguments));
+        sql.append(arguments.isEmpty() ? "where " : "and ");
+        String order = ascending ? "asc" : "desc";
+        String after = ascending ? ">" : "<";
+        Comparator<CandidateRow> comparator;
+        if (sort == CandidateSort.VOTES) {
+            sql.append("(votes ").append(after).append(" ? or (votes = ? and id ").append(after).append(" ?)) ")
+                    .append("order by votes ").append(order).append(", id ").append(order);
+            arguments.add(votes);
+            arguments.add(votes);
+            arguments.add(id);
+            comparator = Comparator.comparing(CandidateRow::getPersistedVotes).thenComparing(CandidateRow::getId);
+        } else {
+            sql.append("id ").append(after).append(" ? order by id ").append(order);
+            arguments.add(id);
+            comparator = Comparator.comparing(CandidateRow::getId);
+        }
+        sql.append(" limit ?");
+        arguments.add(limit);
+
+        String query = sql.toString();
+        List<CandidateRow> rows = scatter(shard -> shard.jdbc.query(query, this::row, arguments.toArray()));
+        rows.sort(ascending ? comparator : comparator.reversed());
+        return new ArrayList<>(rows.subList(0, Math.min(limit, rows.size())));
+    }
+
+    /**
+     * Runs the query on every shard in parallel and concatenates the results.
+     */
+    private <T> List<T> scatter(Function<Shard, List<T>> query) {
+        List<CompletableFuture<List<T>>> futures = new ArrayList<>(this.shards.length);
+        for (Shard shard : this.shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard), this.executor));
+        }
+        List<T> result = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> future : futures) {
+                result.addAll(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Runs the operation on the shard of the candidate in the directory. When the candidate is not there, the
+     * directory entry is dropped and the operation is retried once on the shard that has the candidate now.
+     */
+    private <T> T onShard(Long id, Function<Shard, T> operation) {
+        Shard shard = locate(id);
+        try {
+            return operation.apply(shard);
+        } catch (InvalidCandidateIdException e) {
+            unregister(shard, id);
+            return operation.apply(locate(id));
+        }
+    }
+
+    private Shard locate(Long id) {
+        this.directoryLock.readLock().lock();
+        try {
+            for (Shard shard : this.shards) {
+                if (shard.ids.contains(id)) {
+                    return shard;
+                }
+            }
+        } finally {
+            this.directoryLock.readLock().unlock();
+        }
+        // created by another instance after the directory was built
+        for (Shard shard : this.shards) {
+            Integer found = shard.jdbc.queryForObject("select count(*) from candidate where id = ?", Integer.class, id);
+            if (found != null && found > 0) {
+                register(shard, id);
+                return shard;
+            }
+        }
+        throw new InvalidCandidateIdException();
+    }
+
+    private void register(Shard shard, Long id) {
+        this.directoryLock.writeLock().lock();
+        try {
+            shard.ids.add(id);
+        } finally {
+            this.directoryLock.writeLock().unlock();
+        }
+    }
+
+    private void unregister(Shard shard, Long id) {
+        this.directoryLock.writeLock().lock();
+        try {
+            shard.ids.remove(id);
+        } finally {
+            this.directoryLock.writeLock().unlock();
+        }
+    }
+
+    private Party party(Long id) {
+        // parties are never changed or deleted, so they can be kept for the lifetime of the application
+        return this.parties.computeIfAbsent(id, partyId ->
+                this.partyRepository.findById(partyId).orElseThrow(InvalidPartyIdException::new));
+    }
+
+    private Candidate candidate(ResultSet rs, int rowNum) throws SQLException {
+        Date dateOfBirth = rs.getDate(4);
+        Candidate candidate = new Candidate(rs.getString(2), rs.getString(3),
+                dateOfBirth == null ? null : dateOfBirth.toLocalDate(), gender(rs), party(rs.getLong(6)));
+        candidate.setId(rs.getLong(1));
+        candidate.setVotes(rs.getInt(7));
+        return candidate;
+    }
+
+    private CandidateRow row(ResultSet rs, int rowNum) throws SQLException {
+        Date dateOfBirth = rs.getDate(4);
+        Party party = party(rs.getLong(6));
+        return new CandidateRow(rs.getLong(1), rs.getString(2), rs.getString(3),
+                dateOfBirth == null ? null : dateOfBirth.toLocalDate(), gender(rs), party.getId(), party.getName(), rs.getInt(7));
+    }
+
+    private static Gender gender(ResultSet rs) throws SQLException {
+        int gender = rs.getInt(5);
+        return rs.wasNull() ? null : Gender.values()[gender];
+    }
+
+    private static String where(LocalDate birthday, Gender gender, List<Object> arguments) {
+        List<String> conditions = new ArrayList<>(2);
+        if (birthday != null) {
+            conditions.add("date_of_birth < ?");
+            arguments.add(Date.valueOf(birthday));
+        }
+        if (gender != null) {
+            conditions.add("gender = ?");
+            arguments.add(gender.ordinal());
+        }
+        return conditions.isEmpty() ? "" : "where " + String.join(" and ", conditions) + " ";
+    }
+
+    private static Date date(Candidate candidate) {
+        return candidate.getDateOfBirth() == null ? null : Date.valueOf(candidate.getDateOfBirth());
+    }
+
+    private static Integer ordinal(Gender gender) {
+        return gender == null ? null : gender.ordinal();
+    }
+
+    private static Object[] insertArguments(Candidate candidate) {
+        return new Object[]{candidate.getId(), candidate.getName(), candidate.getBio(), date(candidate),
+                ordinal(candidate.getGender()), candidate.getParty().getId(),
+                candidate.getPersistedVotes()};
+    }
+
+    private static final class Shard {
+
+        private final int index;
+        private final HikariDataSource dataSource;
+        private final JdbcTemplate jdbc;
+        private final TransactionTemplate transaction;
+        private LongHashSet ids = new LongHashSet();
+
+        Shard(int index, HikariDataSource dataSource) {
+            this.index = index;
+            this.dataSource = dataSource;
+            this.jdbc = new JdbcTemplate(dataSource);
+            this.transaction = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        }
+    }
+}
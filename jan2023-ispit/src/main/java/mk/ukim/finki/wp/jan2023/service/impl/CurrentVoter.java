@@ -0,0 +1,25 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * The user who votes, shared by the candidate services so they check the same voter for the VoterRegistry.
+ */
+final class CurrentVoter {
+
+    private CurrentVoter() {
+    }
+
+    /**
+     * @return The name of the authenticated user, or null when the vote is not made by a logged in user
+     */
+    static String name() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || authentication instanceof AnonymousAuthenticationToken) {
+            return null;
+        }
+        return authentication.getName();
+    }
+}
@@ -0,0 +1,87 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import mk.ukim.finki.wp.jan2023.config.VoteMode;
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCandidateIdException;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
+import mk.ukim.finki.wp.jan2023.repository.PartyTallyRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes every vote to the database before it returns, for the cluster safe vote modes.
+ *
+ * Several instances can count votes against one database because no instance keeps votes of its own:
+ * ATOMIC adds the vote with 'votes = votes + 1' and OPTIMISTIC adds it only to the version of the candidate
+ * it has read. The party tally is updated in the same transaction, after the candidate row,
+ * the same order the VoteAccumulator flush uses.
+ */
+@Component
+public class DatabaseVoteCounter {
+
+    private final CandidateRepository candidateRepository;
+    private final PartyTallyRepository partyTallyRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final VoteMode mode;
+    private final int maxRetries;
+
+    public DatabaseVoteCounter(CandidateRepository candidateRepository,
+                               PartyTallyRepository partyTallyRepository,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${candidates.votes.mode:ACCUMULATE}") VoteMode mode,
+                               @Value("${candidates.votes.max-retries:32}") int maxRetries) {
+        this.candidateRepository = candidateRepository;
+        this.partyTallyRepository = partyTallyRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.mode = mode;
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Counts one vote for the candidate in its own transaction.
+     *
+     * @return The candidate with the votes it has right after the vote
+     * @throws InvalidCandidateIdException when there is no candidate with the given id
+     * @throws OptimisticLockingFailureException when the candidate kept changing during all retries of OPTIMISTIC
+     */
+    public Candidate vote(Long id) {
+        if (this.mode == VoteMode.OPTIMISTIC) {
+            return voteOptimistically(id);
+        }
+        return this.transactionTemplate.execute(status -> {
+            if (this.candidateRepository.incrementVotes(id, 1) == 0) {
+                throw new InvalidCandidateIdException();
+            }
+            this.partyTallyRepository.incrementVotesOfCandidate(id, 1L);
+            return this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
+        });
+    }
+
+    private Candidate voteOptimistically(Long id) {
+        for (int attempt = 0; attempt <= this.maxRetries; attempt++) {
+            Candidate candidate = this.transactionTemplate.execute(status -> {
+                Candidate found = this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
+                if (this.candidateRepository.incrementVotesIfVersion(id, found.getVersion(), 1) == 0) {
+                    return null;
+                }
+                this.partyTallyRepository.incrementVotesOfCandidate(id, 1L);
+                return this.candidateRepository.findById(id).orElseThrow(InvalidCandidateIdException::new);
+            });
+            if (candidate != null) {
+                return candidate;
+            }
+            // another vote won the race, back off for a random time that grows with the attempts
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(
+                    ThreadLocalRandom.current().nextInt(50 << Math.min(attempt, 8))));
+        }
+        throw new OptimisticLockingFailureException(
+                "Candidate " + id + " changed during " + (this.maxRetries + 1) + " attempts to count a vote");
+    }
+}
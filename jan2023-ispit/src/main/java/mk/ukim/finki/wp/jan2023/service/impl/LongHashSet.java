@@ -0,0 +1,112 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+/**
+ * Set of primitive longs with open addressing and linear probing.
+ *
+ * The keys are stored in a single long[] whose length is a power of two, and the table doubles when it is more than
+ * half full. A set of n keys therefore uses 8 * capacity bytes with n <= capacity / 2 < 2n, that is between
+ * 16 and 32 bytes per key, and exactly 16 MiB for one million keys (capacity 2^21).
+ * The value 0 marks an empty slot, so the key 0 is tracked by a separate flag.
+ *
+ * The set is not thread safe.
+ */
+final class LongHashSet {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private boolean containsZero;
+    private int size;
+
+    /**
+     * @return true when the key was added, false when it was already in the set
+     */
+    boolean add(long key) {
+        if (key == 0) {
+            boolean added = !this.containsZero;
+            this.containsZero = true;
+            if (added) {
+                this.size++;
+            }
+            return added;
+        }
+        int slot = slot(this.keys, key);
+        if (this.keys[slot] == key) {
+            return false;
+        }
+        this.keys[slot] = key;
+        this.size++;
+        if (this.size * 2 > this.keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    boolean contains(long key) {
+        if (key == 0) {
+            return this.containsZero;
+        }
+        return this.keys[slot(this.keys, key)] == key;
+    }
+
+    /**
+     * Removes a key. Slots after the removed one are moved back, so no tombstones are needed.
+     */
+    boolean remove(long key) {
+        if (key == 0) {
+            boolean removed = this.containsZero;
+            this.containsZero = false;
+            if (removed) {
+                this.size--;
+            }
+            return removed;
+        }
+        int mask = this.keys.length - 1;
+        int slot = slot(this.keys, key);
+        if (this.keys[slot] != key) {
+            return false;
+        }
+        this.keys[slot] = 0;
+        this.size--;
+        for (int next = (slot + 1) & mask; this.keys[next] != 0; next = (next + 1) & mask) {
+            long moved = this.keys[next];
+            this.keys[next] = 0;
+            this.keys[slot(this.keys, moved)] = moved;
+        }
+        return true;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return The memory used by the table of this set in bytes
+     */
+    long tableBytes() {
+        return 8L * this.keys.length;
+    }
+
+    private void grow() {
+        long[] old = this.keys;
+        this.keys = new long[old.length * 2];
+        for (long key : old) {
+            if (key != 0) {
+                this.keys[slot(this.keys, key)] = key;
+            }
+        }
+    }
+
+    /**
+     * @return The slot that contains the key, or the empty slot where it would be inserted
+     */
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -1,20 +1,33 @@
 package mk.ukim.finki.wp.jan2023.service.impl;
 
 import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
 import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidPartyIdException;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
 import mk.ukim.finki.wp.jan2023.repository.PartyRepository;
+import mk.ukim.finki.wp.jan2023.repository.PartyTallyRepository;
 import mk.ukim.finki.wp.jan2023.service.PartyService;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class PartyServiceImpl implements PartyService {
 
     private final PartyRepository partyRepository;
+    private final PartyTallyRepository partyTallyRepository;
+    private final CandidateRepository candidateRepository;
+    private final VoteAccumulator voteAccumulator;
 
-    public PartyServiceImpl(PartyRepository partyRepository) {
+    public PartyServiceImpl(PartyRepository partyRepository, PartyTallyRepository partyTallyRepository,
+                            CandidateRepository candidateRepository, VoteAccumulator voteAccumulator) {
         this.partyRepository = partyRepository;
+        this.partyTallyRepository = partyTallyRepository;
+        this.candidateRepository = candidateRepository;
+        this.voteAccumulator = voteAccumulator;
     }
 
     /**
@@ -41,8 +54,35 @@ public class PartyServiceImpl implements PartyService {
      * @param name
      * @return The party that is created. The id should be generated when the party is created.
      */
+    @Transactional
     public Party create(String name){
         Party party=new Party(name);
-        return this.partyRepository.save(party);
+        this.partyRepository.save(party);
+        this.partyTallyRepository.save(new PartyTally(party));
+        return party;
+    }
+
+    /**
+     * Returns the votes and number of candidates for every party.
+     * The tallies are maintained when candidates are created, updated, deleted or voted for,
+     * so this method never counts the candidate table. The votes that are not flushed yet are added to the party
+     * of their candidate, so the tallies agree with the votes shown for the candidates.
+     *
+     * @return List of the tallies of all parties
+     */
+    public List<PartyTally> listTallies(){
+        return this.voteAccumulator.load(this.partyTallyRepository::findAllWithParty, this::applyPending);
+    }
+
+    private List<PartyTally> applyPending(List<PartyTally> tallies) {
+        Map<Long, Long> pending = this.voteAccumulator.pendingVotes();
+        Map<Long, Long> pendingByParty = new HashMap<>();
+        if (!pending.isEmpty()) {
+            for (Object[] row : this.candidateRepository.findPartyIdsByIds(pending.keySet())) {
+                pendingByParty.merge((Long) row[1], pending.get((Long) row[0]), Long::sum);
+            }
+        }
+        tallies.forEach(tally -> tally.setPendingVotes(pendingByParty.getOrDefault(tally.getParty().getId(), 0L)));
+        return tallies;
     }
 }
@@ -0,0 +1,283 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import mk.ukim.finki.wp.jan2023.model.events.CandidateChangedEvent;
+import mk.ukim.finki.wp.jan2023.model.events.CandidateVotedEvent;
+import mk.ukim.finki.wp.jan2023.model.events.CandidatesImportedEvent;
+import mk.ukim.finki.wp.jan2023.model.exceptions.DuplicateVoteException;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCandidateIdException;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidPartyIdException;
+import mk.ukim.finki.wp.jan2023.repository.PartyRepository;
+import mk.ukim.finki.wp.jan2023.repository.PartyTallyRepository;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * CandidateService on top of the CandidateShards, used when 'candidates.shards.count' is greater than 0.
+ *
+ * findById, vote, update and delete use the one shard of the candidate, the list methods ask all shards in parallel.
+ * Votes are written to the shard right away with 'votes = votes + 1', so there are never pending votes.
+ * The party tallies stay in the main database. They are updated in a transaction of the main database after the
+ * shard write succeeded, the two databases do not share a transaction. A tally write that fails or is rolled back
+ * after its shard write committed leaves the tally off, so the tallies are recomputed from the shards on startup,
+ * after a bulk import and every 'candidates.shards.tally-repair-interval-ms' (0 turns the periodic repair off).
+ */
+@Service
+@ConditionalOnExpression("${candidates.shards.count:0} > 0")
+public class ShardedCandidateServiceImpl implements CandidateService {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedCandidateServiceImpl.class);
+
+    private final CandidateShards shards;
+    private final PartyRepository partyRepository;
+    private final PartyTallyRepository partyTallyRepository;
+    private final VoterRegistry voterRegistry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final long tallyRepairIntervalMs;
+
+    /**
+     * Shared by the writes that change a shard and then a tally, exclusive for repairTallies,
+     * so a repair never reads a shard write whose tally change is still to come.
+     */
+    private final ReadWriteLock tallyLock = new ReentrantReadWriteLock();
+    private ScheduledExecutorService tallyRepairer;
+
+    public ShardedCandidateServiceImpl(CandidateShards shards, PartyRepository partyRepository,
+                                       PartyTallyRepository partyTallyRepository, VoteJournal voteJournal,
+                                       VoterRegistry voterRegistry, ApplicationEventPublisher eventPublisher,
+                                       PlatformTransactionManager transactionManager,
+                                       @Value("${candidates.shards.tally-repair-interval-ms:60000}") long tallyRepairIntervalMs) {
+        if (voteJournal.isEnabled()) {
+            // the replay on startup writes the votes to the candidate table of the main database
+            throw new IllegalStateException("The vote journal can not be used with candidates.shards.count > 0");
+        }
+        this.shards = shards;
+        this.partyRepository = partyRepository;
+        this.partyTallyRepository = partyTallyRepository;
+        this.voterRegistry = voterRegistry;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.tallyRepairIntervalMs = tallyRepairIntervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        repairTallies();
+        if (this.tallyRepairIntervalMs <= 0) {
+            return;
+        }
+        this.tallyRepairer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "party-tally-repairer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.tallyRepairer.scheduleWithFixedDelay(this::repairTalliesQuietly, this.tallyRepairIntervalMs,
+                this.tallyRepairIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (this.tallyRepairer != null) {
+            this.tallyRepairer.shutdownNow();
+        }
+    }
+
+    /**
+     * Sets the votes and the candidate count of every party tally to the totals on the shards.
+     * Writes that change a shard and a tally wait while the shards are read.
+     *
+     * @return The number of tallies that were off
+     */
+    @EventListener(CandidatesImportedEvent.class)
+    public int repairTallies() {
+        this.tallyLock.writeLock().lock();
+        try {
+            Map<Long, long[]> totals = this.shards.tallies();
+            return this.transactionTemplate.execute(status -> {
+                int repaired = 0;
+                for (PartyTally tally : this.partyTallyRepository.findAllWithParty()) {
+                    long[] total = totals.getOrDefault(tally.getParty().getId(), new long[2]);
+                    if (tally.getPersistedVotes() != total[0] || tally.getCandidates() != total[1]) {
+                        log.warn("Repairing the tally of party {}: {} votes and {} candidates instead of {} and {}",
+                                tally.getParty().getId(), total[0], total[1], tally.getPersistedVotes(), tally.getCandidates());
+                        repaired++;
+                    }
+                    // also written when it looks right, it may be read before a tally change that is not committed yet
+                    this.partyTallyRepository.overwrite(tally.getParty().getId(), total[0], total[1]);
+                }
+                return repaired;
+            });
+        } finally {
+            this.tallyLock.writeLock().unlock();
+        }
+    }
+
+    private void repairTalliesQuietly() {
+        try {
+            repairTallies();
+        } catch (RuntimeException e) {
+            log.error("Repairing the party tallies failed", e);
+        }
+    }
+
+    /**
+     * A bulk import writes candidates to the shards without the directory, so it is rebuilt after it.
+     */
+    @EventListener(CandidatesImportedEvent.class)
+    public void reloadDirectory() {
+        this.shards.reloadDirectory();
+    }
+
+    public List<Candidate> listAllCandidates() {
+        return this.shards.findAll(null, null);
+    }
+
+    /**
+     * @throws InvalidCandidateIdException when there is no candidate with the given id
+     */
+    public Candidate findById(Long id) {
+        return this.shards.findById(id);
+    }
+
+    /**
+     * @throws InvalidPartyIdException when there is no party with the given id
+     */
+    @Transactional
+    public Candidate create(String name, String bio, LocalDate dateOfBirth, Gender gender, Long party) {
+        Party party1 = this.partyRepository.findById(party).orElseThrow(InvalidPartyIdException::new);
+        Candidate candidate;
+        this.tallyLock.readLock().lock();
+        try {
+            // the tally is changed first, so it is rolled back when the shard rejects the candidate
+            this.partyTallyRepository.increment(party1.getId(), 0L, 1L);
+            candidate = this.shards.insert(new Candidate(name, bio, dateOfBirth, gender, party1));
+        } finally {
+            this.tallyLock.readLock().unlock();
+        }
+        this.eventPublisher.publishEvent(new CandidateChangedEvent(this, candidate.getId()));
+        return candidate;
+    }
+
+    /**
+     * Moves the candidate to the shard of its new party when the party changes.
+     *
+     * @throws InvalidCandidateIdException when there is no candidate with the given id
+     * @throws InvalidPartyIdException when there is no party with the given id
+     */
+    @Transactional
+    public Candidate update(Long id, String name, String bio, LocalDate dateOfBirth, Gender gender, Long party) {
+        Party party1 = this.partyRepository.findById(party).orElseThrow(InvalidPartyIdException::new);
+        Candidate candidate = new Candidate(name, bio, dateOfBirth, gender, party1);
+        candidate.setId(id);
+        this.tallyLock.readLock().lock();
+        try {
+            Candidate previous = this.shards.update(candidate);
+
+            Long oldParty = previous.getParty().getId();
+            if (!oldParty.equals(party1.getId())) {
+                long votes = previous.getPersistedVotes();
+                this.partyTallyRepository.increment(oldParty, -votes, -1L);
+                this.partyTallyRepository.increment(party1.getId(), votes, 1L);
+            }
+        } finally {
+            this.tallyLock.readLock().unlock();
+        }
+        this.eventPublisher.publishEvent(new CandidateChangedEvent(this, id));
+        return candidate;
+    }
+
+    /**
+     * @throws InvalidCandidateIdException when there is no candidate with the given id
+     */
+    @Transactional
+    public Candidate delete(Long id) {
+        Candidate candidate;
+        this.tallyLock.readLock().lock();
+        try {
+            candidate = this.shards.delete(id);
+            this.partyTallyRepository.increment(candidate.getParty().getId(), -candidate.getPersistedVotes().longValue(), -1L);
+        } finally {
+            this.tallyLock.readLock().unlock();
+        }
+        this.voterRegistry.discard(id);
+        this.eventPublisher.publishEvent(new CandidateChangedEvent(this, id));
+        return candidate;
+    }
+
+    /**
+     * An authenticated user can vote for a candidate only once, the same as with CandidateServiceImpl.
+     *
+     * @throws InvalidCandidateIdException when there is no candidate with the given id
+     * @throws DuplicateVoteException when the current user already voted for the candidate
+     */
+    @Transactional
+    public Candidate vote(Long id) {
+        String voter = CurrentVoter.name();
+        long voterKey = VoteJournal.voterKey(voter == null ? VoterRegistry.ANONYMOUS_VOTER : voter);
+        if (voter != null && !this.voterRegistry.register(id, voterKey)) {
+            throw new DuplicateVoteException();
+        }
+        Candidate candidate;
+        this.tallyLock.readLock().lock();
+        try {
+            try {
+                candidate = this.shards.incrementVotes(id, 1);
+            } catch (InvalidCandidateIdException e) {
+                if (voter != null) {
+                    this.voterRegistry.unregister(id, voterKey);
+                }
+                throw e;
+            }
+            this.partyTallyRepository.increment(candidate.getParty().getId(), 1L, 0L);
+        } finally {
+            this.tallyLock.readLock().unlock();
+        }
+        this.eventPublisher.publishEvent(new CandidateVotedEvent(this, id));
+        return candidate;
+    }
+
+    public List<Candidate> listCandidatesYearsMoreThanAndGender(Integer yearsMoreThan, Gender gender) {
+        LocalDate birthday = yearsMoreThan == null ? null : LocalDate.now().minusYears(yearsMoreThan);
+        return this.shards.findAll(birthday, gender);
+    }
+
+    public List<CandidateRow> listCandidateRows(Integer yearsMoreThan, Gender gender) {
+        LocalDate birthday = yearsMoreThan == null ? null : LocalDate.now().minusYears(yearsMoreThan);
+        return this.shards.findRows(birthday, gender);
+    }
+
+    public CandidatePage listCandidatesPage(Integer yearsMoreThan, Gender gender, CandidateSort sort, Sort.Direction direction,
+                                            String after, String before, int size) {
+        LocalDate birthday = yearsMoreThan == null ? null : LocalDate.now().minusYears(yearsMoreThan);
+        return CandidatePages.page(sort, direction, after, before, size,
+                (ascending, votes, id, limit) -> this.shards.page(birthday, gender, sort, ascending, votes, id, limit));
+    }
+}
@@ -0,0 +1,311 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import mk.ukim.finki.wp.jan2023.model.Votable;
+import mk.ukim.finki.wp.jan2023.model.events.VotesFlushedEvent;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
+import mk.ukim.finki.wp.jan2023.repository.PartyTallyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collects votes in memory and writes them to Candidate.votes in the background.
+ *
+ * Every candidate has its own LongAdder, so concurrent voters increment different cells instead of
+ * competing for one row lock. The flusher drains the counters every 'candidates.votes.flush-interval-ms'
+ * milliseconds and applies all deltas in one transaction with 'votes = votes + :delta' updates,
+ * together with the matching updates of the party tallies.
+ * Pending votes are flushed once more when the application shuts down.
+ *
+ * Candidates loaded with load/loadAll are queried without the flush lock, so a slow list never holds up a flush
+ * and the votes that wait behind it. The number of flushes is read before the query and checked together with the
+ * pending votes, and the candidates are queried again when a flush committed in between, so the persisted and
+ * the pending part of their votes always come from the same side of a flush.
+ *
+ * Every flush that committed publishes a VotesFlushedEvent with its deltas before readers of pending votes
+ * continue, so listeners can add them to the persisted votes they keep.
+ */
+@Component
+public class VoteAccumulator {
+
+    private static final Logger log = LoggerFactory.getLogger(VoteAccumulator.class);
+
+    /**
+     * Queries that run without the lock before the last one runs under it, when flushes keep committing meanwhile.
+     */
+    private static final int UNLOCKED_LOADS = 3;
+
+    private final Map<Long, LongAdder> pending = new ConcurrentHashMap<>();
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final CandidateRepository candidateRepository;
+    private final PartyTallyRepository partyTallyRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long flushIntervalMs;
+
+    private ScheduledExecutorService flusher;
+
+    public VoteAccumulator(CandidateRepository candidateRepository,
+                           PartyTallyRepository partyTallyRepository,
+                           PlatformTransactionManager transactionManager,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${candidates.votes.flush-interval-ms:1000}") long flushIntervalMs) {
+        this.candidateRepository = candidateRepository;
+        this.partyTallyRepository = partyTallyRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.eventPublisher = eventPublisher;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "vote-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        this.flusher.shutdown();
+        this.flusher.awaitTermination(flushIntervalMs * 2, TimeUnit.MILLISECONDS);
+        flushQuietly();
+    }
+
+    /**
+     * Registers one vote for the candidate with the given id.
+     */
+    public void add(Long candidateId) {
+        this.pending.computeIfAbsent(candidateId, id -> new LongAdder()).increment();
+    }
+
+    /**
+     * Adds one pending vote for the candidate together with its journal record, with no flush in between,
+     * so a flush never sees the vote without the record before it.
+     *
+     * @param journal Writes the journal record without waiting for the disk
+     * @return The sequence number that the journal returned
+     */
+    public long add(Long candidateId, LongSupplier journal) {
+        this.flushLock.readLock().lock();
+        try {
+            long sequence = journal.getAsLong();
+            add(candidateId);
+            return sequence;
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of votes for the candidate that are not yet written to the database
+     */
+    public int pendingVotes(Long candidateId) {
+        LongAdder adder = this.pending.get(candidateId);
+        return adder == null ? 0 : (int) adder.sum();
+    }
+
+    /**
+     * Sets the pending votes on the given candidates, so they show the persisted count plus the pending delta.
+     */
+    public <T extends Iterable<? extends Votable>> T applyPending(T candidates) {
+        for (Votable candidate : candidates) {
+            applyPending(candidate);
+        }
+        return candidates;
+    }
+
+    public <T extends Votable> T applyPending(T candidate) {
+        candidate.setPendingVotes(pendingVotes(candidate.getId()));
+        return candidate;
+    }
+
+    /**
+     * @return The votes that are not yet written to the database, by candidate id
+     */
+    public Map<Long, Long> pendingVotes() {
+        Map<Long, Long> votes = new HashMap<>();
+        this.pending.forEach((id, adder) -> {
+            long sum = adder.sum();
+            if (sum != 0) {
+                votes.put(id, sum);
+            }
+        });
+        return votes;
+    }
+
+    /**
+     * Loads candidates and sets their pending votes, loading them again when a flush committed during the query.
+     * The loader must not lock candidate rows, because a flush needs them.
+     */
+    public <T extends Iterable<? extends Votable>> T loadAll(Supplier<T> loader) {
+        return load(loader, candidates -> applyPending(candidates));
+    }
+
+    public <T extends Votable> T load(Supplier<T> loader) {
+        return load(loader, candidate -> applyPending(candidate));
+    }
+
+    /**
+     * Loads anything that shows persisted votes and adds the pending votes to it with the given function,
+     * loading it again when a flush committed during the query.
+     */
+    public <T> T load(Supplier<T> loader, UnaryOperator<T> pending) {
+        for (int attempt = 0; attempt < UNLOCKED_LOADS; attempt++) {
+            long flushes = this.flushes.get();
+            T loaded = loader.get();
+            // a flush that is still running is waited for here, so it is never missed
+            this.flushLock.readLock().lock();
+            try {
+                if (this.flushes.get() == flushes) {
+                    return pending.apply(loaded);
+                }
+            } finally {
+                this.flushLock.readLock().unlock();
+            }
+        }
+        this.flushLock.readLock().lock();
+        try {
+            return pending.apply(loader.get());
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets the pending votes on a candidate that was loaded without the read lock. When a flush committed after
+     * 'flushes' was read, the persisted votes of the candidate may be older than the flush, so it is loaded again.
+     * A flush that is still running is waited for by the read lock, so it is never missed.
+     *
+     * @param flushes The value of flushes() from before the candidate was loaded
+     */
+    public <T extends Votable> T applyPending(T candidate, long flushes, Supplier<T> loader) {
+        this.flushLock.readLock().lock();
+        try {
+            return applyPending(this.flushes.get() == flushes ? candidate : loader.get());
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of flushes that changed persisted votes, so results read before one can be told apart
+     */
+    public long flushes() {
+        return this.flushes.get();
+    }
+
+    /**
+     * Runs the action when no flush committed after 'flushes' was read. The action runs under the read lock,
+     * so a flush that commits later runs after it and its VotesFlushedEvent sees what the action stored.
+     *
+     * @param flushes The value of flushes() from before the data used by the action was loaded
+     * @return Whether the action ran
+     */
+    public boolean runUnlessFlushedSince(long flushes, Runnable action) {
+        this.flushLock.readLock().lock();
+        try {
+            if (this.flushes.get() != flushes) {
+                return false;
+            }
+            action.run();
+            return true;
+        } finally {
+            this.flushLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the pending votes of a deleted candidate.
+     */
+    public void discard(Long candidateId) {
+        this.pending.remove(candidateId);
+    }
+
+    /**
+     * Writes all pending votes to the database in a single transaction.
+     * Only the drained amount is subtracted from each counter, so votes that arrive during the flush stay pending.
+     *
+     * @return The number of votes that were written
+     */
+    public synchronized long flush() {
+        this.flushLock.writeLock().lock();
+        try {
+            return drainAndWrite();
+        } finally {
+            this.flushLock.writeLock().unlock();
+        }
+    }
+
+    private long drainAndWrite() {
+        Map<Long, Long> deltas = new HashMap<>();
+        this.pending.forEach((id, adder) -> {
+            long delta = adder.sum();
+            if (delta != 0) {
+                adder.add(-delta);
+                deltas.put(id, delta);
+            }
+        });
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        try {
+            this.transactionTemplate.executeWithoutResult(status -> {
+                // all candidate rows are locked before any tally row, the same order CandidateService.update uses
+                List<Long> updated = new ArrayList<>();
+                deltas.forEach((id, delta) -> {
+                    if (this.candidateRepository.incrementVotes(id, delta.intValue()) > 0) {
+                        updated.add(id);
+                    }
+                });
+                updated.forEach(id -> this.partyTallyRepository.incrementVotesOfCandidate(id, deltas.get(id)));
+            });
+        } catch (RuntimeException e) {
+            // nothing was committed, put the votes back so the next flush retries them
+            deltas.forEach((id, delta) -> {
+                LongAdder adder = this.pending.get(id);
+                if (adder != null) {
+                    adder.add(delta);
+                }
+            });
+            throw e;
+        }
+        this.eventPublisher.publishEvent(new VotesFlushedEvent(this, deltas));
+        this.flushes.incrementAndGet();
+        return deltas.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Flushing pending votes failed, retrying on the next tick", e);
+        }
+    }
+}
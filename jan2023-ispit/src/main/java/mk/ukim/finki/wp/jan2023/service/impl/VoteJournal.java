@@ -0,0 +1,418 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of all votes, kept in 'candidates.journal.directory'. The journal is off when no directory is set.
+ *
+ * Every vote is one fixed-width record of 32 bytes: candidate id, epoch millis, voter key and a check word.
+ * Records are written into memory-mapped segment files of 'candidates.journal.segment-records' records,
+ * and a full segment is forced to disk and replaced by the next one. A single syncer thread forces the current
+ * segment whenever there are new records, so all votes appended during one fsync share the next one (group commit).
+ * When 'candidates.journal.durable' is true, a vote returns only after its record is on disk.
+ *
+ * When the application starts, the journal is replayed and Candidate.votes of every candidate is set to the number
+ * of its records, followed by the party tallies. Once the journal is enabled it is the source of truth for the votes.
+ */
+@Component
+public class VoteJournal implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(VoteJournal.class);
+
+    public static final int RECORD_SIZE = 32;
+
+    /**
+     * Mixed into the check word, so a zero-filled (never written) record is never valid.
+     */
+    private static final long CHECK_SEED = 0x5EC0_1A5E_D00D_F00DL;
+
+    private static final String SEGMENT_PREFIX = "votes-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Path directory;
+    private final int segmentRecords;
+    private final boolean durable;
+
+    private final Object lock = new Object();
+    private MappedByteBuffer segment;
+    private long segmentIndex;
+    /**
+     * Number of records appended and number of records known to be on disk, counted since the journal was opened.
+     */
+    private long appended;
+    private long synced;
+    private boolean closed;
+
+    private Thread syncer;
+
+    public VoteJournal(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                       @Value("${candidates.journal.directory:}") String directory,
+                       @Value("${candidates.journal.segment-records:2097152}") int segmentRecords,
+                       @Value("${candidates.journal.durable:true}") boolean durable) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.directory = directory.isEmpty() ? null : Paths.get(directory);
+        this.segmentRecords = segmentRecords;
+        this.durable = durable;
+    }
+
+    public boolean isEnabled() {
+        return this.directory != null;
+    }
+
+    /**
+     * Replays the journal into the candidate table and opens a new segment for appending.
+     * This runs after all singletons are created, so after the DataInitializer and before the web server accepts votes.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!isEnabled()) {
+            return;
+        }
+        try {
+            Files.createDirectories(this.directory);
+            long start = System.nanoTime();
+            VoteCounts counts = replay();
+            long replayed = apply(counts);
+            log.info("Replayed {} votes for {} candidates from {} in {} ms", replayed, counts.size(), this.directory,
+                    (System.nanoTime() - start) / 1_000_000);
+            synchronized (this.lock) {
+                this.segmentIndex = lastSegmentIndex() + 1;
+                this.segment = openSegment(this.segmentIndex);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.syncer = new Thread(this::syncLoop, "vote-journal-syncer");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (this.syncer == null) {
+            return;
+        }
+        synchronized (this.lock) {
+            this.closed = true;
+            this.lock.notifyAll();
+        }
+        this.syncer.join();
+        this.segment.force();
+    }
+
+    /**
+     * Appends one vote to the journal. When the journal is durable, this method waits for the group commit
+     * that writes the record to disk.
+     *
+     * @param candidateId The candidate that received the vote
+     * @param voter       The voter key, see voterKey
+     */
+    public void append(long candidateId, long voter) {
+        awaitDurable(write(candidateId, voter));
+    }
+
+    /**
+     * Appends one vote to the journal without waiting for the disk, see awaitDurable.
+     *
+     * @param candidateId The candidate that received the vote
+     * @param voter       The voter key, see voterKey
+     * @return The sequence number of the record, 0 when the journal is not enabled
+     */
+    public long write(long candidateId, long voter) {
+        if (!isEnabled()) {
+            return 0;
+        }
+        long timestamp = System.currentTimeMillis();
+        synchronized (this.lock) {
+            if (this.closed) {
+                throw new IllegalStateException("The vote journal is closed");
+            }
+            if (!this.segment.hasRemaining()) {
+                rotate();
+            }
+            this.segment.putLong(candidateId);
+            this.segment.putLong(timestamp);
+            this.segment.putLong(voter);
+            this.segment.putLong(check(candidateId, timestamp, voter));
+            this.lock.notifyAll();
+            return ++this.appended;
+        }
+    }
+
+    /**
+     * When the journal is durable, waits for the group commit that writes the record with the given sequence
+     * number to disk. Returns right away otherwise.
+     */
+    public void awaitDurable(long sequence) {
+        if (!this.durable || !isEnabled()) {
+            return;
+        }
+        synchronized (this.lock) {
+            while (this.synced < sequence && !this.closed) {
+                try {
+                    this.lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps a username to the 64 bit voter key stored in the journal (FNV-1a over the characters).
+     */
+    public static long voterKey(String username) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < username.length(); i++) {
+            hash ^= username.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Reads all segments and counts the records of every candidate.
+     */
+    public VoteCounts replay() throws IOException {
+        VoteCounts counts = new VoteCounts();
+        replay((candidateId, timestamp, voter) -> counts.increment(candidateId));
+        return counts;
+    }
+
+    /**
+     * Reads all segments in order and passes every record to the visitor.
+     * A segment is read up to its first invalid record, which is where the writing stopped.
+     */
+    public void replay(RecordVisitor visitor) throws IOException {
+        if (!isEnabled() || !Files.isDirectory(this.directory)) {
+            return;
+        }
+        for (Path path : segments()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= RECORD_SIZE) {
+                    long candidateId = buffer.getLong();
+                    long timestamp = buffer.getLong();
+                    long voter = buffer.getLong();
+                    if (buffer.getLong() != check(candidateId, timestamp, voter)) {
+                        break;
+                    }
+                    visitor.visit(candidateId, timestamp, voter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the votes of all candidates to the replayed counts and recomputes the party tallies, in one transaction.
+     *
+     * @return The number of replayed votes
+     */
+    public long apply(VoteCounts counts) {
+        long[] ids = counts.keys();
+        if (ids.length == 0) {
+            return 0;
+        }
+        this.transactionTemplate.executeWithoutResult(status -> {
+            this.jdbcTemplate.update("update candidate set votes = 0");
+            this.jdbcTemplate.batchUpdate("update candidate set votes = ? where id = ?", new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setInt(1, counts.get(ids[i]));
+                    ps.setLong(2, ids[i]);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return ids.length;
+                }
+            });
+            this.jdbcTemplate.update("update party_tally t set votes = " +
+                    "(select coalesce(sum(c.votes), 0) from candidate c where c.party_id = t.party_id)");
+        });
+        return counts.total();
+    }
+
+    private void syncLoop() {
+        while (true) {
+            MappedByteBuffer current;
+            long target;
+            synchronized (this.lock) {
+                while (this.synced == this.appended && !this.closed) {
+                    try {
+                        this.lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (this.closed) {
+                    return;
+                }
+                current = this.segment;
+                target = this.appended;
+            }
+            // appenders keep writing while the segment is forced, their records go into the next sync
+            current.force();
+            synchronized (this.lock) {
+                // a rotation in the meantime has already forced everything up to the new segment
+                this.synced = Math.max(this.synced, target);
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Forces the full segment and continues in a new one. Called while holding the lock.
+     */
+    private void rotate() {
+        this.segment.force();
+        this.synced = this.appended;
+        try {
+            this.segment = openSegment(++this.segmentIndex);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer openSegment(long index) throws IOException {
+        Path path = this.directory.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) this.segmentRecords * RECORD_SIZE);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private long lastSegmentIndex() throws IOException {
+        List<Path> segments = segments();
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        String name = segments.get(segments.size() - 1).getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static long check(long candidateId, long timestamp, long voter) {
+        return CHECK_SEED ^ candidateId * 0x9E3779B97F4A7C15L ^ timestamp * 0xC2B2AE3D27D4EB4FL ^ voter * 0x165667B19E3779F9L;
+    }
+
+    public interface RecordVisitor {
+
+        void visit(long candidateId, long timestamp, long voter);
+    }
+
+    /**
+     * Open-addressing map from candidate id to number of votes, so replaying millions of records does not box them.
+     */
+    public static final class VoteCounts {
+
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private boolean[] used = new boolean[1024];
+        private int size;
+        private long total;
+
+        void increment(long key) {
+            if (this.size * 2 >= this.keys.length) {
+                grow();
+            }
+            int slot = find(this.keys, this.used, key);
+            if (!this.used[slot]) {
+                this.used[slot] = true;
+                this.keys[slot] = key;
+                this.size++;
+            }
+            this.values[slot]++;
+            this.total++;
+        }
+
+        public int get(long key) {
+            int slot = find(this.keys, this.used, key);
+            return this.used[slot] ? this.values[slot] : 0;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public long total() {
+            return this.total;
+        }
+
+        public long[] keys() {
+            long[] result = new long[this.size];
+            int position = 0;
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.used[i]) {
+                    result[position++] = this.keys[i];
+                }
+            }
+            Arrays.sort(result);
+            return result;
+        }
+
+        private void grow() {
+            long[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            boolean[] oldUsed = this.used;
+            this.keys = new long[oldKeys.length * 2];
+            this.values = new int[oldKeys.length * 2];
+            this.used = new boolean[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = find(this.keys, this.used, oldKeys[i]);
+                    this.used[slot] = true;
+                    this.keys[slot] = oldKeys[i];
+                    this.values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int find(long[] keys, boolean[] used, long key) {
+            int mask = keys.length - 1;
+            long hash = key * 0x9E3779B97F4A7C15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+}
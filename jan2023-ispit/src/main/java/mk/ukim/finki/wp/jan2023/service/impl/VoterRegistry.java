@@ -0,0 +1,131 @@
+package mk.ukim.finki.wp.jan2023.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which users already voted for each candidate, so a repeated vote is rejected before the database is used.
+ *
+ * Every candidate has a LongHashSet of voter keys (see VoteJournal.voterKey). A set uses between 16 and 32 bytes
+ * per voter, so one million voters of a candidate take 16 MiB, and one million voters spread over all candidates
+ * take at most 32 MiB plus 128 bytes for the smallest table of each candidate with voters.
+ * Two usernames with the same 64 bit key count as the same voter; with a million voters of one candidate
+ * the chance of any such collision is about 3 in 100 million.
+ *
+ * The sets live in memory. When the VoteJournal is enabled they are rebuilt from its records on startup,
+ * so a restart does not allow voting again. Votes without an authenticated user are not checked.
+ * The check is turned off with 'candidates.votes.one-per-user=false'.
+ */
+@Component
+public class VoterRegistry implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(VoterRegistry.class);
+
+    public static final String ANONYMOUS_VOTER = "anonymous";
+    private static final long ANONYMOUS_KEY = VoteJournal.voterKey(ANONYMOUS_VOTER);
+
+    private final Map<Long, LongHashSet> voters = new ConcurrentHashMap<>();
+
+    private final VoteJournal voteJournal;
+    private final boolean enabled;
+
+    public VoterRegistry(VoteJournal voteJournal,
+                         @Value("${candidates.votes.one-per-user:true}") boolean enabled) {
+        this.voteJournal = voteJournal;
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!this.enabled || !this.voteJournal.isEnabled()) {
+            return;
+        }
+        try {
+            this.voteJournal.replay((candidateId, timestamp, voter) -> {
+                if (voter != ANONYMOUS_KEY) {
+                    register(candidateId, voter);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Loaded {} voters from the vote journal", voterCount());
+    }
+
+    /**
+     * Records that the voter voted for the candidate.
+     *
+     * @return false when the voter already voted for the candidate
+     */
+    public boolean register(long candidateId, long voter) {
+        if (!this.enabled) {
+            return true;
+        }
+        boolean[] added = new boolean[1];
+        // compute runs under the lock of the map entry, so an unregister cannot drop the set before the voter is added
+        this.voters.compute(candidateId, (id, set) -> {
+            if (set == null) {
+                set = new LongHashSet();
+            }
+            synchronized (set) {
+                added[0] = set.add(voter);
+            }
+            return set;
+        });
+        return added[0];
+    }
+
+    /**
+     * Forgets a vote that was registered but could not be counted, and drops the set of the candidate
+     * when it was its last voter, so votes for missing candidates do not leave empty sets behind.
+     */
+    public void unregister(long candidateId, long voter) {
+        this.voters.computeIfPresent(candidateId, (id, set) -> {
+            synchronized (set) {
+                set.remove(voter);
+                return set.size() == 0 ? null : set;
+            }
+        });
+    }
+
+    /**
+     * Drops the voters of a deleted candidate.
+     */
+    public void discard(long candidateId) {
+        this.voters.remove(candidateId);
+    }
+
+    /**
+     * @return The number of registered (candidate, voter) pairs
+     */
+    public long voterCount() {
+        long count = 0;
+        for (LongHashSet set : this.voters.values()) {
+            synchronized (set) {
+                count += set.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return The memory used by the tables of all sets in bytes
+     */
+    public long tableBytes() {
+        long bytes = 0;
+        for (LongHashSet set : this.voters.values()) {
+            synchronized (set) {
+                bytes += set.tableBytes();
+            }
+        }
+        return bytes;
+    }
+}
@@ -1,29 +1,51 @@
 package mk.ukim.finki.wp.jan2023.web;
 
-import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
 import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.ImportReport;
+import mk.ukim.finki.wp.jan2023.service.CandidateImportService;
 import mk.ukim.finki.wp.jan2023.service.CandidateService;
 import mk.ukim.finki.wp.jan2023.service.PartyService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDate;
-import java.util.List;
 
 @Controller
 public class CandidatesController {
 
+    private static final int MAX_PAGE_SIZE = 500;
+
     private final CandidateService candidateService;
     private final PartyService partyService;
+    private final LeaderboardBroadcaster leaderboardBroadcaster;
+    private final CandidateImportService candidateImportService;
+    private final int defaultPageSize;
 
-    public CandidatesController(CandidateService candidateService, PartyService partyService) {
+    public CandidatesController(CandidateService candidateService, PartyService partyService,
+                                LeaderboardBroadcaster leaderboardBroadcaster,
+                                CandidateImportService candidateImportService,
+                                @Value("${candidates.page.size:20}") int defaultPageSize) {
         this.candidateService = candidateService;
         this.partyService = partyService;
+        this.leaderboardBroadcaster = leaderboardBroadcaster;
+        this.candidateImportService = candidateImportService;
+        this.defaultPageSize = defaultPageSize;
     }
 
     /**
@@ -31,23 +53,37 @@ public class CandidatesController {
      * The method should be mapped on paths '/' and '/candidates'.
      * The arguments that this method takes are optional and can be 'null'.
      * In the case when the arguments are not passed (both are 'null') all candidates should be displayed.
-     * If one, or both of the arguments are not 'null', the candidates that are the result of the call
-     * to the method 'listCandidatesYearsMoreThanAndGender' from the CandidateService should be displayed.
+     * If one, or both of the arguments are not 'null', the candidates that meet the same criteria as
+     * the method 'listCandidatesYearsMoreThanAndGender' from the CandidateService should be displayed.
+     * The candidates are displayed one page at a time with CandidateService.listCandidatesPage, which filters
+     * in the range query of every page instead of calling 'listCandidatesYearsMoreThanAndGender'.
      *
      * @param years
      * @param gender
+     * @param sort      The key the candidates are ordered by, 'ID' by default
+     * @param direction The direction of the order, 'ASC' by default
+     * @param after     The cursor of the next page
+     * @param before    The cursor of the previous page
+     * @param size      The number of candidates on a page, 'candidates.page.size' by default
      * @return The view "list.html".
      */
     @GetMapping(value = {"/","/candidates"})
     public String showCandidates(@RequestParam(required = false) Integer years,
-                                 @RequestParam(required = false) Gender gender, Model model) {
-        List<Candidate> candidates;
-        if (years == null && gender == null) {
-            candidates=this.candidateService.listAllCandidates();
-        } else {
-            candidates=this.candidateService.listCandidatesYearsMoreThanAndGender(years, gender);
-        }
-        model.addAttribute("candidates",candidates);
+                                 @RequestParam(required = false) Gender gender,
+                                 @RequestParam(defaultValue = "ID") CandidateSort sort,
+                                 @RequestParam(defaultValue = "ASC") Sort.Direction direction,
+                                 @RequestParam(required = false) String after,
+                                 @RequestParam(required = false) String before,
+                                 @RequestParam(required = false) Integer size, Model model) {
+        int pageSize = size == null ? this.defaultPageSize : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        CandidatePage page = this.candidateService.listCandidatesPage(years, gender, sort, direction, after, before, pageSize);
+        model.addAttribute("candidates",page.getContent());
+        model.addAttribute("page",page);
+        model.addAttribute("years",years);
+        model.addAttribute("gender",gender);
+        model.addAttribute("sort",sort);
+        model.addAttribute("direction",direction);
+        model.addAttribute("size",pageSize);
         model.addAttribute("genders",Gender.values());
         return "list";
     }
@@ -141,4 +177,36 @@ public class CandidatesController {
         this.candidateService.vote(id);
         return "redirect:/candidates";
     }
+
+    /**
+     * This method opens a server-sent event stream with the live leaderboard.
+     * The method should be mapped on path '/candidates/leaderboard/stream'.
+     * The first event ('snapshot') contains the current top candidates, and every following event ('delta')
+     * contains only the rows that changed and the ids that dropped out of the top.
+     *
+     * @return The event stream.
+     */
+    @GetMapping(value = "/candidates/leaderboard/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public SseEmitter leaderboardStream() {
+        return this.leaderboardBroadcaster.subscribe();
+    }
+
+    /**
+     * This method imports candidates in bulk from an uploaded CSV or NDJSON file.
+     * The method should be mapped on path '/candidates/import'.
+     *
+     * @param file   The uploaded file, see ImportFormat for the expected columns
+     * @param format The format of the file. When it is not given, it is chosen by the file name.
+     * @return The number of imported and rejected rows and the import speed.
+     */
+    @PostMapping("/candidates/import")
+    @ResponseBody
+    public ImportReport importCandidates(@RequestParam MultipartFile file,
+                                         @RequestParam(required = false) ImportFormat format) throws IOException {
+        ImportFormat importFormat = format != null ? format : ImportFormat.fromFileName(file.getOriginalFilename());
+        try (InputStream input = file.getInputStream()) {
+            return this.candidateImportService.importCandidates(input, importFormat);
+        }
+    }
 }
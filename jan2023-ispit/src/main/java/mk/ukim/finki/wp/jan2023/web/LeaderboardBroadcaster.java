@@ -0,0 +1,216 @@
+package mk.ukim.finki.wp.jan2023.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.LeaderboardEntry;
+import mk.ukim.finki.wp.jan2023.model.events.CandidateChangedEvent;
+import mk.ukim.finki.wp.jan2023.model.events.CandidateVotedEvent;
+import mk.ukim.finki.wp.jan2023.model.events.CandidatesImportedEvent;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes the top candidates to all subscribers of '/candidates/leaderboard/stream'.
+ *
+ * Votes, candidate changes and imports only mark the leaderboard as dirty. At most
+ * 'candidates.leaderboard.ticks-per-second' times per second a dirty leaderboard is rebuilt from one keyset page of
+ * the top candidates by votes, which reads only 'candidates.leaderboard.size' rows of the 'candidate_votes_id_idx'
+ * index. The changed rows are serialized once and the same payload is written to every subscriber.
+ * New subscribers receive the last shared snapshot and never query the candidates, only the very first one builds it.
+ * While nobody is subscribed the ticks are skipped and the leaderboard is marked dirty, so the first tick after
+ * a subscription rebuilds it and pushes what changed in the meantime.
+ *
+ * The page is ordered by the persisted votes, the pending votes of the VoteAccumulator are only added to its rows.
+ * So after a vote the leaderboard keeps being rebuilt for one 'candidates.votes.flush-interval-ms', until the
+ * flush has moved the votes into the order.
+ */
+@Component
+public class LeaderboardBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(LeaderboardBroadcaster.class);
+
+    private final CandidateService candidateService;
+    private final ObjectMapper objectMapper;
+    private final int size;
+    private final long tickIntervalMs;
+    private final long settleMs;
+
+    private final Set<SseEmitter> subscribers = new CopyOnWriteArraySet<>();
+    private final AtomicBoolean dirty = new AtomicBoolean(true);
+    private volatile long settleUntil;
+
+    private Map<Long, LeaderboardEntry> snapshot = new LinkedHashMap<>();
+    private String snapshotJson;
+
+    private ScheduledExecutorService ticker;
+
+    public LeaderboardBroadcaster(CandidateService candidateService,
+                                  ObjectMapper objectMapper,
+                                  @Value("${candidates.leaderboard.size:10}") int size,
+                                  @Value("${candidates.leaderboard.ticks-per-second:2}") int ticksPerSecond,
+                                  @Value("${candidates.votes.flush-interval-ms:1000}") long flushIntervalMs) {
+        this.candidateService = candidateService;
+        this.objectMapper = objectMapper;
+        this.size = size;
+        this.tickIntervalMs = 1000L / Math.max(1, ticksPerSecond);
+        this.settleMs = flushIntervalMs + this.tickIntervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "leaderboard-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker.scheduleAtFixedRate(this::tickQuietly, tickIntervalMs, tickIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        this.ticker.shutdownNow();
+        this.subscribers.forEach(SseEmitter::complete);
+        this.subscribers.clear();
+    }
+
+    @EventListener
+    public void onVote(CandidateVotedEvent event) {
+        this.settleUntil = System.currentTimeMillis() + this.settleMs;
+        this.dirty.set(true);
+    }
+
+    /**
+     * Handled after the commit, so the next tick reads the created, renamed or deleted candidate.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onChange(CandidateChangedEvent event) {
+        this.dirty.set(true);
+    }
+
+    @EventListener(CandidatesImportedEvent.class)
+    public void onImport() {
+        this.dirty.set(true);
+    }
+
+    /**
+     * Registers a new subscriber and sends it the current leaderboard.
+     */
+    public synchronized SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(0L);
+        emitter.onCompletion(() -> this.subscribers.remove(emitter));
+        emitter.onTimeout(() -> this.subscribers.remove(emitter));
+        emitter.onError(e -> this.subscribers.remove(emitter));
+
+        if (this.snapshotJson == null) {
+            tick();
+        }
+        try {
+            emitter.send(SseEmitter.event().name("snapshot").data(this.snapshotJson, MediaType.APPLICATION_JSON));
+            this.subscribers.add(emitter);
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        return this.subscribers.size();
+    }
+
+    /**
+     * Rebuilds the leaderboard if it changed since the previous tick, or votes may still be waiting for a flush,
+     * and pushes the changed rows.
+     */
+    synchronized void tick() {
+        boolean settling = System.currentTimeMillis() < this.settleUntil;
+        if (!this.dirty.getAndSet(false) && !settling) {
+            return;
+        }
+        List<CandidateRow> top = new ArrayList<>(this.candidateService.listCandidatesPage(null, null, CandidateSort.VOTES,
+                Sort.Direction.DESC, null, null, this.size).getContent());
+        // the same order as the page, with the pending votes included
+        top.sort(Comparator.comparing(CandidateRow::getVotes).thenComparing(CandidateRow::getId).reversed());
+
+        Map<Long, LeaderboardEntry> next = new LinkedHashMap<>();
+        List<LeaderboardEntry> changed = new ArrayList<>();
+        for (int i = 0; i < top.size(); i++) {
+            CandidateRow candidate = top.get(i);
+            LeaderboardEntry entry = new LeaderboardEntry(candidate.getId(), candidate.getName(),
+                    candidate.getPartyName(), candidate.getVotes(), i + 1);
+            next.put(entry.getId(), entry);
+            if (!entry.sameAs(this.snapshot.get(entry.getId()))) {
+                changed.add(entry);
+            }
+        }
+        List<Long> removed = this.snapshot.keySet().stream()
+                .filter(id -> !next.containsKey(id))
+                .collect(Collectors.toList());
+
+        boolean firstSnapshot = this.snapshotJson == null;
+        this.snapshot = next;
+        this.snapshotJson = toJson(new ArrayList<>(next.values()));
+        if (firstSnapshot || (changed.isEmpty() && removed.isEmpty())) {
+            return;
+        }
+
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("changed", changed);
+        delta.put("removed", removed);
+        String deltaJson = toJson(delta);
+        for (SseEmitter emitter : this.subscribers) {
+            try {
+                // an event builder can only be built once, so each subscriber gets its own around the shared payload
+                emitter.send(SseEmitter.event().name("delta").data(deltaJson, MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                this.subscribers.remove(emitter);
+            }
+        }
+    }
+
+    private void tickQuietly() {
+        if (this.subscribers.isEmpty()) {
+            // the snapshot of the next subscriber may be old, its first tick rebuilds it
+            this.dirty.set(true);
+            return;
+        }
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            log.warn("Leaderboard tick failed", e);
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return this.objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package mk.ukim.finki.wp.jan2023.web;
+
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+public class PartiesController {
+
+    private final PartyService partyService;
+
+    public PartiesController(PartyService partyService) {
+        this.partyService = partyService;
+    }
+
+    /**
+     * This method should return the votes and number of candidates of every party as JSON.
+     * The method should be mapped on path '/parties/tallies'.
+     *
+     * @return The tallies of all parties.
+     */
+    @GetMapping("/parties/tallies")
+    public List<PartyTally> tallies() {
+        return this.partyService.listTallies();
+    }
+}
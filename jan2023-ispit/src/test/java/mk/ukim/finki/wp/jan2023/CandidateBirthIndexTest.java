@@ -0,0 +1,123 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.impl.CandidateBirthIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:birthindex",
+        "candidates.filter.mode=INDEX"
+})
+public class CandidateBirthIndexTest {
+
+    private static final int SYNTHETIC_CANDIDATES = 20_000;
+    private static final long SYNTHETIC_ID_OFFSET = 1_000_000_000L;
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    CandidateRepository candidateRepository;
+
+    @Autowired
+    CandidateBirthIndex birthIndex;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void indexModeMatchesRepositoryQueries() {
+        Candidate created = this.candidateService.create("Indexed", "Bio", LocalDate.now().minusYears(40), Gender.FEMALE,
+                this.candidateService.listAllCandidates().get(0).getParty().getId());
+        this.candidateService.update(created.getId(), "Indexed", "Bio", LocalDate.now().minusYears(20), Gender.MALE,
+                created.getParty().getId());
+        // without a date of birth, only the gender filter matches it
+        Candidate undated = this.candidateService.create("Undated", "Bio", null, Gender.FEMALE,
+                created.getParty().getId());
+
+        for (Integer years : new Integer[]{null, 0, 20, 30, 35, 100}) {
+            LocalDate birthday = years == null ? null : LocalDate.now().minusYears(years);
+            for (Gender gender : new Gender[]{null, Gender.MALE, Gender.FEMALE}) {
+                if (years == null && gender == null) {
+                    continue;
+                }
+                List<Candidate> expected;
+                if (years == null) {
+                    expected = this.candidateRepository.findAllByGender(gender);
+                } else if (gender == null) {
+                    expected = this.candidateRepository.findAllByDateOfBirthBefore(birthday);
+                } else {
+                    expected = this.candidateRepository.findAllByDateOfBirthBeforeAndGender(birthday, gender);
+                }
+                Assertions.assertEquals(ids(expected), ids(this.candidateService.listCandidatesYearsMoreThanAndGender(years, gender)),
+                        "years=" + years + ", gender=" + gender);
+            }
+        }
+
+        Assertions.assertTrue(ids(this.candidateService.listCandidatesYearsMoreThanAndGender(null, Gender.FEMALE))
+                .contains(undated.getId()));
+
+        this.candidateService.delete(undated.getId());
+        this.candidateService.delete(created.getId());
+        Assertions.assertEquals(3, this.candidateService.listCandidatesYearsMoreThanAndGender(30, Gender.MALE).size());
+    }
+
+    /**
+     * Compares the index with the queries of the repository mode on synthetic candidates, one in a hundred of them
+     * without a date of birth. CandidateBirthIndexBenchmark makes the same comparison on a million candidates.
+     */
+    @Test
+    public void indexMatchesRepositoryOnSyntheticCandidates() {
+        Random random = new Random(42);
+        LocalDate today = LocalDate.now();
+        Long partyId = this.candidateService.listAllCandidates().get(0).getParty().getId();
+        List<Object[]> rows = new ArrayList<>(SYNTHETIC_CANDIDATES);
+        for (int i = 0; i < SYNTHETIC_CANDIDATES; i++) {
+            LocalDate dateOfBirth = random.nextInt(100) == 0 ? null : today.minusDays(random.nextInt(365 * 90));
+            Gender gender = Gender.values()[random.nextInt(Gender.values().length)];
+            rows.add(new Object[]{SYNTHETIC_ID_OFFSET + i, "Synthetic " + i, "Bio", dateOfBirth, gender.ordinal(), partyId});
+        }
+        this.jdbcTemplate.batchUpdate("insert into candidate (id, name, bio, date_of_birth, gender, party_id, votes, version) " +
+                "values (?, ?, ?, ?, ?, ?, 0, 0)", rows);
+        try {
+            this.birthIndex.load(this.candidateRepository.findAllBirthDates());
+            Assertions.assertEquals(this.candidateRepository.count(), this.birthIndex.size());
+
+            for (Integer years : new Integer[]{null, 0, 45, 120}) {
+                LocalDate cutoff = years == null ? null : today.minusYears(years);
+                for (Gender gender : new Gender[]{null, Gender.MALE, Gender.FEMALE}) {
+                    if (years == null && gender == null) {
+                        continue;
+                    }
+                    long[] actual = this.birthIndex.idsBornBefore(cutoff, gender);
+                    Arrays.sort(actual);
+                    long[] expected = this.candidateRepository.findRows(cutoff, gender).stream()
+                            .mapToLong(CandidateRow::getId).toArray();
+                    Assertions.assertArrayEquals(expected, actual, "years=" + years + ", gender=" + gender);
+                }
+            }
+        } finally {
+            this.jdbcTemplate.update("delete from candidate where id >= ?", SYNTHETIC_ID_OFFSET);
+            this.birthIndex.load(this.candidateRepository.findAllBirthDates());
+        }
+    }
+
+    private static List<Long> ids(List<Candidate> candidates) {
+        return candidates.stream().map(Candidate::getId).sorted().collect(Collectors.toList());
+    }
+}
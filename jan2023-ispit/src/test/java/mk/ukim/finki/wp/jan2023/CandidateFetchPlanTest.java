@@ -0,0 +1,70 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:fetchplans",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class CandidateFetchPlanTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    PartyService partyService;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    private MockMvc mockMvc;
+    private Statistics statistics;
+
+    @BeforeEach
+    public void setup(WebApplicationContext wac) {
+        this.mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
+        this.statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    public void candidatesPageRunsConstantNumberOfStatements() throws Exception {
+        long small = statementsFor("/candidates?size=500");
+        long smallFiltered = statementsFor("/candidates?years=30&gender=MALE&size=500");
+
+        // every new candidate gets its own party, so a select per party would show up in the count
+        for (int i = 0; i < 40; i++) {
+            Party party = this.partyService.create("Fetch plan party " + i);
+            this.candidateService.create("Fetch plan " + i, "Bio", LocalDate.now().minusYears(31 + i % 20),
+                    i % 2 == 0 ? Gender.MALE : Gender.FEMALE, party.getId());
+        }
+
+        Assertions.assertEquals(small, statementsFor("/candidates?size=500"));
+        Assertions.assertEquals(smallFiltered, statementsFor("/candidates?years=30&gender=MALE&size=500"));
+        Assertions.assertEquals(1, small);
+    }
+
+    private long statementsFor(String url) throws Exception {
+        this.statistics.clear();
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        return this.statistics.getPrepareStatementCount();
+    }
+}
@@ -0,0 +1,206 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.impl.CandidateFilterCache;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteAccumulator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:filtercache",
+        "candidates.votes.flush-interval-ms=3600000"
+})
+public class CandidateFilterCacheTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    CandidateFilterCache filterCache;
+
+    @Autowired
+    VoteAccumulator voteAccumulator;
+
+    @Test
+    public void writesAndFlushesAreVisibleThroughTheCache() {
+        Long partyId = this.candidateService.listAllCandidates().get(0).getParty().getId();
+        Candidate created = this.candidateService.create("Cached", "Bio", LocalDate.of(1950, 1, 1), Gender.FEMALE, partyId);
+
+        List<Candidate> first = this.candidateService.listCandidatesYearsMoreThanAndGender(60, Gender.FEMALE);
+        long hits = this.filterCache.hits();
+        long misses = this.filterCache.misses();
+        List<Candidate> second = this.candidateService.listCandidatesYearsMoreThanAndGender(60, Gender.FEMALE);
+        Assertions.assertEquals(hits + 1, this.filterCache.hits());
+        Assertions.assertEquals(ids(first), ids(second));
+        Assertions.assertTrue(ids(second).contains(created.getId()));
+
+        // pending votes are added on every read and flushed votes are added to the cached entry
+        this.candidateService.vote(created.getId());
+        Assertions.assertEquals(1, votesOf(Gender.FEMALE, created.getId()));
+        this.voteAccumulator.flush();
+        Assertions.assertEquals(1, votesOf(Gender.FEMALE, created.getId()));
+        this.candidateService.vote(created.getId());
+        this.voteAccumulator.flush();
+        Assertions.assertEquals(2, votesOf(Gender.FEMALE, created.getId()));
+        Assertions.assertEquals(misses, this.filterCache.misses());
+
+        // pages do not go through the cache
+        hits = this.filterCache.hits();
+        this.candidateService.listCandidatesPage(60, Gender.FEMALE, CandidateSort.ID, Sort.Direction.ASC, null, null, 100);
+        Assertions.assertEquals(hits, this.filterCache.hits());
+        Assertions.assertEquals(misses, this.filterCache.misses());
+
+        this.candidateService.update(created.getId(), "Cached", "Bio", LocalDate.of(1950, 1, 1), Gender.MALE, partyId);
+        Assertions.assertFalse(ids(this.candidateService.listCandidatesYearsMoreThanAndGender(60, Gender.FEMALE))
+                .contains(created.getId()));
+        Assertions.assertEquals(2, votesOf(Gender.MALE, created.getId()));
+
+        this.candidateService.delete(created.getId());
+        Assertions.assertFalse(ids(this.candidateService.listCandidatesYearsMoreThanAndGender(60, Gender.MALE))
+                .contains(created.getId()));
+    }
+
+    @Test
+    public void resultsLoadedDuringAFlushAreNotCached() {
+        CandidateFilterCache cache = new CandidateFilterCache(this.voteAccumulator, 16, Clock.systemDefaultZone());
+        Candidate candidate = this.candidateService.listAllCandidates().get(0);
+
+        List<Candidate> loaded = cache.get(30, null, cutoff -> {
+            List<Candidate> candidates = this.candidateService.listAllCandidates();
+            // the flush commits after the query read the votes
+            this.candidateService.vote(candidate.getId());
+            this.voteAccumulator.flush();
+            return candidates;
+        });
+        Assertions.assertFalse(loaded.isEmpty());
+        Assertions.assertEquals(0, cache.size());
+
+        cache.get(30, null, cutoff -> this.candidateService.listAllCandidates());
+        Assertions.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void entriesExpireAtMidnightAndTheLeastRecentlyUsedIsEvicted() {
+        MutableClock clock = new MutableClock(LocalDateTime.of(2024, 2, 28, 23, 59));
+        CandidateFilterCache cache = new CandidateFilterCache(this.voteAccumulator, 2, clock);
+        List<LocalDate> cutoffs = new ArrayList<>();
+
+        cache.get(10, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        cache.get(10, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        Assertions.assertEquals(Collections.singletonList(LocalDate.of(2014, 2, 28)), cutoffs);
+
+        clock.now = LocalDateTime.of(2024, 2, 29, 0, 0);
+        cache.get(10, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        Assertions.assertEquals(LocalDate.of(2014, 2, 28), cutoffs.get(1));
+        clock.now = LocalDateTime.of(2024, 3, 1, 0, 0);
+        cache.get(10, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        Assertions.assertEquals(LocalDate.of(2014, 3, 1), cutoffs.get(2));
+        Assertions.assertEquals(1, cache.size());
+
+        cache.get(20, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        cache.get(10, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        cache.get(30, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(5, cutoffs.size());
+        // 20 years was the least recently used entry
+        cache.get(10, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        Assertions.assertEquals(5, cutoffs.size());
+        cache.get(20, Gender.MALE, cutoff -> load(cutoffs, cutoff));
+        Assertions.assertEquals(6, cutoffs.size());
+    }
+
+    @Test
+    public void concurrentMissesRunOneQuery() throws Exception {
+        CandidateFilterCache cache = new CandidateFilterCache(this.voteAccumulator, 16, Clock.systemDefaultZone());
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        AtomicInteger queries = new AtomicInteger();
+        CountDownLatch waiting = new CountDownLatch(1);
+        int threads = 8;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Candidate>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> cache.get(40, Gender.FEMALE, cutoff -> {
+                    queries.incrementAndGet();
+                    try {
+                        waiting.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return candidates;
+                })));
+            }
+            Thread.sleep(200);
+            waiting.countDown();
+            for (Future<List<Candidate>> future : futures) {
+                Assertions.assertEquals(ids(candidates), ids(future.get()));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assertions.assertEquals(1, queries.get());
+        Assertions.assertEquals(1, cache.misses());
+    }
+
+    private int votesOf(Gender gender, Long id) {
+        return this.candidateService.listCandidatesYearsMoreThanAndGender(60, gender).stream()
+                .filter(c -> c.getId().equals(id)).findFirst().get().getVotes();
+    }
+
+    private static List<Candidate> load(List<LocalDate> cutoffs, LocalDate cutoff) {
+        cutoffs.add(cutoff);
+        return Collections.emptyList();
+    }
+
+    private static List<Long> ids(List<Candidate> candidates) {
+        List<Long> ids = new ArrayList<>();
+        candidates.forEach(c -> ids.add(c.getId()));
+        return ids;
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private LocalDateTime now;
+
+        MutableClock(LocalDateTime now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.now.toInstant(ZoneOffset.UTC);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.ImportReport;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import mk.ukim.finki.wp.jan2023.service.CandidateImportService;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:imports",
+        "candidates.filter.mode=INDEX",
+        "candidates.import.batch-size=2",
+        "candidates.import.commit-interval=3"
+})
+public class CandidateImportTest {
+
+    @Autowired
+    CandidateImportService candidateImportService;
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    PartyService partyService;
+
+    @Test
+    public void csvAndNdjsonAreImported() throws IOException {
+        int before = this.candidateService.listAllCandidates().size();
+        String existingParty = this.partyService.listAll().get(0).getName();
+
+        ImportReport csv = importText(ImportFormat.CSV,
+                "name,bio,dateOfBirth,gender,party\n" +
+                        "Imported 1,\"Bio, with a comma\",1950-01-01,MALE," + existingParty + "\n" +
+                        "Imported 2,Bio,1960-02-02,female,Imported party\n" +
+                        "\n" +
+                        "Imported 3,Bio,not a date,MALE,Imported party\n" +
+                        "Imported 4,Bio,1970-03-03,OTHER,Imported party\n" +
+                        "Imported 5,Bio,1980-04-04,MALE\n" +
+                        "Imported 6,Bio,1990-05-05,FEMALE,Imported party\n" +
+                        "Imported 7,,1990-05-05,FEMALE,Imported party\n" +
+                        "Imported 8,Bio,1991-06-06,MALE,Imported party\n");
+        Assertions.assertEquals(4, csv.getImported());
+        Assertions.assertEquals(4, csv.getRejected());
+        Assertions.assertEquals(1, csv.getPartiesCreated());
+        Assertions.assertEquals(4, csv.getErrors().size());
+
+        ImportReport ndjson = importText(ImportFormat.NDJSON,
+                "{\"name\":\"Imported 9\",\"bio\":\"Bio\",\"dateOfBirth\":\"1940-07-07\",\"gender\":\"FEMALE\",\"party\":\"Imported party\"}\n" +
+                        "{\"name\":\"Imported 10\",\"bio\":\"Bio\"}\n" +
+                        "{not json\n");
+        Assertions.assertEquals(1, ndjson.getImported());
+        Assertions.assertEquals(2, ndjson.getRejected());
+        Assertions.assertEquals(0, ndjson.getPartiesCreated());
+
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        Assertions.assertEquals(before + 5, candidates.size());
+        Candidate first = candidates.stream().filter(c -> c.getName().equals("Imported 1")).findFirst().get();
+        Assertions.assertEquals("Bio, with a comma", first.getBio());
+        Assertions.assertEquals(LocalDate.of(1950, 1, 1), first.getDateOfBirth());
+        Assertions.assertEquals(Gender.MALE, first.getGender());
+        Assertions.assertEquals(0, first.getVotes());
+
+        PartyTally imported = this.partyService.listTallies().stream()
+                .filter(t -> t.getParty().getName().equals("Imported party")).findFirst().get();
+        Assertions.assertEquals(4L, imported.getCandidates());
+
+        // the birth index is rebuilt after the import, so the imported candidates are found by the filter
+        List<String> old = this.candidateService.listCandidatesYearsMoreThanAndGender(70, Gender.FEMALE).stream()
+                .map(Candidate::getName).collect(Collectors.toList());
+        Assertions.assertTrue(old.contains("Imported 9"), old.toString());
+    }
+
+    private ImportReport importText(ImportFormat format, String text) throws IOException {
+        return this.candidateImportService.importCandidates(
+                new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), format);
+    }
+}
@@ -0,0 +1,111 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCursorException;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteAccumulator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:pages")
+public class CandidatePageTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    VoteAccumulator voteAccumulator;
+
+    @BeforeEach
+    public void spreadVotes() {
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        for (int i = 0; i < candidates.size(); i++) {
+            // a few candidates share the same number of votes, so the id tie-breaker is exercised
+            for (int v = 0; v < i / 2; v++) {
+                this.candidateService.vote(candidates.get(i).getId());
+            }
+        }
+        this.voteAccumulator.flush();
+    }
+
+    @Test
+    public void pagesCoverAllCandidatesInOrder() {
+        for (CandidateSort sort : CandidateSort.values()) {
+            for (Sort.Direction direction : Sort.Direction.values()) {
+                for (Gender gender : new Gender[]{null, Gender.MALE}) {
+                    Comparator<Candidate> order = sort == CandidateSort.VOTES
+                            ? Comparator.comparing(Candidate::getPersistedVotes).thenComparing(Candidate::getId)
+                            : Comparator.comparing(Candidate::getId);
+                    if (direction.isDescending()) {
+                        order = order.reversed();
+                    }
+                    List<Long> expected = this.candidateService.listCandidatesYearsMoreThanAndGender(null, gender).stream()
+                            .sorted(order).map(Candidate::getId).collect(Collectors.toList());
+                    assertWalk(expected, gender, sort, direction);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void malformedCursorsAreRejected(WebApplicationContext wac) throws Exception {
+        for (String cursor : new String[]{"abc", "12_", "_5", "1_2_3", "99999999999_1", ""}) {
+            Assertions.assertThrows(InvalidCursorException.class, () -> this.candidateService.listCandidatesPage(
+                    null, null, CandidateSort.VOTES, Sort.Direction.DESC, cursor, null, 3), cursor);
+        }
+        // an id cursor without the votes part
+        Assertions.assertThrows(InvalidCursorException.class, () -> this.candidateService.listCandidatesPage(
+                null, null, CandidateSort.VOTES, Sort.Direction.ASC, null, "5", 3));
+        Assertions.assertThrows(InvalidCursorException.class, () -> this.candidateService.listCandidatesPage(
+                null, null, CandidateSort.ID, Sort.Direction.ASC, "3_5", null, 3));
+
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
+        mockMvc.perform(MockMvcRequestBuilders.get("/candidates?after=abc"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/candidates?sort=VOTES&after=5"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(MockMvcRequestBuilders.get("/candidates?sort=VOTES&after=0_1"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    private void assertWalk(List<Long> expected, Gender gender, CandidateSort sort, Sort.Direction direction) {
+        String label = sort + " " + direction + " " + gender;
+        List<List<Long>> forward = new ArrayList<>();
+        CandidatePage page = this.candidateService.listCandidatesPage(null, gender, sort, direction, null, null, 3);
+        Assertions.assertFalse(page.hasPrevious(), label);
+        forward.add(ids(page));
+        while (page.hasNext()) {
+            page = this.candidateService.listCandidatesPage(null, gender, sort, direction, page.getNextCursor(), null, 3);
+            forward.add(ids(page));
+        }
+        Assertions.assertEquals(expected, forward.stream().flatMap(List::stream).collect(Collectors.toList()), label);
+
+        for (int i = forward.size() - 2; i >= 0; i--) {
+            page = this.candidateService.listCandidatesPage(null, gender, sort, direction, null, page.getPreviousCursor(), 3);
+            Assertions.assertEquals(forward.get(i), ids(page), label);
+        }
+        Assertions.assertFalse(page.hasPrevious(), label);
+    }
+
+    private static List<Long> ids(CandidatePage page) {
+        return page.getContent().stream().map(CandidateRow::getId).collect(Collectors.toList());
+    }
+}
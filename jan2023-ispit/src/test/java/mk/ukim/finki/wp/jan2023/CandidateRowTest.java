@@ -0,0 +1,73 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:rows")
+public class CandidateRowTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Test
+    public void rowsMatchEntities() {
+        String longBio = String.join("", Collections.nCopies(20, "0123456789"));
+        Candidate created = this.candidateService.create("Long bio", longBio, LocalDate.now().minusYears(50), Gender.FEMALE,
+                this.candidateService.listAllCandidates().get(0).getParty().getId());
+        this.candidateService.vote(created.getId());
+
+        for (Integer years : new Integer[]{null, 30, 45}) {
+            for (Gender gender : new Gender[]{null, Gender.MALE, Gender.FEMALE}) {
+                List<Candidate> entities = years == null && gender == null
+                        ? this.candidateService.listAllCandidates()
+                        : this.candidateService.listCandidatesYearsMoreThanAndGender(years, gender);
+                List<CandidateRow> rows = this.candidateService.listCandidateRows(years, gender);
+                Assertions.assertEquals(
+                        entities.stream().map(c -> c.getId() + " " + c.getName() + " " + c.getDateOfBirth() + " "
+                                + c.getGender() + " " + c.getParty().getName() + " " + c.getVotes()).sorted().collect(Collectors.toList()),
+                        rows.stream().map(c -> c.getId() + " " + c.getName() + " " + c.getDateOfBirth() + " "
+                                + c.getGender() + " " + c.getPartyName() + " " + c.getVotes()).sorted().collect(Collectors.toList()),
+                        "years=" + years + ", gender=" + gender);
+            }
+        }
+
+        CandidateRow row = this.candidateService.listCandidateRows(null, null).stream()
+                .filter(r -> r.getId().equals(created.getId())).findFirst().get();
+        Assertions.assertEquals(longBio.substring(0, CandidateRow.BIO_EXCERPT_LENGTH), row.getBio());
+        Assertions.assertEquals(1, row.getVotes());
+    }
+
+    @Test
+    public void rowsAreNotManaged() {
+        new TransactionTemplate(this.transactionManager).executeWithoutResult(status -> {
+            Session session = this.entityManager.unwrap(Session.class);
+            Assertions.assertFalse(this.candidateService.listCandidateRows(null, null).isEmpty());
+            Assertions.assertEquals(0, session.getStatistics().getEntityCount());
+
+            this.candidateService.listAllCandidates();
+            Assertions.assertTrue(session.getStatistics().getEntityCount() > 0);
+        });
+    }
+}
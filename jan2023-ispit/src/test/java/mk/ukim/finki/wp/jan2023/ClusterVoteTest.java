@@ -0,0 +1,136 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.config.VoteMode;
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Two instances of the application count votes against one file based H2 database.
+ */
+public class ClusterVoteTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusterVoteTest.class);
+
+    private static final Path DIRECTORY = Paths.get("target/cluster-votes");
+    private static final int THREADS_PER_INSTANCE = 4;
+    private static final int VOTES_PER_THREAD = 1000;
+
+    @BeforeAll
+    public static void cleanDatabase() throws IOException {
+        FileSystemUtils.deleteRecursively(DIRECTORY);
+    }
+
+    @Test
+    public void accumulatedVotesAreExactAfterTheFlush() throws Exception {
+        countVotes(VoteMode.ACCUMULATE);
+    }
+
+    @Test
+    public void atomicVotesAreExact() throws Exception {
+        countVotes(VoteMode.ATOMIC);
+    }
+
+    @Test
+    public void optimisticVotesAreExact() throws Exception {
+        countVotes(VoteMode.OPTIMISTIC);
+    }
+
+    private void countVotes(VoteMode mode) throws Exception {
+        String url = "jdbc:h2:file:./" + DIRECTORY.resolve(mode.name().toLowerCase()) + "/db";
+        ConfigurableApplicationContext first = start(url, mode);
+        ConfigurableApplicationContext second = start(url, mode);
+        try {
+            CandidateService firstService = first.getBean(CandidateService.class);
+            CandidateService secondService = second.getBean(CandidateService.class);
+            // both instances vote for the same few candidates, so they compete for the same rows
+            List<Candidate> candidates = firstService.listAllCandidates().subList(0, 3);
+            int instances = 2;
+            int votes = instances * THREADS_PER_INSTANCE * VOTES_PER_THREAD;
+
+            ExecutorService pool = Executors.newFixedThreadPool(instances * THREADS_PER_INSTANCE);
+            CountDownLatch ready = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            try {
+                for (int t = 0; t < instances * THREADS_PER_INSTANCE; t++) {
+                    CandidateService service = t % 2 == 0 ? firstService : secondService;
+                    int thread = t;
+                    futures.add(pool.submit(() -> {
+                        ready.await();
+                        for (int i = 0; i < VOTES_PER_THREAD; i++) {
+                            service.vote(candidates.get((thread + i) % candidates.size()).getId());
+                        }
+                        return null;
+                    }));
+                }
+                long start = System.nanoTime();
+                ready.countDown();
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                log.info("{} votes per second with two instances: {}", mode, (long) (votes / seconds));
+            } finally {
+                pool.shutdown();
+            }
+
+            if (mode.isClusterSafe()) {
+                // every vote is in the database, so the other instance sees all of them right away
+                Assertions.assertEquals(votes, totalVotes(secondService));
+            }
+            // the accumulator of an instance writes its votes when it shuts down
+            second.close();
+            Assertions.assertEquals(votes, totalVotes(firstService));
+
+            long tallied = 0;
+            for (PartyTally tally : first.getBean(PartyService.class).listTallies()) {
+                tallied += tally.getVotes();
+            }
+            // the tallies show the votes that are still pending on the first instance as well
+            Assertions.assertEquals(votes, tallied);
+        } finally {
+            second.close();
+            first.close();
+        }
+    }
+
+    private static long totalVotes(CandidateService service) {
+        long votes = 0;
+        for (Candidate candidate : service.listAllCandidates()) {
+            votes += candidate.getVotes();
+        }
+        return votes;
+    }
+
+    private static ConfigurableApplicationContext start(String url, VoteMode mode) {
+        // arguments, because they take precedence over application.properties
+        return new SpringApplicationBuilder(ExampleApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .run("--spring.main.banner-mode=off",
+                        "--spring.datasource.url=" + url,
+                        // the second instance must not drop the tables of the first one
+                        "--spring.jpa.hibernate.ddl-auto=update",
+                        "--candidates.votes.mode=" + mode);
+    }
+}
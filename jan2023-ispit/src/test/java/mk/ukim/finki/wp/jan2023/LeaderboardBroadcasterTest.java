@@ -0,0 +1,71 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:leaderboard",
+        "candidates.leaderboard.size=3",
+        "candidates.leaderboard.ticks-per-second=20",
+        "candidates.votes.flush-interval-ms=200"
+})
+public class LeaderboardBroadcasterTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Test
+    public void votesAndChangesArePushedToSubscribers(WebApplicationContext wac) throws Exception {
+        MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(wac).build();
+        MvcResult stream = mockMvc.perform(MockMvcRequestBuilders.get("/candidates/leaderboard/stream"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        MockHttpServletResponse response = stream.getResponse();
+        Assertions.assertTrue(response.getContentAsString().startsWith("event:snapshot"));
+
+        // with equal votes the newest candidates lead, so the oldest one only enters the top after the flush
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        Candidate oldest = candidates.stream().min(Comparator.comparing(Candidate::getId)).get();
+        for (int i = 0; i < 5; i++) {
+            this.candidateService.vote(oldest.getId());
+        }
+        awaitEvent(response, "\"id\":" + oldest.getId() + ",\"name\":\"" + oldest.getName() + "\"");
+        awaitEvent(response, "\"votes\":5,\"rank\":1");
+
+        this.candidateService.update(oldest.getId(), "Renamed leader", oldest.getBio(), oldest.getDateOfBirth(),
+                oldest.getGender(), oldest.getParty().getId());
+        awaitEvent(response, "\"name\":\"Renamed leader\"");
+
+        this.candidateService.delete(oldest.getId());
+        awaitEvent(response, "\"removed\":[" + oldest.getId() + "]");
+
+        Candidate created = this.candidateService.create("Newcomer", "Bio", LocalDate.of(1980, 1, 1), Gender.FEMALE,
+                oldest.getParty().getId());
+        awaitEvent(response, "\"id\":" + created.getId() + ",\"name\":\"Newcomer\"");
+    }
+
+    private static void awaitEvent(MockHttpServletResponse response, String text) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!response.getContentAsString().contains(text)) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline,
+                    "No event with " + text + " in " + response.getContentAsString());
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteAccumulator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:tallies")
+public class PartyTallyTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    PartyService partyService;
+
+    @Autowired
+    VoteAccumulator voteAccumulator;
+
+    @Test
+    public void talliesFollowVotesAndPartyChanges() {
+        List<Party> parties = this.partyService.listAll();
+        Party from = parties.get(0);
+        Party to = parties.get(1);
+        Candidate candidate = this.candidateService.create("Tally", "Bio", LocalDate.of(1970, 1, 1),
+                Gender.FEMALE, from.getId());
+        Map<Long, PartyTally> before = tallies();
+
+        for (int i = 0; i < 7; i++) {
+            this.candidateService.vote(candidate.getId());
+        }
+        this.voteAccumulator.flush();
+        Assertions.assertEquals(before.get(from.getId()).getVotes() + 7, tallies().get(from.getId()).getVotes());
+
+        this.candidateService.update(candidate.getId(), "Tally", "Bio", candidate.getDateOfBirth(),
+                candidate.getGender(), to.getId());
+        Map<Long, PartyTally> moved = tallies();
+        Assertions.assertEquals(before.get(from.getId()).getVotes(), moved.get(from.getId()).getVotes());
+        Assertions.assertEquals(before.get(from.getId()).getCandidates() - 1, moved.get(from.getId()).getCandidates());
+        Assertions.assertEquals(before.get(to.getId()).getVotes() + 7, moved.get(to.getId()).getVotes());
+        Assertions.assertEquals(before.get(to.getId()).getCandidates() + 1, moved.get(to.getId()).getCandidates());
+
+        this.candidateService.delete(candidate.getId());
+        Assertions.assertEquals(before.get(to.getId()).getVotes(), tallies().get(to.getId()).getVotes());
+        assertMatchesCandidates();
+    }
+
+    @Test
+    public void talliesShowVotesThatAreNotFlushedYet() {
+        Party party = this.partyService.listAll().get(0);
+        Candidate candidate = this.candidateService.create("Pending", "Bio", LocalDate.of(1980, 1, 1),
+                Gender.MALE, party.getId());
+        long before = tallies().get(party.getId()).getVotes();
+
+        for (int i = 0; i < 3; i++) {
+            this.candidateService.vote(candidate.getId());
+        }
+        Assertions.assertEquals(before + 3, tallies().get(party.getId()).getVotes());
+        assertMatchesCandidates();
+        this.voteAccumulator.flush();
+        Assertions.assertEquals(before + 3, tallies().get(party.getId()).getVotes());
+
+        this.candidateService.delete(candidate.getId());
+    }
+
+    private Map<Long, PartyTally> tallies() {
+        return this.partyService.listTallies().stream()
+                .collect(Collectors.toMap(t -> t.getParty().getId(), Function.identity()));
+    }
+
+    private void assertMatchesCandidates() {
+        Map<Long, Long> votesByParty = this.candidateService.listAllCandidates().stream()
+                .collect(Collectors.groupingBy(c -> c.getParty().getId(), Collectors.summingLong(Candidate::getVotes)));
+        this.partyService.listTallies().forEach(t ->
+                Assertions.assertEquals(votesByParty.getOrDefault(t.getParty().getId(), 0L), t.getVotes()));
+    }
+}
@@ -0,0 +1,202 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.CandidatePage;
+import mk.ukim.finki.wp.jan2023.model.CandidateRow;
+import mk.ukim.finki.wp.jan2023.model.CandidateSort;
+import mk.ukim.finki.wp.jan2023.model.Gender;
+import mk.ukim.finki.wp.jan2023.model.ImportFormat;
+import mk.ukim.finki.wp.jan2023.model.Party;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCandidateIdException;
+import mk.ukim.finki.wp.jan2023.service.CandidateImportService;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import mk.ukim.finki.wp.jan2023.service.impl.CandidateShards;
+import mk.ukim.finki.wp.jan2023.service.impl.ShardedCandidateServiceImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:sharded",
+        "candidates.shards.count=3",
+        "candidates.shards.url=jdbc:h2:mem:sharded-%d",
+        "candidates.shards.tally-repair-interval-ms=0"
+})
+public class ShardedCandidateServiceTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    CandidateImportService candidateImportService;
+
+    @Autowired
+    PartyService partyService;
+
+    @Autowired
+    CandidateShards shards;
+
+    @Autowired
+    ShardedCandidateServiceImpl shardedCandidateService;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    public void candidatesLiveOnTheShardOfTheirParty() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            csv.append("Imported ").append(i).append(",Bio,").append(LocalDate.of(1950, 1, 1).plusDays(i * 100))
+                    .append(',').append(i % 2 == 0 ? "MALE" : "FEMALE").append(",Party: ").append(i % 5 + 1).append('\n');
+        }
+        this.candidateImportService.importCandidates(
+                new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), ImportFormat.CSV);
+
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        int[] expected = new int[this.shards.count()];
+        for (Candidate candidate : candidates) {
+            expected[this.shards.shardOf(candidate.getParty().getId())]++;
+        }
+        Assertions.assertArrayEquals(expected, this.shards.sizes());
+        Assertions.assertTrue(candidates.size() >= 210);
+
+        // the merged filter returns the same candidates as filtering all of them
+        List<Long> filtered = candidates.stream()
+                .filter(c -> c.getGender() == Gender.FEMALE && c.getDateOfBirth().isBefore(LocalDate.now().minusYears(40)))
+                .map(Candidate::getId).sorted().collect(Collectors.toList());
+        Assertions.assertEquals(filtered, this.candidateService.listCandidatesYearsMoreThanAndGender(40, Gender.FEMALE)
+                .stream().map(Candidate::getId).collect(Collectors.toList()));
+        Assertions.assertEquals(filtered, this.candidateService.listCandidateRows(40, Gender.FEMALE)
+                .stream().map(CandidateRow::getId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void voteUpdateAndDeleteUseTheShardOfTheCandidate() {
+        List<Party> parties = this.partyService.listAll();
+        Party from = parties.get(0);
+        Party to = parties.stream().filter(p -> this.shards.shardOf(p.getId()) != this.shards.shardOf(from.getId()))
+                .findFirst().get();
+
+        Candidate candidate = this.candidateService.create("Moving", "Bio", LocalDate.of(1960, 5, 5), Gender.MALE, from.getId());
+        Assertions.assertEquals(1, this.candidateService.vote(candidate.getId()).getVotes());
+        Assertions.assertEquals(2, this.candidateService.vote(candidate.getId()).getVotes());
+        long toVotes = tally(to).getVotes();
+
+        this.candidateService.update(candidate.getId(), "Moved", "Bio", LocalDate.of(1960, 5, 5), Gender.MALE, to.getId());
+        Candidate moved = this.candidateService.findById(candidate.getId());
+        Assertions.assertEquals("Moved", moved.getName());
+        Assertions.assertEquals(to.getId(), moved.getParty().getId());
+        Assertions.assertEquals(2, moved.getVotes());
+        Assertions.assertEquals(toVotes + 2, tally(to).getVotes());
+
+        this.candidateService.delete(candidate.getId());
+        Assertions.assertThrows(InvalidCandidateIdException.class, () -> this.candidateService.findById(candidate.getId()));
+        Assertions.assertThrows(InvalidCandidateIdException.class, () -> this.candidateService.vote(candidate.getId()));
+        Assertions.assertEquals(toVotes, tally(to).getVotes());
+    }
+
+    @Test
+    public void candidatesMovedBeforeTheDirectorySwitchAreFound() {
+        List<Party> parties = this.partyService.listAll();
+        Party from = parties.get(0);
+        Party to = parties.stream().filter(p -> this.shards.shardOf(p.getId()) != this.shards.shardOf(from.getId()))
+                .findFirst().get();
+        Candidate candidate = this.candidateService.create("Stale", "Bio", LocalDate.of(1970, 1, 1), null, from.getId());
+
+        // the move of an update that has committed on both shards, but has not switched the directory yet
+        JdbcTemplate source = shard(this.shards.shardOf(from.getId()));
+        JdbcTemplate target = shard(this.shards.shardOf(to.getId()));
+        Map<String, Object> row = source.queryForMap("select * from candidate where id = ?", candidate.getId());
+        target.update("insert into candidate (id, name, bio, date_of_birth, gender, party_id, votes) values (?, ?, ?, ?, ?, ?, ?)",
+                row.get("ID"), row.get("NAME"), row.get("BIO"), row.get("DATE_OF_BIRTH"), row.get("GENDER"), to.getId(),
+                row.get("VOTES"));
+        Assertions.assertEquals(1, source.update("delete from candidate where id = ?", candidate.getId()));
+
+        Assertions.assertEquals(to.getId(), this.candidateService.findById(candidate.getId()).getParty().getId());
+        Assertions.assertEquals(1, this.candidateService.vote(candidate.getId()).getVotes());
+        Assertions.assertEquals(1, target.queryForObject("select votes from candidate where id = ?", Integer.class,
+                candidate.getId()));
+
+        // moving back without a gender
+        this.candidateService.update(candidate.getId(), "Back", "Bio", LocalDate.of(1970, 1, 1), null, from.getId());
+        Candidate back = this.candidateService.findById(candidate.getId());
+        Assertions.assertEquals("Back", back.getName());
+        Assertions.assertNull(back.getGender());
+        Assertions.assertEquals(1, back.getVotes());
+        Assertions.assertEquals(0, target.queryForObject("select count(*) from candidate where id = ?", Integer.class,
+                candidate.getId()));
+        this.candidateService.update(candidate.getId(), "Stays", "Bio", LocalDate.of(1970, 1, 1), null, from.getId());
+        Assertions.assertEquals("Stays", this.candidateService.findById(candidate.getId()).getName());
+        this.candidateService.delete(candidate.getId());
+        // the move above changed the party without changing the tallies
+        this.shardedCandidateService.repairTallies();
+    }
+
+    @Test
+    public void pagesAreMergedAcrossShards() {
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        for (int i = 0; i < candidates.size(); i += 3) {
+            this.candidateService.vote(candidates.get(i).getId());
+        }
+        List<Long> expected = this.candidateService.listAllCandidates().stream()
+                .sorted(Comparator.comparing(Candidate::getPersistedVotes).thenComparing(Candidate::getId).reversed())
+                .map(Candidate::getId).collect(Collectors.toList());
+
+        List<Long> paged = new ArrayList<>();
+        String after = null;
+        do {
+            CandidatePage page = this.candidateService.listCandidatesPage(null, null, CandidateSort.VOTES,
+                    Sort.Direction.DESC, after, null, 4);
+            page.getContent().forEach(row -> paged.add(row.getId()));
+            after = page.getNextCursor();
+        } while (after != null);
+        Assertions.assertEquals(expected, paged);
+    }
+
+    @Test
+    public void tallyLostAfterTheShardWriteIsRepaired() {
+        Candidate candidate = this.candidateService.listAllCandidates().get(0);
+        Party party = candidate.getParty();
+        long votes = tally(party).getVotes();
+        long candidates = tally(party).getCandidates();
+
+        // the vote reaches the shard, but the main database transaction with the tally change rolls back
+        new TransactionTemplate(this.transactionManager).executeWithoutResult(status -> {
+            this.candidateService.vote(candidate.getId());
+            status.setRollbackOnly();
+        });
+        Assertions.assertEquals(candidate.getVotes() + 1, this.candidateService.findById(candidate.getId()).getVotes());
+        Assertions.assertEquals(votes, tally(party).getVotes());
+
+        Assertions.assertEquals(1, this.shardedCandidateService.repairTallies());
+        Assertions.assertEquals(votes + 1, tally(party).getVotes());
+        Assertions.assertEquals(candidates, tally(party).getCandidates());
+        Assertions.assertEquals(0, this.shardedCandidateService.repairTallies());
+    }
+
+    private JdbcTemplate shard(int index) {
+        return new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:sharded-" + index, "sa", ""));
+    }
+
+    private PartyTally tally(Party party) {
+        return this.partyService.listTallies().stream().filter(t -> t.getParty().getId().equals(party.getId()))
+                .findFirst().get();
+    }
+}
@@ -0,0 +1,131 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteAccumulator;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:votes",
+        "candidates.votes.flush-interval-ms=5"
+})
+public class VoteAccumulatorTest {
+
+    private static final int THREADS = 32;
+    private static final int VOTES_PER_THREAD = 500;
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    CandidateRepository candidateRepository;
+
+    @Autowired
+    VoteAccumulator voteAccumulator;
+
+    @Test
+    public void parallelVotesAreNotLost() throws Exception {
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        Candidate first = candidates.get(0);
+        Candidate second = candidates.get(1);
+        int firstBefore = first.getVotes();
+        int secondBefore = second.getVotes();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Long id = t % 2 == 0 ? first.getId() : second.getId();
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < VOTES_PER_THREAD; i++) {
+                    this.candidateService.vote(id);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        int expected = THREADS / 2 * VOTES_PER_THREAD;
+        Assertions.assertEquals(firstBefore + expected, this.candidateService.findById(first.getId()).getVotes());
+
+        this.voteAccumulator.flush();
+        Assertions.assertEquals(0, this.voteAccumulator.pendingVotes(first.getId()));
+        Assertions.assertEquals(firstBefore + expected, this.candidateRepository.findById(first.getId()).get().getVotes());
+        Assertions.assertEquals(secondBefore + expected, this.candidateRepository.findById(second.getId()).get().getVotes());
+    }
+
+    @Test
+    public void editingCandidateKeepsPersistedVotes() {
+        Candidate candidate = this.candidateService.listAllCandidates().get(2);
+        this.candidateService.vote(candidate.getId());
+        this.voteAccumulator.flush();
+        int votes = this.candidateRepository.findById(candidate.getId()).get().getVotes();
+
+        this.candidateService.update(candidate.getId(), "Renamed", candidate.getBio(), candidate.getDateOfBirth(),
+                candidate.getGender(), candidate.getParty().getId());
+
+        Assertions.assertEquals(votes, this.candidateRepository.findById(candidate.getId()).get().getVotes());
+    }
+
+    @Test
+    public void slowLoadsDoNotHoldUpFlushes() throws Exception {
+        Candidate candidate = this.candidateService.listAllCandidates().get(3);
+        this.voteAccumulator.flush();
+        int before = this.candidateService.findById(candidate.getId()).getVotes();
+
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<Candidate> loaded = pool.submit(() -> this.voteAccumulator.load(() -> {
+            Candidate found = this.candidateRepository.findById(candidate.getId()).get();
+            if (loads.getAndIncrement() == 0) {
+                loading.countDown();
+                awaitQuietly(release);
+            }
+            return found;
+        }));
+        Assertions.assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        // the slow load holds no lock, so the vote and the flush go through while it runs
+        ExecutorService voter = Executors.newSingleThreadExecutor();
+        voter.submit(() -> {
+            this.candidateService.vote(candidate.getId());
+            return this.voteAccumulator.flush();
+        }).get(5, TimeUnit.SECONDS);
+        voter.shutdown();
+        Assertions.assertEquals(0, this.voteAccumulator.pendingVotes(candidate.getId()));
+        release.countDown();
+
+        // the first query is older than the flush, so the candidate is loaded again
+        Assertions.assertEquals(before + 1, loaded.get(5, TimeUnit.SECONDS).getVotes());
+        Assertions.assertTrue(loads.get() >= 2);
+        pool.shutdown();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
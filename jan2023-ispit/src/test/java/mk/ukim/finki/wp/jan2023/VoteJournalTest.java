@@ -0,0 +1,159 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.PartyTally;
+import mk.ukim.finki.wp.jan2023.repository.CandidateRepository;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.PartyService;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteAccumulator;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteJournal;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:journal",
+        "candidates.journal.directory=target/vote-journal-test",
+        "candidates.journal.segment-records=1000"
+})
+public class VoteJournalTest {
+
+    private static final Path DIRECTORY = Paths.get("target/vote-journal-test");
+    private static final Path SEGMENT_DIRECTORY = Paths.get("target/vote-journal-segments");
+    private static final int THREADS = 8;
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    CandidateRepository candidateRepository;
+
+    @Autowired
+    PartyService partyService;
+
+    @Autowired
+    VoteAccumulator voteAccumulator;
+
+    @Autowired
+    VoteJournal voteJournal;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @BeforeAll
+    public static void cleanJournal() throws IOException {
+        FileSystemUtils.deleteRecursively(DIRECTORY);
+        FileSystemUtils.deleteRecursively(SEGMENT_DIRECTORY);
+    }
+
+    @Test
+    public void replayRebuildsVotesAndTallies() throws Exception {
+        List<Candidate> candidates = this.candidateService.listAllCandidates();
+        Map<Long, Integer> expected = new HashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?>[] futures = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures[t] = pool.submit(() -> {
+                    for (int i = 0; i < 300; i++) {
+                        this.candidateService.vote(candidates.get((thread + i) % candidates.size()).getId());
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < 300; i++) {
+                expected.merge(candidates.get((t + i) % candidates.size()).getId(), 1, Integer::sum);
+            }
+        }
+        this.voteAccumulator.flush();
+
+        // 2400 records in segments of 1000 records
+        try (Stream<Path> files = Files.list(DIRECTORY)) {
+            Assertions.assertTrue(files.count() >= 3);
+        }
+
+        // lose the counts in the table, as after a crash before the flush, and rebuild them from the journal
+        this.jdbcTemplate.update("update candidate set votes = 0");
+        this.jdbcTemplate.update("update party_tally set votes = 0");
+        this.voteJournal.apply(this.voteJournal.replay());
+
+        for (Candidate candidate : this.candidateRepository.findAll()) {
+            Assertions.assertEquals(expected.getOrDefault(candidate.getId(), 0), candidate.getPersistedVotes());
+        }
+        for (PartyTally tally : this.partyService.listTallies()) {
+            long votes = this.candidateRepository.findAll().stream()
+                    .filter(c -> c.getParty().getId().equals(tally.getParty().getId()))
+                    .mapToLong(Candidate::getPersistedVotes).sum();
+            Assertions.assertEquals(votes, tally.getVotes());
+        }
+    }
+
+    /**
+     * Concurrent appends spread over several segments are all replayed, for the durable and the buffered journal.
+     * The timing of both against the candidate table is in VoteJournalBenchmark.
+     */
+    @Test
+    public void concurrentAppendsAreAllReplayed() throws Exception {
+        assertAppendsReplayed("durable", true, 400);
+        assertAppendsReplayed("buffered", false, 20_000);
+    }
+
+    private void assertAppendsReplayed(String name, boolean durable, int votes) throws Exception {
+        Path directory = SEGMENT_DIRECTORY.resolve(name);
+        VoteJournal journal = new VoteJournal(this.jdbcTemplate, this.transactionManager, directory.toString(), 1000, durable);
+        journal.afterSingletonsInstantiated();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?>[] futures = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                long thread = t;
+                futures[t] = pool.submit(() -> {
+                    for (int i = 0; i < votes / THREADS; i++) {
+                        journal.append(thread, thread);
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+            journal.close();
+        }
+
+        VoteJournal.VoteCounts counts = new VoteJournal(this.jdbcTemplate, this.transactionManager,
+                directory.toString(), 1000, durable).replay();
+        Assertions.assertEquals(votes, counts.total());
+        Assertions.assertEquals(THREADS, counts.size());
+        for (int t = 0; t < THREADS; t++) {
+            Assertions.assertEquals(votes / THREADS, counts.get(t));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package mk.ukim.finki.wp.jan2023;
+
+import mk.ukim.finki.wp.jan2023.model.Candidate;
+import mk.ukim.finki.wp.jan2023.model.exceptions.DuplicateVoteException;
+import mk.ukim.finki.wp.jan2023.model.exceptions.InvalidCandidateIdException;
+import mk.ukim.finki.wp.jan2023.service.CandidateService;
+import mk.ukim.finki.wp.jan2023.service.impl.VoteJournal;
+import mk.ukim.finki.wp.jan2023.service.impl.VoterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:voters")
+public class VoterRegistryTest {
+
+    @Autowired
+    CandidateService candidateService;
+
+    @Autowired
+    VoteJournal voteJournal;
+
+    @Autowired
+    VoterRegistry voterRegistry;
+
+    @AfterEach
+    public void logout() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void userCanVoteForCandidateOnlyOnce() {
+        Candidate first = this.candidateService.listAllCandidates().get(0);
+        Candidate second = this.candidateService.listAllCandidates().get(1);
+
+        login("ana");
+        Assertions.assertEquals(1, this.candidateService.vote(first.getId()).getVotes());
+        Assertions.assertThrows(DuplicateVoteException.class, () -> this.candidateService.vote(first.getId()));
+        Assertions.assertEquals(1, this.candidateService.vote(second.getId()).getVotes());
+        // a vote for a missing candidate is not remembered and leaves no set behind
+        long tableBytes = this.voterRegistry.tableBytes();
+        Assertions.assertThrows(InvalidCandidateIdException.class, () -> this.candidateService.vote(-1L));
+        Assertions.assertThrows(InvalidCandidateIdException.class, () -> this.candidateService.vote(-1L));
+        Assertions.assertEquals(tableBytes, this.voterRegistry.tableBytes());
+
+        login("marko");
+        Assertions.assertEquals(2, this.candidateService.vote(first.getId()).getVotes());
+    }
+
+    @Test
+    public void memoryPerMillionVotersIsBounded() {
+        VoterRegistry registry = new VoterRegistry(this.voteJournal, true);
+        for (long voter = 0; voter < 1_000_000; voter++) {
+            Assertions.assertTrue(registry.register(1L, VoteJournal.voterKey("voter" + voter)));
+        }
+        Assertions.assertFalse(registry.register(1L, VoteJournal.voterKey("voter42")));
+        Assertions.assertEquals(1_000_000, registry.voterCount());
+        Assertions.assertEquals(16L << 20, registry.tableBytes());
+
+        registry.unregister(1L, VoteJournal.voterKey("voter42"));
+        Assertions.assertTrue(registry.register(1L, VoteJournal.voterKey("voter42")));
+        for (long voter = 0; voter < 1_000_000; voter++) {
+            Assertions.assertFalse(registry.register(1L, VoteJournal.voterKey("voter" + voter)));
+        }
+    }
+
+    @Test
+    public void unregisteringTheLastVoterDropsTheSet() {
+        VoterRegistry registry = new VoterRegistry(this.voteJournal, true);
+        registry.register(1L, 7L);
+        registry.register(2L, 7L);
+        registry.register(2L, 8L);
+
+        registry.unregister(1L, 7L);
+        registry.unregister(2L, 7L);
+        Assertions.assertEquals(1, registry.voterCount());
+        Assertions.assertEquals(128, registry.tableBytes());
+
+        registry.unregister(2L, 8L);
+        Assertions.assertEquals(0, registry.tableBytes());
+        Assertions.assertTrue(registry.register(2L, 8L));
+    }
+
+    private static void login(String username) {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(username, "", AuthorityUtils.createAuthorityList("ROLE_ADMIN")));
+    }
+}
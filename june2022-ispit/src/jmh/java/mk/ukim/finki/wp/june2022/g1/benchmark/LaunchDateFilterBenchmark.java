@@ -0,0 +1,184 @@
+package mk.ukim.finki.wp.june2022.g1.benchmark;
+
+import mk.ukim.finki.wp.june2022.g1.June2022Group1Application;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import mk.ukim.finki.wp.june2022.g1.service.impl.LaunchDateIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the activeMoreThanDays filter, with the LaunchDateIndex against the database.
+ *
+ * Every trial boots the application without the web server and inserts 'servers' servers with launch dates
+ * spread evenly over the last ten years, then reloads the LaunchDateIndex. Run it with
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.class=LaunchDateFilterBenchmark [-Dbenchmark.sizes=1000000]
+ *       [-Dbenchmark.methods=indexCount|repositoryCount] [-Dbenchmark.quick=true]
+ *
+ * 'activeMoreThanDays' sets how many servers match: 3600 days matches about 1.4% of them, 3285 days 10%
+ * and 1825 days 50%. filter is VirtualServerService.filter, which loads the servers with
+ * VirtualServerRepository.findAllByLaunchDateBefore. indexIds and indexCount answer from the LaunchDateIndex,
+ * repositoryIds and repositoryCount ask the database for the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class LaunchDateFilterBenchmark {
+
+    private static final int DAYS = 3650;
+    private static final int BATCH_SIZE = 10000;
+
+    @Param({"1000000"})
+    public int servers;
+
+    @Param({"3600", "3285", "1825"})
+    public int activeMoreThanDays;
+
+    private ConfigurableApplicationContext context;
+    private VirtualServerService service;
+    private LaunchDateIndex launchDateIndex;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Setup(Level.Trial)
+    public void boot() {
+        this.context = new SpringApplicationBuilder(June2022Group1Application.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                // arguments, because they take precedence over application.properties
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.datasource.url=jdbc:h2:mem:launch-date-benchmark-" + this.servers + "-" + this.activeMoreThanDays);
+        this.service = this.context.getBean(VirtualServerService.class);
+        this.launchDateIndex = this.context.getBean(LaunchDateIndex.class);
+        this.entityManagerFactory = this.context.getBean(EntityManagerFactory.class);
+
+        JdbcTemplate jdbcTemplate = this.context.getBean(JdbcTemplate.class);
+        Random random = new Random(this.servers);
+        LocalDate today = LocalDate.now();
+        // ids far above the generated ones of the DataInitializer
+        long firstId = 1_000_000_000L;
+        List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < this.servers; i++) {
+            LocalDate launchDate = today.minusDays(random.nextInt(DAYS));
+            batch.add(new Object[]{firstId + i, "Server " + i, "10.0.0.1", Date.valueOf(launchDate)});
+            if (batch.size() == BATCH_SIZE || i == this.servers - 1) {
+                jdbcTemplate.batchUpdate("insert into virtual_server (id, instance_name, ip_address, launch_date, terminated) "
+                        + "values (?, ?, ?, ?, false)", batch);
+                batch.clear();
+            }
+        }
+        this.launchDateIndex.reload();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public List<VirtualServer> filter() {
+        return this.service.filter(null, this.activeMoreThanDays);
+    }
+
+    @Benchmark
+    public long[] indexIds() {
+        return this.launchDateIndex.findLaunchedBefore(LocalDate.now().minusDays(this.activeMoreThanDays));
+    }
+
+    @Benchmark
+    public List<Long> repositoryIds() {
+        EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createQuery("select v.id from VirtualServer v where v.launchDate < :launch order by v.id", Long.class)
+                    .setParameter("launch", LocalDate.now().minusDays(this.activeMoreThanDays))
+                    .getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public long indexCount() {
+        return this.service.count(null, this.activeMoreThanDays);
+    }
+
+    @Benchmark
+    public long repositoryCount() {
+        EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createQuery("select count(v) from VirtualServer v where v.launchDate < :launch", Long.class)
+                    .setParameter("launch", LocalDate.now().minusDays(this.activeMoreThanDays))
+                    .getSingleResult();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] sizes = System.getProperty("benchmark.sizes", "1000000").split(",");
+        String[] threads = System.getProperty("benchmark.threads", "1").split(",");
+        Path output = Paths.get(System.getProperty("benchmark.output", "target/jmh-result.json"));
+        boolean quick = Boolean.getBoolean("benchmark.quick");
+        String methods = System.getProperty("benchmark.methods", ".*");
+
+        List<RunResult> results = new ArrayList<>();
+        for (String count : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(LaunchDateFilterBenchmark.class.getName() + "\\.(" + methods + ")$")
+                    .param("servers", sizes)
+                    .threads(Integer.parseInt(count.trim()));
+            if (quick) {
+                options.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(1).measurementTime(TimeValue.seconds(1));
+            }
+            results.addAll(new Runner(options.build()).run());
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output), true, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+}
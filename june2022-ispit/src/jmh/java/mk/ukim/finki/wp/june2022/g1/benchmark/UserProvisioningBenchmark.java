@@ -0,0 +1,118 @@
+package mk.ukim.finki.wp.june2022.g1.benchmark;
+
+import mk.ukim.finki.wp.june2022.g1.June2022Group1Application;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to provision 'users' users with UserService.createAll, with 'workers' threads encoding the passwords
+ * (0 is one thread for every processor). The encoder is the BCrypt encoder of the application, so the time is
+ * mostly hashing. Run it with
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.class=UserProvisioningBenchmark [-Dbenchmark.users=10000]
+ *       [-Dbenchmark.workers=1,4,0] [-Dbenchmark.quick=true]
+ *
+ * Every trial boots the application without the web server, and every measured invocation creates a new set
+ * of users, so a measurement is the time to create all of them at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx4g"})
+public class UserProvisioningBenchmark {
+
+    @Param({"10000"})
+    public int users;
+
+    @Param({"1", "4", "0"})
+    public int workers;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void boot() {
+        this.context = new SpringApplicationBuilder(June2022Group1Application.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                // arguments, because they take precedence over application.properties
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--users.hashing.threads=" + this.workers,
+                        "--spring.datasource.url=jdbc:h2:mem:provisioning-benchmark-" + this.users + "-" + this.workers);
+        this.userService = this.context.getBean(UserService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.context.close();
+    }
+
+    @Benchmark
+    public Collection<User> createAll() {
+        int round = this.round++;
+        List<User> users = new ArrayList<>(this.users);
+        for (int i = 0; i < this.users; i++) {
+            users.add(new User("provisioned-" + round + "-" + i, "password-" + i, "ROLE_USER"));
+        }
+        return this.userService.createAll(users);
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] users = System.getProperty("benchmark.users", "10000").split(",");
+        String[] workers = System.getProperty("benchmark.workers", "1,4,0").split(",");
+        Path output = Paths.get(System.getProperty("benchmark.output", "target/jmh-result.json"));
+        boolean quick = Boolean.getBoolean("benchmark.quick");
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(UserProvisioningBenchmark.class.getName() + "\\.createAll$")
+                .param("users", users)
+                .param("workers", workers);
+        if (quick) {
+            options.warmupIterations(0).measurementIterations(1);
+        }
+        List<RunResult> results = new ArrayList<>(new Runner(options.build()).run());
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output), true, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+}
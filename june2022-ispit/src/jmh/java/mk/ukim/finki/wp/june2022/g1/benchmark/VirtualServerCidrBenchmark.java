@@ -0,0 +1,177 @@
+package mk.ukim.finki.wp.june2022.g1.benchmark;
+
+import mk.ukim.finki.wp.june2022.g1.June2022Group1Application;
+import mk.ukim.finki.wp.june2022.g1.model.Ipv4Range;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Latency of finding the servers in a /24 block, with the indexed numeric address against the string address.
+ *
+ * Every trial boots the application without the web server and inserts 'servers' servers with addresses
+ * 16 apart from 10.0.0.0, so every /24 block holds 16 of them. Run it with
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.class=VirtualServerCidrBenchmark [-Dbenchmark.sizes=1000000]
+ *       [-Dbenchmark.quick=true]
+ *
+ * cidrRangeScan is VirtualServerService.filterByCidr, a range scan of the 'ip_number' index. stringPrefixLike asks
+ * the database for the addresses that start with the first three octets, which only works for blocks that end
+ * on an octet and reads every row. loadAllAndMatch is what was possible before: load all servers and match
+ * the addresses in Java.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class VirtualServerCidrBenchmark {
+
+    private static final long FIRST_ADDRESS = Ipv4Range.toNumber("10.0.0.0");
+    private static final int BATCH_SIZE = 10000;
+
+    @Param({"1000000"})
+    public int servers;
+
+    private ConfigurableApplicationContext context;
+    private VirtualServerService service;
+    private EntityManagerFactory entityManagerFactory;
+
+    @Setup(Level.Trial)
+    public void boot() {
+        this.context = new SpringApplicationBuilder(June2022Group1Application.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                // arguments, because they take precedence over application.properties
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.datasource.url=jdbc:h2:mem:cidr-benchmark-" + this.servers);
+        this.service = this.context.getBean(VirtualServerService.class);
+        this.entityManagerFactory = this.context.getBean(EntityManagerFactory.class);
+
+        JdbcTemplate jdbcTemplate = this.context.getBean(JdbcTemplate.class);
+        // ids far above the generated ones of the DataInitializer
+        long firstId = 1_000_000_000L;
+        List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < this.servers; i++) {
+            long number = FIRST_ADDRESS + i * 16L;
+            batch.add(new Object[]{firstId + i, "Server " + i, address(number), number, Date.valueOf(LocalDate.of(2020, 1, 1))});
+            if (batch.size() == BATCH_SIZE || i == this.servers - 1) {
+                jdbcTemplate.batchUpdate("insert into virtual_server (id, instance_name, ip_address, ip_number, launch_date, terminated) "
+                        + "values (?, ?, ?, ?, ?, false)", batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        this.context.close();
+    }
+
+    private static String address(long number) {
+        return (number >>> 24) + "." + (number >>> 16 & 255) + "." + (number >>> 8 & 255) + "." + (number & 255);
+    }
+
+    /**
+     * @return The first address of a random /24 block that holds servers
+     */
+    private long randomBlock() {
+        long blocks = this.servers / 16;
+        return FIRST_ADDRESS + ThreadLocalRandom.current().nextLong(blocks) * 256;
+    }
+
+    @Benchmark
+    public List<VirtualServer> cidrRangeScan() {
+        return this.service.filterByCidr(address(randomBlock()) + "/24");
+    }
+
+    @Benchmark
+    public List<VirtualServer> stringPrefixLike() {
+        String block = address(randomBlock());
+        EntityManager entityManager = this.entityManagerFactory.createEntityManager();
+        try {
+            return entityManager.createQuery("select v from VirtualServer v where v.ipAddress like :prefix", VirtualServer.class)
+                    .setParameter("prefix", block.substring(0, block.lastIndexOf('.') + 1) + "%")
+                    .getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    @Benchmark
+    public List<VirtualServer> loadAllAndMatch() {
+        String block = address(randomBlock());
+        String prefix = block.substring(0, block.lastIndexOf('.') + 1);
+        return this.service.listAll().stream()
+                .filter(virtualServer -> virtualServer.getIpAddress().startsWith(prefix))
+                .collect(Collectors.toList());
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String[] sizes = System.getProperty("benchmark.sizes", "1000000").split(",");
+        String[] threads = System.getProperty("benchmark.threads", "1").split(",");
+        Path output = Paths.get(System.getProperty("benchmark.output", "target/jmh-result.json"));
+        boolean quick = Boolean.getBoolean("benchmark.quick");
+        String methods = System.getProperty("benchmark.methods", ".*");
+
+        List<RunResult> results = new ArrayList<>();
+        for (String count : threads) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(VirtualServerCidrBenchmark.class.getName() + "\\.(" + methods + ")$")
+                    .param("servers", sizes)
+                    .threads(Integer.parseInt(count.trim()));
+            if (quick) {
+                options.warmupIterations(1).warmupTime(TimeValue.seconds(1))
+                        .measurementIterations(1).measurementTime(TimeValue.seconds(1));
+            }
+            results.addAll(new Runner(options.build()).run());
+        }
+
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (PrintStream out = new PrintStream(Files.newOutputStream(output), true, "UTF-8")) {
+            ResultFormatFactory.getInstance(ResultFormatType.JSON, out).writeOut(results);
+        }
+        System.out.println("Results written to " + output.toAbsolutePath());
+    }
+}
@@ -0,0 +1,300 @@
+package mk.ukim.finki.wp.june2022.g1.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import mk.ukim.finki.wp.june2022.g1.June2022Group1Application;
+import mk.ukim.finki.wp.june2022.g1.model.Ipv4Range;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A read/write workload over the /VirtualServers endpoints against a synthetic fleet, with throughput and latency
+ * percentiles for every kind of request.
+ *
+ * It boots the application with the 'fleet' profile on a random port, with 'benchmark.sizes' servers and
+ * 'benchmark.users' users, and runs 'benchmark.threads' clients that each log in as the sysadmin and send requests
+ * for 'benchmark.duration' after a warmup of a fifth of it. Run it with
+ *
+ *   mvn -Pbenchmark test-compile exec:exec -Dbenchmark.class=VirtualServerWorkload [-Dbenchmark.sizes=500000]
+ *       [-Dbenchmark.users=10000] [-Dbenchmark.threads=4] [-Dbenchmark.duration=PT60S]
+ *       [-Dbenchmark.mix=owner:30,launched:10,cidr:20,count:15,statistics:10,create:10,terminate:5]
+ *
+ * The kinds of request are:
+ *   owner       GET  /VirtualServers?ownerId=             the servers of a random fleet user
+ *   launched    GET  /VirtualServers?activeMoreThanDays=  the oldest 1% of the fleet
+ *   cidr        GET  /VirtualServers?cidr=                a random /24 block of 'fleet.ip-range'
+ *   count       GET  /VirtualServers/count                a random owner and date
+ *   statistics  GET  /VirtualServers/statistics           a random owner
+ *   create      POST /VirtualServers                      a new server with one to three owners
+ *   terminate   GET  /VirtualServers/{id}/terminate       a random fleet server
+ * The redirects after create and terminate are not followed, so their latency is the write alone.
+ */
+public class VirtualServerWorkload {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String url;
+    private final int users;
+    private final int servers;
+    private final long firstId;
+    private final int launchDays;
+    private final Ipv4Range range;
+
+    private VirtualServerWorkload(String url, Environment environment) {
+        this.url = url;
+        this.users = environment.getRequiredProperty("fleet.users", Integer.class);
+        this.servers = environment.getRequiredProperty("fleet.servers", Integer.class);
+        this.firstId = environment.getRequiredProperty("fleet.first-id", Long.class);
+        LocalDate today = LocalDate.now();
+        Period period = Period.parse(environment.getRequiredProperty("fleet.launch-period"));
+        this.launchDays = (int) ChronoUnit.DAYS.between(today.minus(period), today);
+        this.range = Ipv4Range.parse(environment.getRequiredProperty("fleet.ip-range"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int servers = Integer.parseInt(System.getProperty("benchmark.sizes", "500000").split(",")[0].trim());
+        int users = Integer.parseInt(System.getProperty("benchmark.users", "10000").split(",")[0].trim());
+        int clients = Integer.parseInt(System.getProperty("benchmark.threads", "4").split(",")[0].trim());
+        boolean quick = Boolean.getBoolean("benchmark.quick");
+        Duration duration = quick ? Duration.ofSeconds(10) : Duration.parse(System.getProperty("benchmark.duration", "PT60S"));
+        Map<String, Double> mix = parseMix(System.getProperty("benchmark.mix",
+                "owner:30,launched:10,cidr:20,count:15,statistics:10,create:10,terminate:5"));
+        Path output = Paths.get(System.getProperty("benchmark.output", "target/workload-result.json"));
+
+        long boot = System.nanoTime();
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(June2022Group1Application.class)
+                .profiles("fleet")
+                .logStartupInfo(false)
+                .run("--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--logging.level.mk.ukim.finki.wp.june2022.g1.config.FleetGenerator=INFO",
+                        "--server.port=0",
+                        "--fleet.servers=" + servers,
+                        "--fleet.users=" + users);
+        System.out.printf("Started with %d servers and %d users in %d ms%n", servers, users, (System.nanoTime() - boot) / 1_000_000);
+        try {
+            String port = context.getEnvironment().getRequiredProperty("local.server.port");
+            VirtualServerWorkload workload = new VirtualServerWorkload("http://localhost:" + port, context.getEnvironment());
+
+            workload.run(clients, mix, duration.dividedBy(5));
+            Map<String, Object> results = workload.run(clients, mix, duration);
+            print(results);
+
+            Files.createDirectories(output.toAbsolutePath().getParent());
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(output.toFile(), results);
+            System.out.println("Results written to " + output.toAbsolutePath());
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Runs the clients for the given time.
+     *
+     * @return The clients, the seconds, and for every kind of request the count, errors, throughput and percentiles
+     */
+    private Map<String, Object> run(int clients, Map<String, Double> mix, Duration duration) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(clients);
+        long end = System.nanoTime() + duration.toNanos();
+        List<Future<Map<String, Recorder>>> futures = new ArrayList<>();
+        for (int client = 0; client < clients; client++) {
+            long seed = client;
+            futures.add(executor.submit(() -> client(mix, end, new Random(seed))));
+        }
+        Map<String, Recorder> merged = new LinkedHashMap<>();
+        for (Future<Map<String, Recorder>> future : futures) {
+            future.get().forEach((kind, recorder) -> merged.computeIfAbsent(kind, k -> new Recorder()).addAll(recorder));
+        }
+        executor.shutdown();
+
+        double seconds = duration.toNanos() / 1e9;
+        Map<String, Object> requests = new LinkedHashMap<>();
+        Recorder all = new Recorder();
+        for (String kind : mix.keySet()) {
+            Recorder recorder = merged.getOrDefault(kind, new Recorder());
+            requests.put(kind, recorder.summary(seconds));
+            all.addAll(recorder);
+        }
+        requests.put("all", all.summary(seconds));
+
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("clients", clients);
+        results.put("seconds", seconds);
+        results.put("requests", requests);
+        return results;
+    }
+
+    private Map<String, Recorder> client(Map<String, Double> mix, long end, Random random) throws IOException, InterruptedException {
+        HttpClient client = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager())
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+        send(client, HttpRequest.newBuilder(URI.create(this.url + "/login"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("username=user0&password=pass0")).build());
+
+        List<String> kinds = new ArrayList<>(mix.keySet());
+        double[] cumulative = new double[kinds.size()];
+        double sum = 0;
+        for (int i = 0; i < kinds.size(); i++) {
+            sum += mix.get(kinds.get(i));
+            cumulative[i] = sum;
+        }
+
+        Map<String, Recorder> recorders = new LinkedHashMap<>();
+        while (System.nanoTime() < end) {
+            int at = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            String kind = kinds.get(Math.min(kinds.size() - 1, at < 0 ? -at - 1 : at));
+            HttpRequest request = request(kind, random);
+            long start = System.nanoTime();
+            int status = send(client, request);
+            recorders.computeIfAbsent(kind, k -> new Recorder()).add(System.nanoTime() - start, status >= 400);
+        }
+        return recorders;
+    }
+
+    private HttpRequest request(String kind, Random random) {
+        long owner = this.firstId + random.nextInt(this.users);
+        switch (kind) {
+            case "owner":
+                return get("/VirtualServers?ownerId=" + owner);
+            case "launched":
+                return get("/VirtualServers?activeMoreThanDays=" + (this.launchDays - random.nextInt(Math.max(1, this.launchDays / 100))));
+            case "cidr":
+                long block = this.range.getFirst() + (long) (random.nextDouble() * this.range.size()) / 256 * 256;
+                return get("/VirtualServers?cidr=" + encode(Ipv4Range.toAddress(block) + "/24"));
+            case "count":
+                return get("/VirtualServers/count?ownerId=" + owner + "&activeMoreThanDays=" + random.nextInt(this.launchDays + 1));
+            case "statistics":
+                return get("/VirtualServers/statistics?ownerId=" + owner);
+            case "create":
+                long address = this.range.getFirst() + (long) (random.nextDouble() * this.range.size());
+                StringBuilder form = new StringBuilder()
+                        .append("instanceName=workload-").append(random.nextInt(Integer.MAX_VALUE))
+                        .append("&ipAddress=").append(Ipv4Range.toAddress(address))
+                        .append("&osType=").append(OSType.values()[random.nextInt(OSType.values().length)])
+                        .append("&launchDate=").append(LocalDate.now().minusDays(random.nextInt(this.launchDays + 1)));
+                for (int i = 0, owners = 1 + random.nextInt(3); i < owners; i++) {
+                    form.append("&owners=").append(this.firstId + random.nextInt(this.users));
+                }
+                return HttpRequest.newBuilder(URI.create(this.url + "/VirtualServers"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(form.toString())).build();
+            case "terminate":
+                return get("/VirtualServers/" + (this.firstId + random.nextInt(this.servers)) + "/terminate");
+            default:
+                throw new IllegalArgumentException("Unknown request kind '" + kind + "'");
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(this.url + path)).GET().build();
+    }
+
+    private static int send(HttpClient client, HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, Double> parseMix(String text) {
+        Map<String, Double> mix = new LinkedHashMap<>();
+        for (String entry : text.split(",")) {
+            String[] parts = entry.trim().split(":");
+            mix.put(parts[0].trim(), Double.parseDouble(parts[1].trim()));
+        }
+        return mix;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(Map<String, Object> results) {
+        System.out.printf("%n%d clients, %.0f s%n", (Integer) results.get("clients"), (Double) results.get("seconds"));
+        System.out.printf("%-11s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+                "request", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        ((Map<String, Map<String, Object>>) results.get("requests")).forEach((kind, summary) ->
+                System.out.printf("%-11s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", kind,
+                        summary.get("count"), summary.get("errors"), summary.get("throughput"),
+                        summary.get("p50"), summary.get("p90"), summary.get("p99"), summary.get("p99.9"), summary.get("max")));
+    }
+
+    /**
+     * The latencies of one kind of request, in nanoseconds.
+     */
+    private static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int size;
+        private int errors;
+
+        private void add(long latency, boolean error) {
+            if (this.size == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.size * 2);
+            }
+            this.latencies[this.size++] = latency;
+            if (error) {
+                this.errors++;
+            }
+        }
+
+        private void addAll(Recorder other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.latencies[i], false);
+            }
+            this.errors += other.errors;
+        }
+
+        /**
+         * @return The count, errors, requests per second and the latency percentiles in milliseconds
+         */
+        private Map<String, Object> summary(double seconds) {
+            long[] sorted = Arrays.copyOf(this.latencies, this.size);
+            Arrays.sort(sorted);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", this.size);
+            summary.put("errors", this.errors);
+            summary.put("throughput", this.size / seconds);
+            for (double percentile : PERCENTILES) {
+                String name = "p" + (percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile));
+                summary.put(name, millis(sorted, percentile));
+            }
+            summary.put("max", sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1e6);
+            return summary;
+        }
+
+        private static double millis(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int at = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, at))] / 1e6;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -38,10 +39,12 @@ public class DataInitializer {
 
     @PostConstruct
     public void initData() {
-        this.userService.create("user" + 0, "pass" + 0, "ROLE_SYSADMIN");
+        List<User> newUsers = new ArrayList<>();
+        newUsers.add(new User("user" + 0, "pass" + 0, "ROLE_SYSADMIN"));
         for (int i = 1; i < 6; i++) {
-            this.userService.create("user" + i, "pass" + i, "ROLE_USER");
+            newUsers.add(new User("user" + i, "pass" + i, "ROLE_USER"));
         }
+        this.userService.createAll(newUsers);
 
         List<User> users = this.userService.listAll();
         for (int i = 1; i < 11; i++) {
@@ -0,0 +1,257 @@
+package mk.ukim.finki.wp.june2022.g1.config;
+
+import mk.ukim.finki.wp.june2022.g1.model.Ipv4Range;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.service.impl.FleetStatisticsIndex;
+import mk.ukim.finki.wp.june2022.g1.service.impl.LaunchDateIndex;
+import mk.ukim.finki.wp.june2022.g1.service.impl.UserDetailsCache;
+import mk.ukim.finki.wp.june2022.g1.service.impl.VirtualServerOwnerIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Fills the database with a synthetic fleet when the 'fleet' profile is active, after the DataInitializer.
+ *
+ * The users and servers are written with JDBC batch inserts and not through the services, so half a million servers
+ * load in seconds. Their ids start at 'fleet.first-id', far above the ids that the database generates, and the
+ * in-memory indexes are reloaded at the end. All settings are in application-fleet.properties:
+ *
+ * 'fleet.owners-per-server' and 'fleet.os-mix' are weighted values, e.g. '1:60,2:30,3:10'. The owners of a server
+ * are picked with a Zipf distribution with exponent 'fleet.owner-skew', 0 picks every user equally often.
+ * The addresses are random in the block 'fleet.ip-range'. The launch dates are in the last 'fleet.launch-period',
+ * UNIFORM spreads them evenly and GROWTH launches more servers the closer the date is to today.
+ */
+@Component
+@Profile("fleet")
+@DependsOn("dataInitializer")
+public class FleetGenerator {
+
+    /**
+     * How the launch dates are spread over 'fleet.launch-period'.
+     */
+    public enum LaunchDistribution {
+        UNIFORM,
+        GROWTH
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(FleetGenerator.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PasswordEncoder passwordEncoder;
+    private final VirtualServerOwnerIndex ownerIndex;
+    private final FleetStatisticsIndex statistics;
+    private final LaunchDateIndex launchDateIndex;
+    private final UserDetailsCache userDetailsCache;
+
+    @Value("${fleet.users:1000}")
+    private int users;
+
+    @Value("${fleet.servers:500000}")
+    private int servers;
+
+    @Value("${fleet.owners-per-server:1:60,2:30,3:10}")
+    private String ownersPerServer;
+
+    @Value("${fleet.owner-skew:0.8}")
+    private double ownerSkew;
+
+    @Value("${fleet.ip-range:10.0.0.0/8}")
+    private String ipRange;
+
+    @Value("${fleet.launch-period:P10Y}")
+    private Period launchPeriod;
+
+    @Value("${fleet.launch-distribution:GROWTH}")
+    private LaunchDistribution launchDistribution;
+
+    @Value("${fleet.os-mix:UBUNTU:50,DEBIAN:30,WINDOWS:20}")
+    private String osMix;
+
+    @Value("${fleet.terminated-share:0.1}")
+    private double terminatedShare;
+
+    @Value("${fleet.password:pass}")
+    private String password;
+
+    @Value("${fleet.first-id:1000000000}")
+    private long firstId;
+
+    @Value("${fleet.batch-size:10000}")
+    private int batchSize;
+
+    @Value("${fleet.seed:42}")
+    private long seed;
+
+    public FleetGenerator(JdbcTemplate jdbcTemplate, PasswordEncoder passwordEncoder, VirtualServerOwnerIndex ownerIndex,
+                          FleetStatisticsIndex statistics, LaunchDateIndex launchDateIndex, UserDetailsCache userDetailsCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.passwordEncoder = passwordEncoder;
+        this.ownerIndex = ownerIndex;
+        this.statistics = statistics;
+        this.launchDateIndex = launchDateIndex;
+        this.userDetailsCache = userDetailsCache;
+    }
+
+    @PostConstruct
+    public void generate() {
+        long start = System.nanoTime();
+        Random random = new Random(this.seed);
+        generateUsers();
+        long links = generateServers(random);
+        long written = System.nanoTime();
+
+        this.ownerIndex.reload();
+        this.statistics.reload();
+        this.launchDateIndex.reload();
+        this.userDetailsCache.clear();
+        log.info("Generated {} users, {} servers and {} owner links in {} ms, reloaded the indexes in {} ms",
+                this.users, this.servers, links, (written - start) / 1_000_000, (System.nanoTime() - written) / 1_000_000);
+    }
+
+    private void generateUsers() {
+        // every user has the same password, so it is encoded once
+        String encoded = this.passwordEncoder.encode(this.password);
+        List<Object[]> batch = new ArrayList<>(this.batchSize);
+        for (int i = 0; i < this.users; i++) {
+            batch.add(new Object[]{this.firstId + i, "fleet-user-" + i, encoded, "ROLE_USER"});
+            if (batch.size() == this.batchSize || i == this.users - 1) {
+                this.jdbcTemplate.batchUpdate("insert into user (id, username, password, role) values (?, ?, ?, ?)", batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The number of owner links
+     */
+    private long generateServers(Random random) {
+        Weighted<Integer> ownerCounts = Weighted.parse(this.ownersPerServer, Integer::valueOf);
+        Weighted<OSType> osTypes = Weighted.parse(this.osMix, OSType::valueOf);
+        double[] popularity = zipf(this.users, this.ownerSkew);
+        Ipv4Range range = Ipv4Range.parse(this.ipRange);
+        LocalDate today = LocalDate.now();
+        int days = (int) ChronoUnit.DAYS.between(today.minus(this.launchPeriod), today);
+
+        long links = 0;
+        List<Object[]> servers = new ArrayList<>(this.batchSize);
+        List<Object[]> owners = new ArrayList<>(this.batchSize * 2);
+        for (int i = 0; i < this.servers; i++) {
+            long id = this.firstId + i;
+            long address = range.getFirst() + (long) (random.nextDouble() * range.size());
+            double position = this.launchDistribution == LaunchDistribution.GROWTH
+                    ? Math.sqrt(random.nextDouble()) : random.nextDouble();
+            LocalDate launchDate = today.minusDays(days - Math.min(days, (int) (position * (days + 1))));
+            servers.add(new Object[]{id, "fleet-" + i, Ipv4Range.toAddress(address), address,
+                    Date.valueOf(launchDate), osTypes.pick(random).name(), random.nextDouble() < this.terminatedShare});
+
+            int count = Math.min(this.users, ownerCounts.pick(random));
+            long[] picked = new long[count];
+            for (int owner = 0; owner < count; owner++) {
+                long user;
+                do {
+                    user = this.firstId + pick(popularity, random);
+                } while (contains(picked, owner, user));
+                picked[owner] = user;
+                owners.add(new Object[]{id, user});
+            }
+            links += count;
+
+            if (servers.size() == this.batchSize || i == this.servers - 1) {
+                this.jdbcTemplate.batchUpdate("insert into virtual_server "
+                        + "(id, instance_name, ip_address, ip_number, launch_date, ostype, terminated) "
+                        + "values (?, ?, ?, ?, ?, ?, ?)", servers);
+                this.jdbcTemplate.batchUpdate("insert into virtual_server_owners (virtual_server_id, owners_id) values (?, ?)", owners);
+                servers.clear();
+                owners.clear();
+            }
+        }
+        return links;
+    }
+
+    /**
+     * @return The cumulative probabilities of a Zipf distribution over n values, uniform when the exponent is 0
+     */
+    private static double[] zipf(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+        return cumulative;
+    }
+
+    /**
+     * @return The first index whose cumulative probability is not below a random number
+     */
+    private static int pick(double[] cumulative, Random random) {
+        int at = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(cumulative.length - 1, at < 0 ? -at - 1 : at);
+    }
+
+    private static boolean contains(long[] values, int size, long value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Values with weights, parsed from e.g. 'UBUNTU:50,DEBIAN:30,WINDOWS:20'.
+     */
+    private static final class Weighted<T> {
+        private final List<T> values;
+        private final double[] cumulative;
+
+        private Weighted(List<T> values, double[] cumulative) {
+            this.values = values;
+            this.cumulative = cumulative;
+        }
+
+        private static <T> Weighted<T> parse(String text, Function<String, T> parser) {
+            String[] entries = text.split(",");
+            List<T> values = new ArrayList<>(entries.length);
+            double[] cumulative = new double[entries.length];
+            double sum = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] entry = entries[i].trim().split(":");
+                if (entry.length != 2) {
+                    throw new IllegalArgumentException("Expected value:weight in '" + text + "'");
+                }
+                values.add(parser.apply(entry[0].trim()));
+                sum += Double.parseDouble(entry[1].trim());
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < cumulative.length; i++) {
+                cumulative[i] /= sum;
+            }
+            return new Weighted<>(values, cumulative);
+        }
+
+        private T pick(Random random) {
+            return this.values.get(FleetGenerator.pick(this.cumulative, random));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package mk.ukim.finki.wp.june2022.g1.model;
+
+
+import org.hibernate.annotations.BatchSize;
+
+import javax.persistence.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A terminated virtual server that the compaction job moved out of the 'virtual_server' table, with its owner links.
+ * It keeps the id it had as a VirtualServer, and the ids are never given out again.
+ */
+@Entity
+@Table(indexes = {
+        @Index(name = "archived_virtual_server_ip_number_idx", columnList = "ip_number"),
+        @Index(name = "archived_virtual_server_launch_date_idx", columnList = "launchDate")
+})
+public class ArchivedVirtualServer {
+
+    public ArchivedVirtualServer() {
+    }
+
+    @Id
+    private Long id;
+
+    private LocalDate launchDate;
+
+    private String instanceName;
+
+    private String ipAddress;
+
+    @Column(name = "ip_number")
+    private Long ipNumber;
+
+    @Enumerated(EnumType.STRING)
+    private OSType OSType;
+
+    @ManyToMany
+    @JoinTable(name = "archived_virtual_server_owners",
+            joinColumns = @JoinColumn(name = "archived_virtual_server_id"),
+            inverseJoinColumns = @JoinColumn(name = "owners_id"))
+    @BatchSize(size = 100)
+    private List<User> owners;
+
+    private Instant archived;
+
+    /**
+     * @return A terminated VirtualServer with the same values, which is not managed and is never saved
+     */
+    public VirtualServer toVirtualServer() {
+        VirtualServer virtualServer = new VirtualServer(instanceName, ipAddress, OSType,
+                owners == null ? new ArrayList<>() : new ArrayList<>(owners), launchDate);
+        virtualServer.setId(id);
+        virtualServer.setTerminated(true);
+        virtualServer.setArchived(true);
+        return virtualServer;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public LocalDate getLaunchDate() {
+        return launchDate;
+    }
+
+    public String getInstanceName() {
+        return instanceName;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public Long getIpNumber() {
+        return ipNumber;
+    }
+
+    public mk.ukim.finki.wp.june2022.g1.model.OSType getOSType() {
+        return OSType;
+    }
+
+    public List<User> getOwners() {
+        return owners;
+    }
+
+    public Instant getArchived() {
+        return archived;
+    }
+}
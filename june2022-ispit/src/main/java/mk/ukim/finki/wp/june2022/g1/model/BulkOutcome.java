@@ -0,0 +1,11 @@
+package mk.ukim.finki.wp.june2022.g1.model;
+
+/**
+ * What a bulk operation did with one of the requested virtual servers.
+ */
+public enum BulkOutcome {
+    TERMINATED,
+    ALREADY_TERMINATED,
+    DELETED,
+    NOT_FOUND
+}
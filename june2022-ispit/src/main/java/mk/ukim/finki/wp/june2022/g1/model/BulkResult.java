@@ -0,0 +1,30 @@
+package mk.ukim.finki.wp.june2022.g1.model;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a bulk terminate or delete for every requested id, in the order of the request.
+ */
+public class BulkResult {
+
+    private final Map<Long, BulkOutcome> results = new LinkedHashMap<>();
+
+    public void add(Long id, BulkOutcome outcome) {
+        this.results.put(id, outcome);
+    }
+
+    public Map<Long, BulkOutcome> getResults() {
+        return results;
+    }
+
+    /**
+     * @return How many ids had each outcome
+     */
+    public Map<BulkOutcome, Long> getCounts() {
+        Map<BulkOutcome, Long> counts = new EnumMap<>(BulkOutcome.class);
+        this.results.values().forEach(outcome -> counts.merge(outcome, 1L, Long::sum));
+        return counts;
+    }
+}
@@ -0,0 +1,65 @@
+package mk.ukim.finki.wp.june2022.g1.model;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The number of virtual servers for every OS type, split into active and terminated servers.
+ */
+public class FleetStatistics {
+
+    /**
+     * Number of counts, an active and a terminated count for every OS type and for the servers without one.
+     */
+    public static final int SLOTS = 2 * (OSType.values().length + 1);
+
+    private final long[] counts;
+
+    public FleetStatistics(long[] counts) {
+        this.counts = counts;
+    }
+
+    /**
+     * @return The position of the count of the servers with the given OS type and state
+     */
+    public static int slot(OSType osType, Boolean terminated) {
+        int type = osType == null ? OSType.values().length : osType.ordinal();
+        return 2 * type + (Boolean.TRUE.equals(terminated) ? 1 : 0);
+    }
+
+    public long getCount(OSType osType, boolean terminated) {
+        return this.counts[slot(osType, terminated)];
+    }
+
+    public long getActive() {
+        return sum(0);
+    }
+
+    public long getTerminated() {
+        return sum(1);
+    }
+
+    public long getTotal() {
+        return getActive() + getTerminated();
+    }
+
+    public Map<OSType, Map<String, Long>> getByOsType() {
+        Map<OSType, Map<String, Long>> byOsType = new EnumMap<>(OSType.class);
+        for (OSType osType : OSType.values()) {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            counts.put("active", getCount(osType, false));
+            counts.put("terminated", getCount(osType, true));
+            byOsType.put(osType, counts);
+        }
+        return byOsType;
+    }
+
+    private long sum(int state) {
+        long sum = 0;
+        for (int i = state; i < this.counts.length; i += 2) {
+            sum += this.counts[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,99 @@
+package mk.ukim.finki.wp.june2022.g1.model;
+
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidCidrException;
+
+/**
+ * A CIDR block of IPv4 addresses, e.g. '194.149.136.0/24'. The addresses are unsigned 32-bit numbers kept in a long,
+ * the same as VirtualServer.ipNumber, so the block is the range of numbers from 'first' to 'last'.
+ */
+public class Ipv4Range {
+
+    private final long first;
+    private final long last;
+
+    private Ipv4Range(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * @throws InvalidCidrException when the text is not an IPv4 address followed by '/' and a prefix length from 0 to 32
+     */
+    public static Ipv4Range parse(String cidr) {
+        int slash = cidr.indexOf('/');
+        Long address = toNumber(slash < 0 ? cidr : cidr.substring(0, slash));
+        String prefixText = slash < 0 ? "32" : cidr.substring(slash + 1);
+        if (address == null || !isNumber(prefixText, 2)) {
+            throw new InvalidCidrException();
+        }
+        int prefix = Integer.parseInt(prefixText);
+        if (prefix > 32) {
+            throw new InvalidCidrException();
+        }
+        long mask = (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+        long first = address & mask;
+        return new Ipv4Range(first, first | (~mask & 0xFFFFFFFFL));
+    }
+
+    /**
+     * @return The address as an unsigned 32-bit number, or null when the text is not a dotted IPv4 address
+     */
+    public static Long toNumber(String ipAddress) {
+        if (ipAddress == null) {
+            return null;
+        }
+        String[] octets = ipAddress.trim().split("\\.", -1);
+        if (octets.length != 4) {
+            return null;
+        }
+        long number = 0;
+        for (String octet : octets) {
+            if (!isNumber(octet, 3)) {
+                return null;
+            }
+            int value = Integer.parseInt(octet);
+            if (value > 255) {
+                return null;
+            }
+            number = number << 8 | value;
+        }
+        return number;
+    }
+
+    /**
+     * Integer.parseInt also accepts a sign and digits of other scripts, so only 1 to maxLength ASCII digits pass.
+     */
+    private static boolean isNumber(String text, int maxLength) {
+        if (text.isEmpty() || text.length() > maxLength) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The dotted IPv4 address of an unsigned 32-bit number
+     */
+    public static String toAddress(long number) {
+        return (number >>> 24 & 255) + "." + (number >>> 16 & 255) + "." + (number >>> 8 & 255) + "." + (number & 255);
+    }
+
+    /**
+     * @return The number of addresses in the block
+     */
+    public long size() {
+        return this.last - this.first + 1;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+}
@@ -0,0 +1,95 @@
+package mk.ukim.finki.wp.june2022.g1.model;
+
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A request to terminate a virtual server, processed in the background by the TerminationJobService.
+ */
+@Entity
+@Table(indexes = @Index(name = "termination_job_status_idx", columnList = "status"))
+public class TerminationJob {
+
+    public TerminationJob() {
+    }
+
+    public TerminationJob(Long virtualServerId, Instant created) {
+        this.virtualServerId = virtualServerId;
+        this.status = TerminationJobStatus.PENDING;
+        this.created = created;
+    }
+
+    @Id
+    @GeneratedValue
+    private Long id;
+
+    private Long virtualServerId;
+
+    @Enumerated(EnumType.STRING)
+    private TerminationJobStatus status;
+
+    private String error;
+
+    private Instant created;
+
+    private Instant started;
+
+    private Instant finished;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getVirtualServerId() {
+        return virtualServerId;
+    }
+
+    public void setVirtualServerId(Long virtualServerId) {
+        this.virtualServerId = virtualServerId;
+    }
+
+    public TerminationJobStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(TerminationJobStatus status) {
+        this.status = status;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public void setCreated(Instant created) {
+        this.created = created;
+    }
+
+    public Instant getStarted() {
+        return started;
+    }
+
+    public void setStarted(Instant started) {
+        this.started = started;
+    }
+
+    public Instant getFinished() {
+        return finished;
+    }
+
+    public void setFinished(Instant finished) {
+        this.finished = finished;
+    }
+}
@@ -0,0 +1,8 @@
+package mk.ukim.finki.wp.june2022.g1.model;
+
+public enum TerminationJobStatus {
+    PENDING,
+    RUNNING,
+    DONE,
+    FAILED
+}
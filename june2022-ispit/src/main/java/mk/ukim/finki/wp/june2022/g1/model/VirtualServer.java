@@ -1,11 +1,17 @@
 package mk.ukim.finki.wp.june2022.g1.model;
 
 
+import org.hibernate.annotations.BatchSize;
+
 import javax.persistence.*;
 import java.time.LocalDate;
 import java.util.List;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "virtual_server_ip_number_idx", columnList = "ip_number"),
+        @Index(name = "virtual_server_launch_date_idx", columnList = "launchDate")
+})
 public class VirtualServer {
 
     public VirtualServer() {
@@ -13,7 +19,7 @@ public class VirtualServer {
 
     public VirtualServer(String instanceName, String ipAddress, OSType osType, List<User> owners, LocalDate launchDate) {
         this.instanceName = instanceName;
-        this.ipAddress = ipAddress;
+        this.setIpAddress(ipAddress);
         this.OSType = osType;
         this.owners = owners;
         this.launchDate = launchDate;
@@ -29,14 +35,32 @@ public class VirtualServer {
 
     private String ipAddress;
 
+    /**
+     * The IPv4 address as an unsigned 32-bit number, null when ipAddress is not an IPv4 address.
+     * It is set together with ipAddress and indexed, so the servers in a CIDR block are found with a range scan.
+     */
+    @Column(name = "ip_number")
+    private Long ipNumber;
+
     @Enumerated(EnumType.STRING)
     private OSType OSType;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    /**
+     * Loaded lazily. The list queries of VirtualServerRepository fetch the owners together with the servers,
+     * any other access loads the owners of up to 100 servers with one query.
+     */
+    @ManyToMany
+    @BatchSize(size = 100)
     private List<User> owners;
 
     private Boolean terminated = false;
 
+    /**
+     * Set on the detached copies of ArchivedVirtualServer.toVirtualServer, which can't be edited or terminated.
+     */
+    @Transient
+    private boolean archived;
+
     public Long getId() {
         return id;
     }
@@ -59,6 +83,11 @@ public class VirtualServer {
 
     public void setIpAddress(String ipAddress) {
         this.ipAddress = ipAddress;
+        this.ipNumber = Ipv4Range.toNumber(ipAddress);
+    }
+
+    public Long getIpNumber() {
+        return ipNumber;
     }
 
     public OSType getStatus() {
@@ -93,6 +122,14 @@ public class VirtualServer {
         this.terminated = terminated;
     }
 
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public void setArchived(boolean archived) {
+        this.archived = archived;
+    }
+
     public mk.ukim.finki.wp.june2022.g1.model.OSType getOSType() {
         return OSType;
     }
@@ -0,0 +1,4 @@
+package mk.ukim.finki.wp.june2022.g1.model.exceptions;
+
+public class InvalidTerminationJobIdException extends RuntimeException {
+}
@@ -0,0 +1,7 @@
+package mk.ukim.finki.wp.june2022.g1.model.exceptions;
+
+/**
+ * Thrown when a termination job is requested while the queue of the workers is full.
+ */
+public class TerminationQueueFullException extends RuntimeException {
+}
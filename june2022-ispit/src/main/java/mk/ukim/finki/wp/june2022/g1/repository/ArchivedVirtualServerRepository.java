@@ -0,0 +1,81 @@
+package mk.ukim.finki.wp.june2022.g1.repository;
+
+import mk.ukim.finki.wp.june2022.g1.model.ArchivedVirtualServer;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface ArchivedVirtualServerRepository extends JpaRepository<ArchivedVirtualServer,Long> {
+
+    @Override
+    @Query("select distinct a from ArchivedVirtualServer a left join fetch a.owners order by a.id")
+    List<ArchivedVirtualServer> findAll();
+
+    @Query("select distinct a from ArchivedVirtualServer a left join fetch a.owners where a.launchDate < :launch order by a.id")
+    List<ArchivedVirtualServer> findAllByLaunchDateBefore(LocalDate launch);
+
+    /**
+     * The owner is matched in a subquery, so the fetch join still loads all owners of the servers.
+     */
+    @Query("select distinct a from ArchivedVirtualServer a left join fetch a.owners " +
+            "where a.id in (select b.id from ArchivedVirtualServer b join b.owners o where o.id = :ownerId) order by a.id")
+    List<ArchivedVirtualServer> findAllByOwner(Long ownerId);
+
+    @Query("select distinct a from ArchivedVirtualServer a left join fetch a.owners " +
+            "where a.id in (select b.id from ArchivedVirtualServer b join b.owners o where o.id = :ownerId) " +
+            "and a.launchDate < :launch order by a.id")
+    List<ArchivedVirtualServer> findAllByOwnerAndLaunchDateBefore(Long ownerId, LocalDate launch);
+
+    @Query("select distinct a from ArchivedVirtualServer a left join fetch a.owners where a.ipNumber between :first and :last order by a.ipNumber, a.id")
+    List<ArchivedVirtualServer> findAllByIpNumberBetween(long first, long last);
+
+    /**
+     * The id and OS type of the archived servers, locked so that a server deleted concurrently is subtracted once.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select a.id, a.OSType from ArchivedVirtualServer a where a.id in :ids")
+    List<Object[]> findOSTypeByIdInForUpdate(Collection<Long> ids);
+
+    @Query("select a.id, o.id from ArchivedVirtualServer a join a.owners o where a.id in :ids")
+    List<Object[]> findOwnerLinksByIdIn(Collection<Long> ids);
+
+    /**
+     * The archived servers are all terminated, so they are counted without a state.
+     */
+    @Query("select a.OSType, count(a) from ArchivedVirtualServer a group by a.OSType")
+    List<Object[]> countByOSType();
+
+    @Query("select o.id, a.OSType, count(distinct a) from ArchivedVirtualServer a join a.owners o group by o.id, a.OSType")
+    List<Object[]> countByOwnerAndOSType();
+
+    /**
+     * Copies the servers from the 'virtual_server' table, with one statement for the whole batch.
+     */
+    @Modifying
+    @Query(value = "insert into archived_virtual_server (id, launch_date, instance_name, ip_address, ip_number, ostype, archived) " +
+            "select id, launch_date, instance_name, ip_address, ip_number, ostype, current_timestamp from virtual_server where id in :ids",
+            nativeQuery = true)
+    int archiveByIdIn(Collection<Long> ids);
+
+    @Modifying
+    @Query(value = "insert into archived_virtual_server_owners (archived_virtual_server_id, owners_id) " +
+            "select virtual_server_id, owners_id from virtual_server_owners where virtual_server_id in :ids",
+            nativeQuery = true)
+    int archiveOwnerLinksByIdIn(Collection<Long> ids);
+
+    @Modifying
+    @Query(value = "delete from archived_virtual_server_owners where archived_virtual_server_id in :ids", nativeQuery = true)
+    int deleteOwnerLinksByIdIn(Collection<Long> ids);
+
+    @Modifying
+    @Query("delete from ArchivedVirtualServer a where a.id in :ids")
+    int deleteByIdIn(Collection<Long> ids);
+}
@@ -0,0 +1,20 @@
+package mk.ukim.finki.wp.june2022.g1.repository;
+
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJob;
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJobStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface TerminationJobRepository extends JpaRepository<TerminationJob,Long> {
+    List<TerminationJob> findAllByStatusInOrderById(Collection<TerminationJobStatus> statuses);
+
+    List<TerminationJob> findAllByStatusAndIdBetweenOrderById(TerminationJobStatus status, Long from, Long to, Pageable pageable);
+
+    Optional<TerminationJob> findFirstByStatusOrderByIdDesc(TerminationJobStatus status);
+}
@@ -2,15 +2,108 @@ package mk.ukim.finki.wp.june2022.g1.repository;
 
 import mk.ukim.finki.wp.june2022.g1.model.User;
 import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface VirtualServerRepository extends JpaRepository<VirtualServer,Long> {
     List<VirtualServer> findAllByLaunchDateBeforeAndAndOwnersContaining(LocalDate launch, User user);
     List<VirtualServer> findAllByOwnersContaining(User user);
+
+    /**
+     * The owners are fetched with the servers in one query, 'distinct' removes the repeated servers of the join.
+     * The servers are found with a range scan of the index on 'launch_date'.
+     */
+    @Query("select distinct v from VirtualServer v left join fetch v.owners where v.launchDate < :launch order by v.id")
     List<VirtualServer> findAllByLaunchDateBefore(LocalDate launch);
+
+    @Override
+    @Query("select distinct v from VirtualServer v left join fetch v.owners order by v.id")
+    List<VirtualServer> findAll();
+
+    @Query("select distinct v from VirtualServer v left join fetch v.owners where v.id in :ids order by v.id")
+    List<VirtualServer> findAllWithOwnersByIdIn(Collection<Long> ids);
+
+    /**
+     * A range scan of the index on 'ip_number'.
+     */
+    @Query("select distinct v from VirtualServer v left join fetch v.owners where v.ipNumber between :first and :last order by v.ipNumber, v.id")
+    List<VirtualServer> findAllByIpNumberBetween(long first, long last);
+
+    @Override
+    @EntityGraph(attributePaths = "owners")
+    Optional<VirtualServer> findById(Long id);
+
+    /**
+     * @return The server id, owner id and launch date of every server and owner pair, sorted by launch date and server id
+     */
+    @Query("select v.id, o.id, v.launchDate from VirtualServer v join v.owners o order by v.launchDate asc nulls last, v.id asc")
+    List<Object[]> findAllOwnerLinks();
+
+    @Query("select v.id, o.id, v.launchDate from VirtualServer v join v.owners o where v.id in :ids")
+    List<Object[]> findOwnerLinksByIdIn(Collection<Long> ids);
+
+    /**
+     * @return The id and launch date of every server with a launch date, sorted by launch date and id
+     */
+    @Query("select v.id, v.launchDate from VirtualServer v where v.launchDate is not null order by v.launchDate, v.id")
+    List<Object[]> findAllLaunchDates();
+
+    @Query("select v.id from VirtualServer v order by v.id")
+    List<Long> findAllIds();
+
+    @Query("select v.id from VirtualServer v where v.terminated = true order by v.id")
+    List<Long> findTerminatedIds(Pageable pageable);
+
+    /**
+     * @return The id, the terminated flag, the OS type and the launch date of the servers that exist
+     */
+    @Query("select v.id, v.terminated, v.OSType, v.launchDate from VirtualServer v where v.id in :ids")
+    List<Object[]> findTerminatedByIdIn(Collection<Long> ids);
+
+    /**
+     * The same as findTerminatedByIdIn, and locks the rows until the end of the transaction, so a concurrent
+     * terminate, delete or archive of the same servers waits and then reads what this transaction wrote.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select v.id, v.terminated, v.OSType, v.launchDate from VirtualServer v where v.id in :ids")
+    List<Object[]> findTerminatedByIdInForUpdate(Collection<Long> ids);
+
+    /**
+     * @return The OS type, the terminated flag and the number of servers of every group
+     */
+    @Query("select v.OSType, v.terminated, count(v) from VirtualServer v group by v.OSType, v.terminated")
+    List<Object[]> countByOSTypeAndTerminated();
+
+    /**
+     * @return The owner id, the OS type, the terminated flag and the number of servers of every group
+     */
+    @Query("select o.id, v.OSType, v.terminated, count(distinct v) from VirtualServer v join v.owners o group by o.id, v.OSType, v.terminated")
+    List<Object[]> countByOwnerAndOSTypeAndTerminated();
+
+    @Modifying(clearAutomatically = true)
+    @Query("update VirtualServer v set v.terminated = true where v.id in :ids and (v.terminated = false or v.terminated is null)")
+    int markTerminatedByIdIn(Collection<Long> ids);
+
+    /**
+     * The join table has no entity, so the owner links of the servers are removed with SQL before the servers.
+     */
+    @Modifying(clearAutomatically = true)
+    @Query(value = "delete from virtual_server_owners where virtual_server_id in :ids", nativeQuery = true)
+    int deleteOwnerLinksByIdIn(Collection<Long> ids);
+
+    @Modifying(clearAutomatically = true)
+    @Query("delete from VirtualServer v where v.id in :ids")
+    int deleteByIdIn(Collection<Long> ids);
 }
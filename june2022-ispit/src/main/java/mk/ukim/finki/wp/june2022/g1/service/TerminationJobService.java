@@ -0,0 +1,35 @@
+package mk.ukim.finki.wp.june2022.g1.service;
+
+
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJob;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidTerminationJobIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.TerminationQueueFullException;
+
+import java.util.Map;
+
+public interface TerminationJobService {
+
+    /**
+     * This method is used to request the termination of a virtual server. The job is saved as PENDING and
+     * a worker terminates the server later, the method does not wait for it.
+     *
+     * @return The job that is created. Its id can be used to follow the job.
+     * @throws InvalidVirtualMachineIdException when there is no virtual server with the given id
+     * @throws TerminationQueueFullException when the workers already have too many jobs waiting
+     */
+    TerminationJob enqueue(Long virtualServerId);
+
+    /**
+     * returns the job with the given id
+     *
+     * @throws InvalidTerminationJobIdException when there is no job with the given id
+     */
+    TerminationJob findById(Long id);
+
+    /**
+     * @return The queue depth, the running jobs, the finished jobs and the average and maximum time
+     * the jobs waited in the queue and ran, in milliseconds
+     */
+    Map<String, Long> metrics();
+}
@@ -29,4 +29,28 @@ public interface UserService {
      * @return The entity that is created. The id should be generated when the entity is created.
      */
     User create(String username, String password, String role);
+
+    /**
+     * This method is used to create many entities at once. The passwords of the given users are the raw passwords,
+     * they are encoded in parallel and the users are saved in batches. The given users are not changed.
+     *
+     * @return The entities that are created, in the order of the given users.
+     */
+    List<User> createAll(List<User> users);
+
+    /**
+     * This method is used to change the password of a user. The new password is stored encoded.
+     *
+     * @return The entity that is updated.
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    User changePassword(Long id, String password);
+
+    /**
+     * This method is used to change the role of a user.
+     *
+     * @return The entity that is updated.
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    User changeRole(Long id, String role);
 }
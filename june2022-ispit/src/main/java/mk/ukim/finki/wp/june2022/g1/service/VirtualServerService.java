@@ -1,8 +1,11 @@
 package mk.ukim.finki.wp.june2022.g1.service;
 
 
+import mk.ukim.finki.wp.june2022.g1.model.BulkResult;
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
 import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
 import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidCidrException;
 import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
 import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidUserIdException;
 
@@ -68,4 +71,97 @@ public interface VirtualServerService {
      * @return The entities that meet the filtering criteria
      */
     List<VirtualServer> filter(Long ownerId, Integer activeMoreThanDays);
+
+    /**
+     * The same as filter(ownerId, activeMoreThanDays), but when includeTerminated is true the archived servers that
+     * meet the filtering criteria are returned too, marked as terminated.
+     *
+     * @return The entities that meet the filtering criteria, sorted by id
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    List<VirtualServer> filter(Long ownerId, Integer activeMoreThanDays, boolean includeTerminated);
+
+    /**
+     * Counts the entities that the filter method returns for the same arguments, without loading them.
+     *
+     * @return The number of entities that meet the filtering criteria
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    long count(Long ownerId, Integer activeMoreThanDays);
+
+    /**
+     * Returns the servers with an IPv4 address in the given CIDR block, e.g. '194.149.136.0/24'.
+     *
+     * @return The entities in the block, sorted by IP address
+     * @throws InvalidCidrException when the block is not valid
+     */
+    List<VirtualServer> filterByCidr(String cidr);
+
+    /**
+     * The same as filterByCidr(cidr), but when includeTerminated is true the archived servers in the block are returned too.
+     *
+     * @return The entities in the block, sorted by IP address
+     * @throws InvalidCidrException when the block is not valid
+     */
+    List<VirtualServer> filterByCidr(String cidr, boolean includeTerminated);
+
+    /**
+     * The servers that both filterByCidr(cidr, includeTerminated) and filter(ownerId, activeMoreThanDays, includeTerminated)
+     * return. The owner and days are nullable.
+     *
+     * @return The entities in the block that meet the filtering criteria, sorted by IP address
+     * @throws InvalidCidrException when the block is not valid
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    List<VirtualServer> filterByCidr(String cidr, Long ownerId, Integer activeMoreThanDays, boolean includeTerminated);
+
+    /**
+     * Marks as terminated all virtual servers with the given ids, with one update for every batch of ids.
+     *
+     * @return TERMINATED, ALREADY_TERMINATED or NOT_FOUND for every id
+     */
+    BulkResult markTerminatedAll(List<Long> ids);
+
+    /**
+     * Deletes all virtual servers with the given ids together with their owner links, with one delete for every batch of ids.
+     * Archived servers are deleted from the archive and reported as DELETED too.
+     *
+     * @return DELETED or NOT_FOUND for every id
+     */
+    BulkResult deleteAll(List<Long> ids);
+
+    /**
+     * Marks as terminated all virtual servers that the filter method returns for the same arguments.
+     *
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    BulkResult markTerminatedMatching(Long ownerId, Integer activeMoreThanDays);
+
+    /**
+     * Deletes all virtual servers that the filter method returns for the same arguments.
+     *
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    BulkResult deleteMatching(Long ownerId, Integer activeMoreThanDays);
+
+    /**
+     * Answered from counts that are kept up to date on every change, without reading the servers.
+     *
+     * @return The number of active and terminated servers of every OS type
+     */
+    FleetStatistics statistics();
+
+    /**
+     * @return The number of active and terminated servers of every OS type that the user owns
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    FleetStatistics statisticsByOwner(Long ownerId);
+
+    /**
+     * This method moves up to batchSize terminated servers, with their owner links, to the archive in one transaction.
+     * The archived servers are no longer returned by listAll, findById, filter, count and the statistics.
+     *
+     * @return The number of servers that were moved, 0 when there are no terminated servers left
+     */
+    int archiveTerminated(int batchSize);
 }
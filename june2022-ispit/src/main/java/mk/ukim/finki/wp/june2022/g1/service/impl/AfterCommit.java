@@ -0,0 +1,30 @@
+package mk.ukim.finki.wp.june2022.g1.service.impl;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Applies the changes of the in-memory indexes only when the transaction that changed the database commits,
+ * so a rolled back create, update, delete or terminate leaves the indexes as they were.
+ */
+final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    /**
+     * Runs the change after the current transaction commits, or right away when there is no transaction.
+     */
+    static void run(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package mk.ukim.finki.wp.june2022.g1.service.impl;
+
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the terminated virtual servers to the archive every 'archive.compaction.interval', so the queries of the
+ * active fleet do not read the rows of servers that are gone.
+ *
+ * Every batch of 'archive.compaction.batch-size' servers is moved in its own transaction, so a long compaction does not
+ * hold the locks of all terminated servers at once. Set 'archive.compaction.enabled=false' to keep them in place.
+ */
+@Component
+@ConditionalOnProperty(name = "archive.compaction.enabled", havingValue = "true", matchIfMissing = true)
+public class ArchiveCompactionJob {
+
+    private static final Logger log = LoggerFactory.getLogger(ArchiveCompactionJob.class);
+
+    private final VirtualServerService virtualServerService;
+    private final int batchSize;
+
+    public ArchiveCompactionJob(VirtualServerService virtualServerService,
+                                @Value("${archive.compaction.batch-size:1000}") int batchSize) {
+        this.virtualServerService = virtualServerService;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return The number of servers that were archived
+     */
+    @Scheduled(initialDelayString = "${archive.compaction.interval:PT1H}", fixedDelayString = "${archive.compaction.interval:PT1H}")
+    public long compact() {
+        long start = System.nanoTime();
+        long archived = 0;
+        int moved;
+        while ((moved = this.virtualServerService.archiveTerminated(this.batchSize)) > 0) {
+            archived += moved;
+        }
+        if (archived > 0) {
+            log.info("Archived {} terminated virtual servers in {} ms", archived, (System.nanoTime() - start) / 1_000_000);
+        }
+        return archived;
+    }
+}
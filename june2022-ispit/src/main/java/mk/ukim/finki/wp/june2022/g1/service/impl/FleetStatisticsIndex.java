@@ -0,0 +1,235 @@
+package mk.ukim.finki.wp.june2022.g1.service.impl;
+
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.repository.ArchivedVirtualServerRepository;
+import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory counts of the virtual servers by OS type and state, for the whole fleet and for every owner.
+ *
+ * The counts are loaded with 'group by' queries when the application starts. After that VirtualServerImpl
+ * adds and subtracts the changed servers after every create, update, delete and terminate commits, so reading
+ * the statistics copies a fixed number of counts and does not depend on the size of the fleet.
+ *
+ * The servers in the archive tables stay in the terminated counts, the index only keeps how many of them there are.
+ */
+@Component
+public class FleetStatisticsIndex {
+
+    private final long[] fleet = new long[FleetStatistics.SLOTS];
+
+    private final Map<Long, long[]> owners = new HashMap<>();
+
+    private long archived;
+
+    private final VirtualServerRepository virtualServerRepository;
+
+    private final ArchivedVirtualServerRepository archivedVirtualServerRepository;
+
+    public FleetStatisticsIndex(VirtualServerRepository virtualServerRepository,
+                                ArchivedVirtualServerRepository archivedVirtualServerRepository) {
+        this.virtualServerRepository = virtualServerRepository;
+        this.archivedVirtualServerRepository = archivedVirtualServerRepository;
+        reload();
+    }
+
+    /**
+     * Counts the servers again in the database, for servers that were written without VirtualServerService.
+     */
+    public synchronized void reload() {
+        Arrays.fill(this.fleet, 0);
+        this.owners.clear();
+        this.archived = 0;
+        for (Object[] row : this.virtualServerRepository.countByOSTypeAndTerminated()) {
+            this.fleet[FleetStatistics.slot((OSType) row[0], (Boolean) row[1])] += (Long) row[2];
+        }
+        for (Object[] row : this.virtualServerRepository.countByOwnerAndOSTypeAndTerminated()) {
+            counts((Long) row[0])[FleetStatistics.slot((OSType) row[1], (Boolean) row[2])] += (Long) row[3];
+        }
+        for (Object[] row : this.archivedVirtualServerRepository.countByOSType()) {
+            this.fleet[FleetStatistics.slot((OSType) row[0], true)] += (Long) row[1];
+            this.archived += (Long) row[1];
+        }
+        for (Object[] row : this.archivedVirtualServerRepository.countByOwnerAndOSType()) {
+            counts((Long) row[0])[FleetStatistics.slot((OSType) row[1], true)] += (Long) row[2];
+        }
+    }
+
+    public synchronized FleetStatistics fleet() {
+        return new FleetStatistics(this.fleet.clone());
+    }
+
+    /**
+     * The number of servers in the 'virtual_server' table, the fleet total without the archived servers.
+     */
+    public synchronized long unarchivedTotal() {
+        long total = -this.archived;
+        for (long count : this.fleet) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized FleetStatistics owner(Long ownerId) {
+        long[] counts = this.owners.get(ownerId);
+        return new FleetStatistics(counts == null ? new long[FleetStatistics.SLOTS] : counts.clone());
+    }
+
+    public void add(VirtualServer virtualServer) {
+        int slot = FleetStatistics.slot(virtualServer.getOSType(), virtualServer.getTerminated());
+        Set<Long> owners = ownerIds(virtualServer.getOwners());
+        AfterCommit.run(() -> change(slot, owners, 1));
+    }
+
+    public void remove(VirtualServer virtualServer) {
+        int slot = FleetStatistics.slot(virtualServer.getOSType(), virtualServer.getTerminated());
+        Set<Long> owners = ownerIds(virtualServer.getOwners());
+        AfterCommit.run(() -> change(slot, owners, -1));
+    }
+
+    /**
+     * @param previousOSType     The OS type of the server before it was changed
+     * @param previousTerminated The state of the server before it was changed
+     * @param previousOwners     The owners of the server before it was changed
+     */
+    public void update(VirtualServer virtualServer, OSType previousOSType, Boolean previousTerminated,
+                       Collection<User> previousOwners) {
+        int previousSlot = FleetStatistics.slot(previousOSType, previousTerminated);
+        Set<Long> previous = ownerIds(previousOwners);
+        int slot = FleetStatistics.slot(virtualServer.getOSType(), virtualServer.getTerminated());
+        Set<Long> owners = ownerIds(virtualServer.getOwners());
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                change(previousSlot, previous, -1);
+                change(slot, owners, 1);
+            }
+        });
+    }
+
+    /**
+     * Moves the active servers that were terminated in bulk to the terminated counts.
+     *
+     * @param servers The id, terminated flag and OS type of the servers before they were terminated,
+     *                as returned by VirtualServerRepository
+     * @param links   The owner links of the servers, as returned by VirtualServerRepository
+     */
+    public void terminateAll(List<Object[]> servers, List<Object[]> links) {
+        Map<Long, Set<Long>> owners = ownersOf(links);
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                for (Object[] server : servers) {
+                    if (!Boolean.TRUE.equals(server[1])) {
+                        Set<Long> ids = owners.getOrDefault((Long) server[0], new HashSet<>());
+                        change(FleetStatistics.slot((OSType) server[2], false), ids, -1);
+                        change(FleetStatistics.slot((OSType) server[2], true), ids, 1);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Subtracts the servers that were deleted in bulk.
+     *
+     * @param servers The id, terminated flag and OS type of the deleted servers, as returned by VirtualServerRepository
+     * @param links   The owner links of the servers, as returned by VirtualServerRepository
+     */
+    public void removeAll(List<Object[]> servers, List<Object[]> links) {
+        Map<Long, Set<Long>> owners = ownersOf(links);
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                for (Object[] server : servers) {
+                    change(FleetStatistics.slot((OSType) server[2], (Boolean) server[1]),
+                            owners.getOrDefault((Long) server[0], new HashSet<>()), -1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Keeps the servers that were moved to the archive in the terminated counts, and only counts them as archived.
+     *
+     * @param servers The id, terminated flag and OS type of the archived servers, as returned by VirtualServerRepository
+     */
+    public void archiveAll(List<Object[]> servers) {
+        int count = servers.size();
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                this.archived += count;
+            }
+        });
+    }
+
+    /**
+     * Subtracts the archived servers that were deleted from the terminated counts.
+     *
+     * @param servers The id and OS type of the deleted servers, as returned by ArchivedVirtualServerRepository
+     * @param links   The owner links of the servers, as returned by ArchivedVirtualServerRepository
+     */
+    public void removeArchived(List<Object[]> servers, List<Object[]> links) {
+        Map<Long, Set<Long>> owners = ownersOf(links);
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                for (Object[] server : servers) {
+                    change(FleetStatistics.slot((OSType) server[1], true),
+                            owners.getOrDefault((Long) server[0], new HashSet<>()), -1);
+                }
+                this.archived -= servers.size();
+            }
+        });
+    }
+
+    private synchronized void change(int slot, Set<Long> owners, int delta) {
+        this.fleet[slot] += delta;
+        for (Long owner : owners) {
+            long[] counts = counts(owner);
+            counts[slot] += delta;
+            if (delta < 0 && isEmpty(counts)) {
+                this.owners.remove(owner);
+            }
+        }
+    }
+
+    private long[] counts(Long owner) {
+        return this.owners.computeIfAbsent(owner, id -> new long[FleetStatistics.SLOTS]);
+    }
+
+    private static boolean isEmpty(long[] counts) {
+        for (long count : counts) {
+            if (count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Set<Long> ownerIds(Collection<User> owners) {
+        Set<Long> ids = new HashSet<>();
+        if (owners != null) {
+            // a server can list the same owner twice
+            owners.forEach(owner -> ids.add(owner.getId()));
+        }
+        return ids;
+    }
+
+    private static Map<Long, Set<Long>> ownersOf(List<Object[]> links) {
+        Map<Long, Set<Long>> owners = new HashMap<>();
+        for (Object[] link : links) {
+            owners.computeIfAbsent((Long) link[0], id -> new HashSet<>()).add((Long) link[1]);
+        }
+        return owners;
+    }
+
+}
@@ -0,0 +1,252 @@
+package mk.ukim.finki.wp.june2022.g1.service.impl;
+
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory index of the virtual servers by launch day.
+ *
+ * The servers are kept in one bucket for every day on which a server was launched. The days are a sorted primitive
+ * array, and a parallel array holds for every bucket the number of servers in the buckets before it. The servers
+ * launched before a date are the buckets before the position of the date, found with a binary search, so counting
+ * them is one lookup and listing them copies only their ids. Servers without a launch date are never launched
+ * before a date, so they are not kept.
+ *
+ * The buckets are never changed after they are published, a change builds a new bucket and new arrays of buckets
+ * and counts, whose size is the number of days and not the number of servers. VirtualServerImpl keeps the index
+ * up to date on create and delete, after the transaction commits. The launch date of a server does not change
+ * after it is created.
+ */
+@Component
+public class LaunchDateIndex {
+
+    private static final Buckets EMPTY = new Buckets(new int[0], new long[0][], new int[]{0});
+
+    private final VirtualServerRepository virtualServerRepository;
+
+    private volatile Buckets buckets = EMPTY;
+
+    public LaunchDateIndex(VirtualServerRepository virtualServerRepository) {
+        this.virtualServerRepository = virtualServerRepository;
+        reload();
+    }
+
+    /**
+     * Reads the launch dates again from the database, for servers that were written without VirtualServerService.
+     */
+    public synchronized void reload() {
+        List<Object[]> rows = this.virtualServerRepository.findAllLaunchDates();
+        int days = 0;
+        int previous = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            int day = day((LocalDate) rows.get(i)[1]);
+            if (i == 0 || day != previous) {
+                days++;
+                previous = day;
+            }
+        }
+        int[] bucketDays = new int[days];
+        long[][] ids = new long[days][];
+        int from = 0;
+        for (int bucket = 0; bucket < days; bucket++) {
+            int day = day((LocalDate) rows.get(from)[1]);
+            int to = from;
+            while (to < rows.size() && day((LocalDate) rows.get(to)[1]) == day) {
+                to++;
+            }
+            bucketDays[bucket] = day;
+            ids[bucket] = new long[to - from];
+            for (int i = from; i < to; i++) {
+                ids[bucket][i - from] = (Long) rows.get(i)[0];
+            }
+            from = to;
+        }
+        this.buckets = new Buckets(bucketDays, ids, prefixCounts(ids));
+    }
+
+    /**
+     * @return The ids of the servers launched strictly before the given date, sorted by id
+     */
+    public long[] findLaunchedBefore(LocalDate launch) {
+        Buckets buckets = this.buckets;
+        int to = buckets.position(day(launch));
+        long[] result = new long[buckets.counts[to]];
+        for (int bucket = 0; bucket < to; bucket++) {
+            System.arraycopy(buckets.ids[bucket], 0, result, buckets.counts[bucket], buckets.ids[bucket].length);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return The number of servers launched strictly before the given date
+     */
+    public int countLaunchedBefore(LocalDate launch) {
+        Buckets buckets = this.buckets;
+        return buckets.counts[buckets.position(day(launch))];
+    }
+
+    /**
+     * @return The number of servers with a launch date
+     */
+    public int size() {
+        Buckets buckets = this.buckets;
+        return buckets.counts[buckets.ids.length];
+    }
+
+    /**
+     * Adds the server after the transaction commits.
+     */
+    public void add(VirtualServer virtualServer) {
+        if (virtualServer.getLaunchDate() != null) {
+            int day = day(virtualServer.getLaunchDate());
+            long id = virtualServer.getId();
+            AfterCommit.run(() -> {
+                synchronized (this) {
+                    this.buckets = this.buckets.insert(day, id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes the server after the transaction commits.
+     */
+    public void remove(VirtualServer virtualServer) {
+        if (virtualServer.getLaunchDate() != null) {
+            int day = day(virtualServer.getLaunchDate());
+            long id = virtualServer.getId();
+            AfterCommit.run(() -> {
+                synchronized (this) {
+                    this.buckets = this.buckets.remove(day, id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Removes servers that were deleted in bulk, after the transaction commits.
+     *
+     * @param servers The id, terminated flag, OS type and launch date of the deleted servers,
+     *                as returned by VirtualServerRepository
+     */
+    public void removeAll(List<Object[]> servers) {
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                Buckets buckets = this.buckets;
+                for (Object[] server : servers) {
+                    LocalDate launchDate = (LocalDate) server[3];
+                    if (launchDate != null) {
+                        buckets = buckets.remove(day(launchDate), (Long) server[0]);
+                    }
+                }
+                this.buckets = buckets;
+            }
+        });
+    }
+
+    private static int day(LocalDate date) {
+        return (int) date.toEpochDay();
+    }
+
+    private static int[] prefixCounts(long[][] ids) {
+        int[] counts = new int[ids.length + 1];
+        for (int bucket = 0; bucket < ids.length; bucket++) {
+            counts[bucket + 1] = counts[bucket] + ids[bucket].length;
+        }
+        return counts;
+    }
+
+    /**
+     * The buckets sorted by day, the ids of every bucket sorted by id, and the prefix counts:
+     * counts[i] is the number of servers in the buckets before bucket i, counts[days.length] is the number of all.
+     */
+    private static final class Buckets {
+        private final int[] days;
+        private final long[][] ids;
+        private final int[] counts;
+
+        private Buckets(int[] days, long[][] ids, int[] counts) {
+            this.days = days;
+            this.ids = ids;
+            this.counts = counts;
+        }
+
+        /**
+         * @return The index of the first bucket that is not before the given day
+         */
+        private int position(int day) {
+            int low = 0;
+            int high = this.days.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.days[middle] < day) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private Buckets insert(int day, long id) {
+            int bucket = position(day);
+            if (bucket == this.days.length || this.days[bucket] != day) {
+                int[] days = new int[this.days.length + 1];
+                long[][] ids = new long[this.ids.length + 1][];
+                System.arraycopy(this.days, 0, days, 0, bucket);
+                System.arraycopy(this.ids, 0, ids, 0, bucket);
+                days[bucket] = day;
+                ids[bucket] = new long[]{id};
+                System.arraycopy(this.days, bucket, days, bucket + 1, this.days.length - bucket);
+                System.arraycopy(this.ids, bucket, ids, bucket + 1, this.ids.length - bucket);
+                return new Buckets(days, ids, prefixCounts(ids));
+            }
+            long[] servers = this.ids[bucket];
+            int at = Arrays.binarySearch(servers, id);
+            if (at >= 0) {
+                return this;
+            }
+            at = -at - 1;
+            long[] changed = new long[servers.length + 1];
+            System.arraycopy(servers, 0, changed, 0, at);
+            changed[at] = id;
+            System.arraycopy(servers, at, changed, at + 1, servers.length - at);
+            long[][] ids = this.ids.clone();
+            ids[bucket] = changed;
+            return new Buckets(this.days, ids, prefixCounts(ids));
+        }
+
+        private Buckets remove(int day, long id) {
+            int bucket = position(day);
+            if (bucket == this.days.length || this.days[bucket] != day) {
+                return this;
+            }
+            long[] servers = this.ids[bucket];
+            int at = Arrays.binarySearch(servers, id);
+            if (at < 0) {
+                return this;
+            }
+            if (servers.length == 1) {
+                int[] days = new int[this.days.length - 1];
+                long[][] ids = new long[this.ids.length - 1][];
+                System.arraycopy(this.days, 0, days, 0, bucket);
+                System.arraycopy(this.ids, 0, ids, 0, bucket);
+                System.arraycopy(this.days, bucket + 1, days, bucket, days.length - bucket);
+                System.arraycopy(this.ids, bucket + 1, ids, bucket, ids.length - bucket);
+                return new Buckets(days, ids, prefixCounts(ids));
+            }
+            long[] changed = new long[servers.length - 1];
+            System.arraycopy(servers, 0, changed, 0, at);
+            System.arraycopy(servers, at + 1, changed, at, changed.length - at);
+            long[][] ids = this.ids.clone();
+            ids[bucket] = changed;
+            return new Buckets(this.days, ids, prefixCounts(ids));
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package mk.ukim.finki.wp.june2022.g1.service.impl;
+
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJob;
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJobStatus;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidTerminationJobIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.TerminationQueueFullException;
+import mk.ukim.finki.wp.june2022.g1.repository.TerminationJobRepository;
+import mk.ukim.finki.wp.june2022.g1.service.TerminationJobService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Terminates virtual servers in the background on a bounded pool of 'termination.jobs.workers' threads,
+ * with at most 'termination.jobs.queue-capacity' jobs waiting for a worker.
+ *
+ * Every job is saved before it is queued and saved again when it starts and finishes, so the table of the jobs always
+ * shows their state. On shutdown the workers get 'termination.jobs.shutdown-timeout' to finish the queued jobs.
+ * The jobs that are still waiting stay PENDING in the table, a running job that is interrupted is saved as PENDING
+ * again, and all PENDING jobs are queued again when the application starts. The PENDING jobs that do not fit into
+ * the queue on startup are queued in the order of their ids every 'termination.jobs.backlog-interval', as far as
+ * the workers have room for them.
+ *
+ * 'termination.jobs.teardown-delay' stands in for the slow teardown at the cloud provider, which happens before
+ * the server is marked as terminated.
+ */
+@Service
+public class TerminationJobServiceImpl implements TerminationJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(TerminationJobServiceImpl.class);
+
+    private final TerminationJobRepository terminationJobRepository;
+    private final VirtualServerService virtualServerService;
+    private final Duration teardownDelay;
+    private final Duration shutdownTimeout;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The ids of the PENDING jobs from before the start that were not queued yet are between these two.
+     */
+    private long backlogFrom;
+    private long backlogTo = -1;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong queueMillis = new AtomicLong();
+    private final AtomicLong maxQueueMillis = new AtomicLong();
+    private final AtomicLong runMillis = new AtomicLong();
+    private final AtomicLong maxRunMillis = new AtomicLong();
+
+    public TerminationJobServiceImpl(TerminationJobRepository terminationJobRepository,
+                                     VirtualServerService virtualServerService,
+                                     @Value("${termination.jobs.workers:2}") int workers,
+                                     @Value("${termination.jobs.queue-capacity:1000}") int queueCapacity,
+                                     @Value("${termination.jobs.teardown-delay:PT0S}") Duration teardownDelay,
+                                     @Value("${termination.jobs.shutdown-timeout:PT30S}") Duration shutdownTimeout) {
+        this.terminationJobRepository = terminationJobRepository;
+        this.virtualServerService = virtualServerService;
+        this.teardownDelay = teardownDelay;
+        this.shutdownTimeout = shutdownTimeout;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "termination-job-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the jobs that were not finished before the last shutdown, as many as fit into the queue.
+     * Jobs created after this never join the backlog, they are queued by enqueue or rejected.
+     */
+    @PostConstruct
+    public synchronized void recover() {
+        for (TerminationJob job : this.terminationJobRepository.findAllByStatusInOrderById(
+                Collections.singletonList(TerminationJobStatus.RUNNING))) {
+            // the application stopped while the job was running
+            job.setStatus(TerminationJobStatus.PENDING);
+            job.setStarted(null);
+            this.terminationJobRepository.save(job);
+        }
+        this.terminationJobRepository.findFirstByStatusOrderByIdDesc(TerminationJobStatus.PENDING).ifPresent(last -> {
+            this.backlogFrom = Long.MIN_VALUE;
+            this.backlogTo = last.getId();
+        });
+        long queued = queueBacklog();
+        if (queued > 0) {
+            log.info("Queued {} unfinished termination jobs", queued);
+        }
+        if (this.backlogFrom <= this.backlogTo) {
+            log.warn("Termination jobs up to id {} stay PENDING until the queue has room for them", this.backlogTo);
+        }
+    }
+
+    /**
+     * Queues the next PENDING jobs of the backlog while the queue has room for them.
+     *
+     * @return The number of jobs that were queued
+     */
+    @Scheduled(initialDelayString = "${termination.jobs.backlog-interval:PT5S}",
+            fixedDelayString = "${termination.jobs.backlog-interval:PT5S}")
+    public synchronized long queueBacklog() {
+        long queued = 0;
+        int room;
+        while (this.backlogFrom <= this.backlogTo && (room = this.executor.getQueue().remainingCapacity()) > 0) {
+            List<TerminationJob> jobs = this.terminationJobRepository.findAllByStatusAndIdBetweenOrderById(
+                    TerminationJobStatus.PENDING, this.backlogFrom, this.backlogTo, PageRequest.of(0, room));
+            if (jobs.isEmpty()) {
+                this.backlogTo = -1;
+                this.backlogFrom = 0;
+                break;
+            }
+            for (TerminationJob job : jobs) {
+                if (!submit(job.getId())) {
+                    // queued by the next call, once the workers took jobs from the queue
+                    return queued;
+                }
+                this.backlogFrom = job.getId() + 1;
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    @PreDestroy
+    public void drain() throws InterruptedException {
+        this.executor.shutdown();
+        if (!this.executor.awaitTermination(this.shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            int waiting = this.executor.shutdownNow().size();
+            // the interrupted jobs save themselves as PENDING
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+            log.warn("{} termination jobs were not started before the shutdown, they stay PENDING", waiting);
+        }
+    }
+
+    /**
+     * The job is saved before it is queued, so a worker always finds it. When the queue is filled by a concurrent
+     * enqueue in between, the saved job is deleted again, so every job that is returned runs.
+     *
+     * @throws InvalidVirtualMachineIdException when there is no virtual server with the given id
+     * @throws TerminationQueueFullException when the workers already have too many jobs waiting
+     */
+    public TerminationJob enqueue(Long virtualServerId) {
+        this.virtualServerService.findById(virtualServerId);
+        // spares the insert when the queue is full, the executor decides in the end
+        if (this.executor.getQueue().remainingCapacity() == 0) {
+            throw new TerminationQueueFullException();
+        }
+        TerminationJob job = this.terminationJobRepository.save(new TerminationJob(virtualServerId, Instant.now()));
+        if (!submit(job.getId())) {
+            this.terminationJobRepository.deleteById(job.getId());
+            throw new TerminationQueueFullException();
+        }
+        return job;
+    }
+
+    /**
+     * @throws InvalidTerminationJobIdException when there is no job with the given id
+     */
+    public TerminationJob findById(Long id) {
+        return this.terminationJobRepository.findById(id).orElseThrow(InvalidTerminationJobIdException::new);
+    }
+
+    public Map<String, Long> metrics() {
+        long finished = this.done.get() + this.failed.get();
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("queueDepth", (long) this.executor.getQueue().size());
+        metrics.put("running", (long) this.running.get());
+        metrics.put("done", this.done.get());
+        metrics.put("failed", this.failed.get());
+        metrics.put("averageQueueMillis", finished == 0 ? 0 : this.queueMillis.get() / finished);
+        metrics.put("maxQueueMillis", this.maxQueueMillis.get());
+        metrics.put("averageRunMillis", finished == 0 ? 0 : this.runMillis.get() / finished);
+        metrics.put("maxRunMillis", this.maxRunMillis.get());
+        return metrics;
+    }
+
+    /**
+     * @return false when the queue is full or the workers are shut down
+     */
+    private boolean submit(Long jobId) {
+        try {
+            this.executor.execute(() -> run(jobId));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void run(Long jobId) {
+        TerminationJob job = this.terminationJobRepository.findById(jobId).orElse(null);
+        if (job == null || job.getStatus() != TerminationJobStatus.PENDING) {
+            return;
+        }
+        job.setStatus(TerminationJobStatus.RUNNING);
+        job.setStarted(Instant.now());
+        job = this.terminationJobRepository.save(job);
+        this.running.incrementAndGet();
+        try {
+            if (!this.teardownDelay.isZero()) {
+                Thread.sleep(this.teardownDelay.toMillis());
+            }
+            this.virtualServerService.markTerminated(job.getVirtualServerId());
+            job.setStatus(TerminationJobStatus.DONE);
+            this.done.incrementAndGet();
+        } catch (InterruptedException e) {
+            job.setStatus(TerminationJobStatus.PENDING);
+            job.setStarted(null);
+            this.terminationJobRepository.save(job);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (RuntimeException e) {
+            log.warn("Termination job {} failed", jobId, e);
+            job.setStatus(TerminationJobStatus.FAILED);
+            job.setError(e.getClass().getSimpleName() + (e.getMessage() == null ? "" : ": " + e.getMessage()));
+            this.failed.incrementAndGet();
+        } finally {
+            this.running.decrementAndGet();
+        }
+        job.setFinished(Instant.now());
+        this.terminationJobRepository.save(job);
+        record(this.queueMillis, this.maxQueueMillis, Duration.between(job.getCreated(), job.getStarted()).toMillis());
+        record(this.runMillis, this.maxRunMillis, Duration.between(job.getStarted(), job.getFinished()).toMillis());
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long millis) {
+        total.addAndGet(millis);
+        max.accumulateAndGet(millis, Math::max);
+    }
+}
@@ -0,0 +1,172 @@
+package mk.ukim.finki.wp.june2022.g1.service.impl;
+
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the login details of the users, used by UserServiceImpl.loadUserByUsername.
+ *
+ * A found user is kept for 'users.details-cache.ttl', an unknown username for the shorter
+ * 'users.details-cache.negative-ttl', so a burst of logins with made up usernames does not query the users table
+ * for every attempt. The two kinds are kept in separate LRU maps, so the unknown usernames can never push
+ * the real users out of the cache.
+ *
+ * Only the username, the password hash and the role are stored, and a new UserDetails is built for every call,
+ * because Spring Security erases the password of the UserDetails it gets after a successful login.
+ *
+ * Every invalidate starts a new generation. A loader takes the generation before it reads the user from the database
+ * and passes it to put, which drops the user when an invalidate happened in between, so a login that read the user
+ * before a password or role change can not cache the old details again.
+ */
+@Component
+public class UserDetailsCache {
+
+    private final int size;
+    private final long ttl;
+    private final long negativeTtl;
+    private final Clock clock;
+
+    private final Map<String, Entry> users;
+    private final Map<String, Long> unknown;
+
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public UserDetailsCache(@Value("${users.details-cache.size:1024}") int size,
+                            @Value("${users.details-cache.ttl:PT5M}") Duration ttl,
+                            @Value("${users.details-cache.negative-ttl:PT30S}") Duration negativeTtl) {
+        this(size, ttl, negativeTtl, Clock.systemUTC());
+    }
+
+    public UserDetailsCache(int size, Duration ttl, Duration negativeTtl, Clock clock) {
+        this.size = size;
+        this.ttl = ttl.toMillis();
+        this.negativeTtl = negativeTtl.toMillis();
+        this.clock = clock;
+        this.users = lru(size);
+        this.unknown = lru(size);
+    }
+
+    private static <V> Map<String, V> lru(int size) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Looks the username up in the cache.
+     *
+     * @return The details of the user, or null when the user is not cached
+     * @throws UsernameNotFoundException when the username was recently not found in the database
+     */
+    public synchronized UserDetails get(String username) {
+        long now = this.clock.millis();
+        Entry entry = this.users.get(username);
+        if (entry != null && entry.expires > now) {
+            this.hits.incrementAndGet();
+            return entry.toUserDetails(username);
+        }
+        Long expires = this.unknown.get(username);
+        if (expires != null && expires > now) {
+            this.negativeHits.incrementAndGet();
+            throw new UsernameNotFoundException(username);
+        }
+        this.users.remove(username);
+        this.unknown.remove(username);
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return The generation to pass to put, taken before the user is read from the database
+     */
+    public synchronized long generation() {
+        return this.generation;
+    }
+
+    /**
+     * Stores the user that was loaded from the database, or remembers that the username does not exist when user is null.
+     * Nothing is stored when the cache was invalidated after the given generation was taken.
+     */
+    public synchronized void put(String username, User user, long generation) {
+        if (this.size <= 0 || generation != this.generation) {
+            return;
+        }
+        long now = this.clock.millis();
+        if (user == null) {
+            this.unknown.put(username, now + this.negativeTtl);
+        } else {
+            this.users.put(username, new Entry(user.getPassword(), user.getRole(), now + this.ttl));
+        }
+    }
+
+    /**
+     * Has to be called after a user with the given username is created, or its password or role is changed.
+     */
+    public synchronized void invalidate(String username) {
+        this.generation++;
+        this.users.remove(username);
+        this.unknown.remove(username);
+    }
+
+    public synchronized void clear() {
+        this.generation++;
+        this.users.clear();
+        this.unknown.clear();
+    }
+
+    public synchronized int size() {
+        return this.users.size() + this.unknown.size();
+    }
+
+    public long hits() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return How many times a username was rejected because it was recently not found
+     */
+    public long negativeHits() {
+        return this.negativeHits.get();
+    }
+
+    public long misses() {
+        return this.misses.get();
+    }
+
+    private static final class Entry {
+        private final String password;
+        private final String role;
+        private final long expires;
+
+        private Entry(String password, String role, long expires) {
+            this.password = password;
+            this.role = role;
+            this.expires = expires;
+        }
+
+        private UserDetails toUserDetails(String username) {
+            return new org.springframework.security.core.userdetails.User(username, this.password,
+                    Collections.singleton(new SimpleGrantedAuthority(this.role)));
+        }
+    }
+}
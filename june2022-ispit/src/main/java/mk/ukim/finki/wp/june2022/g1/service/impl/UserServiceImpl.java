@@ -4,6 +4,7 @@ import mk.ukim.finki.wp.june2022.g1.model.User;
 import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidUserIdException;
 import mk.ukim.finki.wp.june2022.g1.repository.UserRepository;
 import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -11,17 +12,53 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class UserServiceImpl implements UserService, UserDetailsService {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final UserDetailsCache userDetailsCache;
+    private final int hashingThreads;
+    private final int batchSize;
+    private final ExecutorService hashingPool;
 
-    public UserServiceImpl(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    /**
+     * @param hashingThreads The threads that encode the passwords in createAll, 0 for one for every processor
+     * @param batchSize      The number of users that createAll saves at once
+     */
+    public UserServiceImpl(UserRepository userRepository, PasswordEncoder passwordEncoder, UserDetailsCache userDetailsCache,
+                           @Value("${users.hashing.threads:0}") int hashingThreads,
+                           @Value("${users.create-batch-size:500}") int batchSize) {
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.userDetailsCache = userDetailsCache;
+        this.hashingThreads = hashingThreads > 0 ? hashingThreads : Runtime.getRuntime().availableProcessors();
+        this.batchSize = batchSize;
+        AtomicInteger threads = new AtomicInteger();
+        this.hashingPool = new ThreadPoolExecutor(this.hashingThreads, this.hashingThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "password-hashing-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        this.hashingPool.shutdownNow();
     }
 
     /**
@@ -50,13 +87,118 @@ public class UserServiceImpl implements UserService, UserDetailsService {
      */
     public User create(String username, String password, String role){
         User user=new User(username,passwordEncoder.encode(password),role);
-        return this.userRepository.save(user);
+        user=this.userRepository.save(user);
+        // the username may be cached as unknown
+        this.invalidate(username);
+        return user;
+    }
+
+    /**
+     * The passwords of a batch are encoded on the 'users.hashing.threads' threads of the hashing pool, every thread
+     * encodes an equal part of the batch. The batch is then saved with one saveAll, which Hibernate sends as JDBC
+     * batches of 'hibernate.jdbc.batch_size' inserts. Every batch is saved in its own transaction.
+     * The given users are only read, new entities with the encoded passwords are saved.
+     *
+     * @return The created entities, in the order of the given users
+     */
+    public List<User> createAll(List<User> users){
+        List<User> created=new ArrayList<>(users.size());
+        for(int from=0;from<users.size();from+=this.batchSize){
+            List<User> batch=this.encodePasswords(users.subList(from,Math.min(users.size(),from+this.batchSize)));
+            created.addAll(this.userRepository.saveAll(batch));
+            batch.forEach(user -> this.invalidate(user.getUsername()));
+        }
+        return created;
+    }
+
+    /**
+     * @return Copies of the users with the encoded passwords, in the same order
+     */
+    private List<User> encodePasswords(List<User> users){
+        User[] encoded=new User[users.size()];
+        int parts=Math.min(this.hashingThreads,users.size());
+        List<Callable<Void>> tasks=new ArrayList<>(parts);
+        for(int part=0;part<parts;part++){
+            int from=part*users.size()/parts;
+            int to=(part+1)*users.size()/parts;
+            tasks.add(() -> {
+                for(int i=from;i<to;i++){
+                    User user=users.get(i);
+                    encoded[i]=new User(user.getUsername(),passwordEncoder.encode(user.getPassword()),user.getRole());
+                }
+                return null;
+            });
+        }
+        try {
+            for(Future<Void> future:this.hashingPool.invokeAll(tasks)){
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while encoding the passwords",e);
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException){
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return Arrays.asList(encoded);
+    }
+
+    /**
+     * This method is used to change the password of a user.
+     *
+     * @return The entity that is updated.
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    public User changePassword(Long id, String password){
+        User user=this.findById(id);
+        user.setPassword(passwordEncoder.encode(password));
+        user=this.userRepository.save(user);
+        this.invalidate(user.getUsername());
+        return user;
+    }
+
+    /**
+     * This method is used to change the role of a user.
+     *
+     * @return The entity that is updated.
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    public User changeRole(Long id, String role){
+        User user=this.findById(id);
+        user.setRole(role);
+        user=this.userRepository.save(user);
+        this.invalidate(user.getUsername());
+        return user;
+    }
+
+    /**
+     * Evicts the user now and again after the transaction commits, in case a login read the old row in between.
+     */
+    private void invalidate(String username){
+        this.userDetailsCache.invalidate(username);
+        AfterCommit.run(() -> this.userDetailsCache.invalidate(username));
     }
 
+    /**
+     * The users are loaded through the UserDetailsCache, so repeated logins do not query the users table.
+     *
+     * @throws UsernameNotFoundException when there is no user with the given username
+     */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user=this.userRepository.findByUsername(username);
+        UserDetails cached=this.userDetailsCache.get(username);
+        if(cached!=null){
+            return cached;
+        }
 
+        long generation=this.userDetailsCache.generation();
+        User user=this.userRepository.findByUsername(username);
+        this.userDetailsCache.put(username,user,generation);
+        if(user==null){
+            throw new UsernameNotFoundException(username);
+        }
         return new org.springframework.security.core.userdetails.User(
                 user.getUsername(),
                 user.getPassword(),
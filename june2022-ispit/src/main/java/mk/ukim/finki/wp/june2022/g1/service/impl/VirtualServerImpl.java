@@ -1,27 +1,58 @@
 package mk.ukim.finki.wp.june2022.g1.service.impl;
 
+import mk.ukim.finki.wp.june2022.g1.model.ArchivedVirtualServer;
+import mk.ukim.finki.wp.june2022.g1.model.BulkOutcome;
+import mk.ukim.finki.wp.june2022.g1.model.BulkResult;
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
+import mk.ukim.finki.wp.june2022.g1.model.Ipv4Range;
 import mk.ukim.finki.wp.june2022.g1.model.OSType;
 import mk.ukim.finki.wp.june2022.g1.model.User;
 import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidCidrException;
 import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidUserIdException;
 import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
+import mk.ukim.finki.wp.june2022.g1.repository.ArchivedVirtualServerRepository;
 import mk.ukim.finki.wp.june2022.g1.repository.UserRepository;
 import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
 import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class VirtualServerImpl implements VirtualServerService {
 
+    private static final int ID_CHUNK_SIZE = 1000;
+
     private final VirtualServerRepository virtualServerRepository;
+    private final ArchivedVirtualServerRepository archivedVirtualServerRepository;
     private final UserRepository userRepository;
+    private final VirtualServerOwnerIndex ownerIndex;
+    private final FleetStatisticsIndex statistics;
+    private final LaunchDateIndex launchDateIndex;
 
-    public VirtualServerImpl(VirtualServerRepository virtualServerRepository, UserRepository userRepository) {
+    public VirtualServerImpl(VirtualServerRepository virtualServerRepository,
+                             ArchivedVirtualServerRepository archivedVirtualServerRepository, UserRepository userRepository,
+                             VirtualServerOwnerIndex ownerIndex, FleetStatisticsIndex statistics,
+                             LaunchDateIndex launchDateIndex) {
         this.virtualServerRepository = virtualServerRepository;
+        this.archivedVirtualServerRepository = archivedVirtualServerRepository;
         this.userRepository = userRepository;
+        this.ownerIndex = ownerIndex;
+        this.statistics = statistics;
+        this.launchDateIndex = launchDateIndex;
     }
 
     /**
@@ -48,11 +79,16 @@ public class VirtualServerImpl implements VirtualServerService {
      * @return The entity that is created. The id should be generated when the entity is created.
      * @throws InvalidUserIdException when there is no user with the given id
      */
+    @Transactional
     public VirtualServer create(String name, String ipAddress, OSType osType, List<Long> owners, LocalDate launchDate){
         List<User> users=this.userRepository.findAllById(owners);
         VirtualServer virtualServer=new VirtualServer(name,ipAddress,osType,users,launchDate);
 
-        return this.virtualServerRepository.save(virtualServer);
+        virtualServer=this.virtualServerRepository.save(virtualServer);
+        this.ownerIndex.add(virtualServer);
+        this.statistics.add(virtualServer);
+        this.launchDateIndex.add(virtualServer);
+        return virtualServer;
     }
 
     /**
@@ -63,15 +99,21 @@ public class VirtualServerImpl implements VirtualServerService {
      * @throws InvalidVirtualMachineIdException when there is no entity with the given id
      * @throws InvalidUserIdException    when there is no user with the given id
      */
+    @Transactional
     public VirtualServer update(Long id, String name, String ipAddress, OSType osType, List<Long> owners){
         VirtualServer virtualServer=this.virtualServerRepository.findById(id).orElseThrow(InvalidVirtualMachineIdException::new);
         List<User> users=this.userRepository.findAllById(owners);
+        List<User> previousOwners=virtualServer.getOwners();
+        OSType previousOSType=virtualServer.getOSType();
 
         virtualServer.setInstanceName(name);
         virtualServer.setIpAddress(ipAddress);
         virtualServer.setOSType(osType);
         virtualServer.setOwners(users);
-        return this.virtualServerRepository.save(virtualServer);
+        virtualServer=this.virtualServerRepository.save(virtualServer);
+        this.ownerIndex.update(virtualServer,previousOwners);
+        this.statistics.update(virtualServer,previousOSType,virtualServer.getTerminated(),previousOwners);
+        return virtualServer;
     }
 
     /**
@@ -81,29 +123,43 @@ public class VirtualServerImpl implements VirtualServerService {
      * @return The entity that is deleted.
      * @throws InvalidVirtualMachineIdException when there is no entity with the given id
      */
+    @Transactional
     public VirtualServer delete(Long id){
         VirtualServer virtualServer=this.virtualServerRepository.findById(id).orElseThrow(InvalidVirtualMachineIdException::new);
         this.virtualServerRepository.delete(virtualServer);
+        this.ownerIndex.remove(virtualServer);
+        this.statistics.remove(virtualServer);
+        this.launchDateIndex.remove(virtualServer);
         return virtualServer;
     }
 
     /**
      * Method that should mark as terminated the virtual server. If the id is invalid, it should throw InvalidVirtualMachineIdException.
      *
+     * The flag is set with a conditional update, so when two requests terminate the same server only the one
+     * whose update changed the row moves it to the terminated counts.
+     *
      * @param id
      * @return The entity that should be marked as terminated.
      * @throws InvalidVirtualMachineIdException when there is no entity with the given id
      */
+    @Transactional
     public VirtualServer markTerminated(Long id){
         VirtualServer virtualServer=this.virtualServerRepository.findById(id).orElseThrow(InvalidVirtualMachineIdException::new);
+        boolean changed=this.virtualServerRepository.markTerminatedByIdIn(Collections.singletonList(id))==1;
         virtualServer.setTerminated(true);
-        return this.virtualServerRepository.save(virtualServer);
+        if(changed){
+            this.statistics.update(virtualServer,virtualServer.getOSType(),false,virtualServer.getOwners());
+        }
+        return virtualServer;
     }
 
     /**
      * The implementation of this method should use repository implementation for the filtering.
      * All arguments are nullable. When an argument is null, we should not filter by that attribute
      *
+     * The owner filters are answered by the VirtualServerOwnerIndex, only the found servers are loaded by id.
+     *
      * @return The entities that meet the filtering criteria
      */
    public List<VirtualServer> filter(Long ownerId, Integer activeMoreThanDays){
@@ -114,16 +170,308 @@ public class VirtualServerImpl implements VirtualServerService {
            return this.virtualServerRepository.findAll();
        }else if(ownerId!=null && activeMoreThanDays!=null){
            LocalDate launch=LocalDate.now().minusDays(activeMoreThanDays);
-           User user=this.userRepository.findById(ownerId).orElseThrow(InvalidUserIdException::new);
-           return this.virtualServerRepository.findAllByLaunchDateBeforeAndAndOwnersContaining(launch,user);
+           checkOwner(ownerId);
+           return this.findAllById(this.ownerIndex.findByOwnerLaunchedBefore(ownerId,launch));
        }else if(ownerId!=null)
        {
-           User user=this.userRepository.findById(ownerId).orElseThrow(InvalidUserIdException::new);
-           return this.virtualServerRepository.findAllByOwnersContaining(user);
+           checkOwner(ownerId);
+           return this.findAllById(this.ownerIndex.findByOwner(ownerId));
        }else if(activeMoreThanDays!=null){
            LocalDate launch=LocalDate.now().minusDays(activeMoreThanDays);
            return this.virtualServerRepository.findAllByLaunchDateBefore(launch);
        }
        return null;
    }
+
+    /**
+     * The archive is read only when includeTerminated is true, so the usual filters never touch it.
+     *
+     * @return The entities that meet the filtering criteria, sorted by id
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    public List<VirtualServer> filter(Long ownerId, Integer activeMoreThanDays, boolean includeTerminated){
+        List<VirtualServer> virtualServers=this.filter(ownerId,activeMoreThanDays);
+        if(!includeTerminated){
+            return virtualServers;
+        }
+        LocalDate launch=activeMoreThanDays==null ? null : LocalDate.now().minusDays(activeMoreThanDays);
+        List<ArchivedVirtualServer> archived;
+        if(ownerId!=null){
+            archived=launch==null ? this.archivedVirtualServerRepository.findAllByOwner(ownerId)
+                    : this.archivedVirtualServerRepository.findAllByOwnerAndLaunchDateBefore(ownerId,launch);
+        }else{
+            archived=launch==null ? this.archivedVirtualServerRepository.findAll()
+                    : this.archivedVirtualServerRepository.findAllByLaunchDateBefore(launch);
+        }
+        return merge(virtualServers,archived,Comparator.comparing(VirtualServer::getId));
+    }
+
+    /**
+     * Counts the servers that the filter method returns for the same arguments, from the indexes without loading them.
+     *
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    public long count(Long ownerId, Integer activeMoreThanDays){
+        LocalDate launch=activeMoreThanDays==null ? null : LocalDate.now().minusDays(activeMoreThanDays);
+        if(ownerId!=null){
+            checkOwner(ownerId);
+            return this.ownerIndex.countByOwner(ownerId,launch);
+        }
+        return launch==null ? this.statistics.unarchivedTotal() : this.launchDateIndex.countLaunchedBefore(launch);
+    }
+
+    /**
+     * Returns the servers with an IPv4 address in the given CIDR block, e.g. '194.149.136.0/24'.
+     *
+     * @return The entities in the block, sorted by IP address
+     * @throws InvalidCidrException when the block is not valid
+     */
+    public List<VirtualServer> filterByCidr(String cidr){
+        Ipv4Range range=Ipv4Range.parse(cidr);
+        return this.virtualServerRepository.findAllByIpNumberBetween(range.getFirst(),range.getLast());
+    }
+
+    /**
+     * The same as filterByCidr(cidr), but when includeTerminated is true the archived servers in the block are returned too.
+     *
+     * @return The entities in the block, sorted by IP address
+     * @throws InvalidCidrException when the block is not valid
+     */
+    public List<VirtualServer> filterByCidr(String cidr, boolean includeTerminated){
+        List<VirtualServer> virtualServers=this.filterByCidr(cidr);
+        if(!includeTerminated){
+            return virtualServers;
+        }
+        Ipv4Range range=Ipv4Range.parse(cidr);
+        return merge(virtualServers,this.archivedVirtualServerRepository.findAllByIpNumberBetween(range.getFirst(),range.getLast()),
+                Comparator.comparing(VirtualServer::getIpNumber).thenComparing(VirtualServer::getId));
+    }
+
+    /**
+     * The servers in the block are loaded with their owners, so the owner and launch date are checked on them
+     * instead of loading the servers that filter returns.
+     *
+     * @return The entities in the block that meet the filtering criteria, sorted by IP address
+     * @throws InvalidCidrException when the block is not valid
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    public List<VirtualServer> filterByCidr(String cidr, Long ownerId, Integer activeMoreThanDays, boolean includeTerminated){
+        if(ownerId!=null){
+            checkOwner(ownerId);
+        }
+        List<VirtualServer> virtualServers=this.filterByCidr(cidr,includeTerminated);
+        if(ownerId==null && activeMoreThanDays==null){
+            return virtualServers;
+        }
+        LocalDate launch=activeMoreThanDays==null ? null : LocalDate.now().minusDays(activeMoreThanDays);
+        return virtualServers.stream()
+                .filter(virtualServer -> launch==null
+                        || (virtualServer.getLaunchDate()!=null && virtualServer.getLaunchDate().isBefore(launch)))
+                .filter(virtualServer -> ownerId==null
+                        || virtualServer.getOwners().stream().anyMatch(owner -> ownerId.equals(owner.getId())))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Marks as terminated all virtual servers with the given ids, with one update for every batch of ids.
+     * The rows of a batch are locked while their flags are read, so concurrent terminates of the same server
+     * report TERMINATED and move it in the statistics only once.
+     *
+     * @return TERMINATED, ALREADY_TERMINATED or NOT_FOUND for every id
+     */
+    @Transactional
+    public BulkResult markTerminatedAll(List<Long> ids){
+        BulkResult result=new BulkResult();
+        for(List<Long> chunk:chunks(ids)){
+            Map<Long,Boolean> terminated=new HashMap<>();
+            List<Object[]> servers=this.virtualServerRepository.findTerminatedByIdInForUpdate(chunk);
+            for(Object[] row:servers){
+                terminated.put((Long) row[0],Boolean.TRUE.equals(row[1]));
+            }
+            List<Object[]> links=this.virtualServerRepository.findOwnerLinksByIdIn(chunk);
+            this.virtualServerRepository.markTerminatedByIdIn(chunk);
+            this.statistics.terminateAll(servers,links);
+            for(Long id:chunk){
+                Boolean wasTerminated=terminated.get(id);
+                result.add(id,wasTerminated==null ? BulkOutcome.NOT_FOUND
+                        : wasTerminated ? BulkOutcome.ALREADY_TERMINATED : BulkOutcome.TERMINATED);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes all virtual servers with the given ids together with their owner links, with one delete for every batch of ids.
+     * As in markTerminatedAll the rows are locked while they are read, so a server is subtracted from the statistics once.
+     * The ids that are not in the 'virtual_server' table are deleted from the archive, if they were archived.
+     *
+     * @return DELETED or NOT_FOUND for every id
+     */
+    @Transactional
+    public BulkResult deleteAll(List<Long> ids){
+        BulkResult result=new BulkResult();
+        for(List<Long> chunk:chunks(ids)){
+            Set<Long> existing=new HashSet<>();
+            List<Object[]> servers=this.virtualServerRepository.findTerminatedByIdInForUpdate(chunk);
+            for(Object[] row:servers){
+                existing.add((Long) row[0]);
+            }
+            List<Object[]> links=this.virtualServerRepository.findOwnerLinksByIdIn(chunk);
+            this.virtualServerRepository.deleteOwnerLinksByIdIn(chunk);
+            this.virtualServerRepository.deleteByIdIn(chunk);
+            this.ownerIndex.removeLinks(links);
+            this.statistics.removeAll(servers,links);
+            this.launchDateIndex.removeAll(servers);
+            if(existing.size()<chunk.size()){
+                existing.addAll(deleteArchived(chunk.stream().filter(id -> !existing.contains(id)).collect(Collectors.toList())));
+            }
+            for(Long id:chunk){
+                result.add(id,existing.contains(id) ? BulkOutcome.DELETED : BulkOutcome.NOT_FOUND);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Marks as terminated all virtual servers that the filter method returns for the same arguments.
+     *
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    @Transactional
+    public BulkResult markTerminatedMatching(Long ownerId, Integer activeMoreThanDays){
+        return this.markTerminatedAll(this.matchingIds(ownerId,activeMoreThanDays));
+    }
+
+    /**
+     * Deletes all virtual servers that the filter method returns for the same arguments.
+     *
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    @Transactional
+    public BulkResult deleteMatching(Long ownerId, Integer activeMoreThanDays){
+        return this.deleteAll(this.matchingIds(ownerId,activeMoreThanDays));
+    }
+
+    /**
+     * The counts are kept by the FleetStatisticsIndex, so this does not read the servers.
+     *
+     * @return The number of active and terminated servers of every OS type
+     */
+    public FleetStatistics statistics(){
+        return this.statistics.fleet();
+    }
+
+    /**
+     * @return The number of active and terminated servers of every OS type that the user owns
+     * @throws InvalidUserIdException when there is no user with the given id
+     */
+    public FleetStatistics statisticsByOwner(Long ownerId){
+        checkOwner(ownerId);
+        return this.statistics.owner(ownerId);
+    }
+
+    /**
+     * Copies the servers and their owner links to the archive tables with one statement each, and deletes them from
+     * the 'virtual_server' tables. For the indexes the archived servers are deleted, the statistics keep them as terminated.
+     *
+     * @return The number of servers that were moved, 0 when there are no terminated servers left
+     */
+    @Transactional
+    public int archiveTerminated(int batchSize){
+        List<Long> ids=this.virtualServerRepository.findTerminatedIds(PageRequest.of(0,batchSize));
+        if(ids.isEmpty()){
+            return 0;
+        }
+        List<Object[]> servers=this.virtualServerRepository.findTerminatedByIdInForUpdate(ids);
+        ids=servers.stream().map(server -> (Long) server[0]).collect(Collectors.toList());
+        if(ids.isEmpty()){
+            return 0;
+        }
+        List<Object[]> links=this.virtualServerRepository.findOwnerLinksByIdIn(ids);
+        this.archivedVirtualServerRepository.archiveByIdIn(ids);
+        this.archivedVirtualServerRepository.archiveOwnerLinksByIdIn(ids);
+        this.virtualServerRepository.deleteOwnerLinksByIdIn(ids);
+        this.virtualServerRepository.deleteByIdIn(ids);
+        this.ownerIndex.removeLinks(links);
+        this.statistics.archiveAll(servers);
+        this.launchDateIndex.removeAll(servers);
+        return ids.size();
+    }
+
+    /**
+     * Deletes the archived servers with the given ids and subtracts them from the terminated statistics.
+     *
+     * @return The ids of the servers that were in the archive
+     */
+    private List<Long> deleteArchived(List<Long> ids){
+        List<Object[]> servers=this.archivedVirtualServerRepository.findOSTypeByIdInForUpdate(ids);
+        if(servers.isEmpty()){
+            return Collections.emptyList();
+        }
+        List<Long> archived=servers.stream().map(server -> (Long) server[0]).collect(Collectors.toList());
+        List<Object[]> links=this.archivedVirtualServerRepository.findOwnerLinksByIdIn(archived);
+        this.archivedVirtualServerRepository.deleteOwnerLinksByIdIn(archived);
+        this.archivedVirtualServerRepository.deleteByIdIn(archived);
+        this.statistics.removeArchived(servers,links);
+        return archived;
+    }
+
+    /**
+     * The ids of the servers that filter returns, without loading the servers.
+     */
+    private List<Long> matchingIds(Long ownerId, Integer activeMoreThanDays){
+        LocalDate launch=activeMoreThanDays==null ? null : LocalDate.now().minusDays(activeMoreThanDays);
+        if(ownerId==null){
+            if(launch==null){
+                return this.virtualServerRepository.findAllIds();
+            }
+            return Arrays.stream(this.launchDateIndex.findLaunchedBefore(launch)).boxed().collect(Collectors.toList());
+        }
+        checkOwner(ownerId);
+        long[] ids=launch==null ? this.ownerIndex.findByOwner(ownerId) : this.ownerIndex.findByOwnerLaunchedBefore(ownerId,launch);
+        return Arrays.stream(ids).boxed().collect(Collectors.toList());
+    }
+
+    private static List<VirtualServer> merge(List<VirtualServer> virtualServers, List<ArchivedVirtualServer> archived,
+                                             Comparator<VirtualServer> order){
+        List<VirtualServer> merged=new ArrayList<>(virtualServers.size()+archived.size());
+        merged.addAll(virtualServers);
+        for(ArchivedVirtualServer archivedVirtualServer:archived){
+            merged.add(archivedVirtualServer.toVirtualServer());
+        }
+        merged.sort(order);
+        return merged;
+    }
+
+    private static List<List<Long>> chunks(List<Long> ids){
+        List<Long> distinct=ids.stream().distinct().collect(Collectors.toList());
+        List<List<Long>> chunks=new ArrayList<>();
+        for(int from=0;from<distinct.size();from+=ID_CHUNK_SIZE){
+            chunks.add(distinct.subList(from,Math.min(distinct.size(),from+ID_CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    private void checkOwner(Long ownerId){
+        if(!this.userRepository.existsById(ownerId)){
+            throw new InvalidUserIdException();
+        }
+    }
+
+    /**
+     * Loads the servers with the given sorted ids in chunks, so an owner with many servers does not make one huge 'in' list.
+     *
+     * @return The servers sorted by id
+     */
+    private List<VirtualServer> findAllById(long[] ids){
+        List<VirtualServer> virtualServers=new ArrayList<>(ids.length);
+        for(int from=0;from<ids.length;from+=ID_CHUNK_SIZE){
+            List<Long> chunk=new ArrayList<>();
+            for(int i=from;i<Math.min(ids.length,from+ID_CHUNK_SIZE);i++){
+                chunk.add(ids[i]);
+            }
+            virtualServers.addAll(this.virtualServerRepository.findAllWithOwnersByIdIn(chunk));
+        }
+        return virtualServers;
+    }
 }
@@ -0,0 +1,295 @@
+package mk.ukim.finki.wp.june2022.g1.service.impl;
+
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory inverted index from the id of a user to the ids of the virtual servers it owns.
+ *
+ * The servers of every owner are kept in two parallel primitive arrays sorted by launch date and then by id,
+ * so the servers of an owner launched before a date are a prefix of the arrays that is found with a binary search,
+ * without reading the join table. A third array holds the same ids sorted by id, so all servers of an owner,
+ * or a prefix that holds all of them, are returned with a copy instead of a sort. The arrays are never changed
+ * after they are published, a change builds new arrays, so the lookups do not lock.
+ *
+ * VirtualServerImpl keeps the index up to date on create, update and delete, after the transaction commits.
+ * It is filled from the database when the application starts.
+ */
+@Component
+public class VirtualServerOwnerIndex {
+
+    /**
+     * Launch day of the servers without a launch date, they are never launched before a date.
+     */
+    private static final int NO_LAUNCH_DATE = Integer.MAX_VALUE;
+
+    private static final Servers EMPTY = new Servers(new int[0], new long[0], new long[0]);
+
+    private final Map<Long, Servers> owners = new ConcurrentHashMap<>();
+
+    private final VirtualServerRepository virtualServerRepository;
+
+    public VirtualServerOwnerIndex(VirtualServerRepository virtualServerRepository) {
+        this.virtualServerRepository = virtualServerRepository;
+        reload();
+    }
+
+    /**
+     * Reads the owner links again from the database, for servers that were written without VirtualServerService.
+     */
+    public synchronized void reload() {
+        Map<Long, Loader> loaded = new HashMap<>();
+        for (Object[] row : this.virtualServerRepository.findAllOwnerLinks()) {
+            loaded.computeIfAbsent((Long) row[1], owner -> new Loader()).append(day((LocalDate) row[2]), (Long) row[0]);
+        }
+        loaded.forEach((owner, servers) -> this.owners.put(owner, servers.build()));
+        this.owners.keySet().retainAll(loaded.keySet());
+    }
+
+    /**
+     * @return The ids of the servers of the owner, sorted by id
+     */
+    public long[] findByOwner(Long ownerId) {
+        return this.owners.getOrDefault(ownerId, EMPTY).all();
+    }
+
+    /**
+     * @return The ids of the servers of the owner that were launched strictly before the given date, sorted by id
+     */
+    public long[] findByOwnerLaunchedBefore(Long ownerId, LocalDate launch) {
+        return this.owners.getOrDefault(ownerId, EMPTY).ids(day(launch));
+    }
+
+    /**
+     * @return The number of servers of the owner that were launched strictly before the given date,
+     * or of all servers of the owner when the date is null
+     */
+    public int countByOwner(Long ownerId, LocalDate launch) {
+        Servers servers = this.owners.getOrDefault(ownerId, EMPTY);
+        return launch == null ? servers.ids.length : servers.position(day(launch), Long.MIN_VALUE);
+    }
+
+    /**
+     * Adds the links of the server after the transaction commits.
+     */
+    public void add(VirtualServer virtualServer) {
+        int day = day(virtualServer.getLaunchDate());
+        long id = virtualServer.getId();
+        long[] owners = ownerIds(virtualServer.getOwners());
+        AfterCommit.run(() -> insert(day, id, owners));
+    }
+
+    /**
+     * Replaces the links of the server after the transaction commits.
+     *
+     * @param previousOwners The owners of the server before it was changed
+     */
+    public void update(VirtualServer virtualServer, Collection<User> previousOwners) {
+        // the launch date of a server does not change after it is created
+        int day = day(virtualServer.getLaunchDate());
+        long id = virtualServer.getId();
+        long[] previous = ownerIds(previousOwners);
+        long[] owners = ownerIds(virtualServer.getOwners());
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                delete(day, id, previous);
+                insert(day, id, owners);
+            }
+        });
+    }
+
+    /**
+     * Removes the links of the server after the transaction commits.
+     */
+    public void remove(VirtualServer virtualServer) {
+        int day = day(virtualServer.getLaunchDate());
+        long id = virtualServer.getId();
+        long[] owners = ownerIds(virtualServer.getOwners());
+        AfterCommit.run(() -> delete(day, id, owners));
+    }
+
+    /**
+     * Removes the links of servers that were deleted in bulk, after the transaction commits.
+     *
+     * @param links The server id, owner id and launch date of every link, as returned by VirtualServerRepository
+     */
+    public void removeLinks(List<Object[]> links) {
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                for (Object[] link : links) {
+                    Long owner = (Long) link[1];
+                    Servers servers = this.owners.getOrDefault(owner, EMPTY).remove(day((LocalDate) link[2]), (Long) link[0]);
+                    if (servers.ids.length == 0) {
+                        this.owners.remove(owner);
+                    } else {
+                        this.owners.put(owner, servers);
+                    }
+                }
+            }
+        });
+    }
+
+    private synchronized void insert(int day, long id, long[] owners) {
+        for (long owner : owners) {
+            this.owners.put(owner, this.owners.getOrDefault(owner, EMPTY).insert(day, id));
+        }
+    }
+
+    private synchronized void delete(int day, long id, long[] owners) {
+        for (long owner : owners) {
+            Servers servers = this.owners.getOrDefault(owner, EMPTY).remove(day, id);
+            if (servers.ids.length == 0) {
+                this.owners.remove(owner);
+            } else {
+                this.owners.put(owner, servers);
+            }
+        }
+    }
+
+    private static long[] ownerIds(Collection<User> owners) {
+        if (owners == null) {
+            return new long[0];
+        }
+        // a server can list the same owner twice
+        return owners.stream().mapToLong(User::getId).distinct().toArray();
+    }
+
+    private static int day(LocalDate date) {
+        return date == null ? NO_LAUNCH_DATE : (int) date.toEpochDay();
+    }
+
+    /**
+     * The servers of one owner, sorted by launch day and then by id, and their ids sorted by id.
+     */
+    private static final class Servers {
+        private final int[] days;
+        private final long[] ids;
+        private final long[] byId;
+
+        private Servers(int[] days, long[] ids, long[] byId) {
+            this.days = days;
+            this.ids = ids;
+            this.byId = byId;
+        }
+
+        /**
+         * @return The ids of the servers launched before the given day, sorted by id
+         */
+        private long[] ids(int beforeDay) {
+            int to = position(beforeDay, Long.MIN_VALUE);
+            if (to == this.ids.length) {
+                return all();
+            }
+            long[] result = Arrays.copyOf(this.ids, to);
+            Arrays.sort(result);
+            return result;
+        }
+
+        /**
+         * @return The ids of all servers, also the ones without a launch date, sorted by id
+         */
+        private long[] all() {
+            return this.byId.clone();
+        }
+
+        /**
+         * @return The index of the first server that is not before (day, id)
+         */
+        private int position(int day, long id) {
+            int low = 0;
+            int high = this.ids.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (this.days[middle] < day || this.days[middle] == day && this.ids[middle] < id) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private Servers insert(int day, long id) {
+            int at = position(day, id);
+            if (at < this.ids.length && this.days[at] == day && this.ids[at] == id) {
+                return this;
+            }
+            int[] days = new int[this.days.length + 1];
+            long[] ids = new long[this.ids.length + 1];
+            System.arraycopy(this.days, 0, days, 0, at);
+            System.arraycopy(this.ids, 0, ids, 0, at);
+            days[at] = day;
+            ids[at] = id;
+            System.arraycopy(this.days, at, days, at + 1, this.days.length - at);
+            System.arraycopy(this.ids, at, ids, at + 1, this.ids.length - at);
+            return new Servers(days, ids, insertSorted(this.byId, id));
+        }
+
+        private Servers remove(int day, long id) {
+            int at = position(day, id);
+            if (at == this.ids.length || this.days[at] != day || this.ids[at] != id) {
+                return this;
+            }
+            int[] days = new int[this.days.length - 1];
+            long[] ids = new long[this.ids.length - 1];
+            System.arraycopy(this.days, 0, days, 0, at);
+            System.arraycopy(this.ids, 0, ids, 0, at);
+            System.arraycopy(this.days, at + 1, days, at, days.length - at);
+            System.arraycopy(this.ids, at + 1, ids, at, ids.length - at);
+            return new Servers(days, ids, removeSorted(this.byId, id));
+        }
+
+        private static long[] insertSorted(long[] sorted, long id) {
+            // the id is not in the array, it is in the (day, id) arrays only once
+            int at = -Arrays.binarySearch(sorted, id) - 1;
+            long[] result = new long[sorted.length + 1];
+            System.arraycopy(sorted, 0, result, 0, at);
+            result[at] = id;
+            System.arraycopy(sorted, at, result, at + 1, sorted.length - at);
+            return result;
+        }
+
+        private static long[] removeSorted(long[] sorted, long id) {
+            int at = Arrays.binarySearch(sorted, id);
+            long[] result = new long[sorted.length - 1];
+            System.arraycopy(sorted, 0, result, 0, at);
+            System.arraycopy(sorted, at + 1, result, at, result.length - at);
+            return result;
+        }
+    }
+
+    /**
+     * Collects the servers of one owner while the index is loaded, they arrive sorted by launch day and id.
+     */
+    private static final class Loader {
+        private int size;
+        private int[] days = new int[4];
+        private long[] ids = new long[4];
+
+        private void append(int day, long id) {
+            if (this.size == this.ids.length) {
+                this.days = Arrays.copyOf(this.days, this.size * 2);
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+            }
+            this.days[this.size] = day;
+            this.ids[this.size++] = id;
+        }
+
+        private Servers build() {
+            long[] ids = Arrays.copyOf(this.ids, this.size);
+            long[] byId = ids.clone();
+            Arrays.sort(byId);
+            return new Servers(Arrays.copyOf(this.days, this.size), ids, byId);
+        }
+    }
+}
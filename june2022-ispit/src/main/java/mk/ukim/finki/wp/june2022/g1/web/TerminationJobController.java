@@ -0,0 +1,65 @@
+package mk.ukim.finki.wp.june2022.g1.web;
+
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJob;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidTerminationJobIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.TerminationQueueFullException;
+import mk.ukim.finki.wp.june2022.g1.service.TerminationJobService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+@RestController
+public class TerminationJobController {
+
+    private final TerminationJobService service;
+
+    public TerminationJobController(TerminationJobService service) {
+        this.service = service;
+    }
+
+    /**
+     * This method should queue the termination of the virtual server that has the appropriate identifier.
+     * The method should be mapped on path '/VirtualServers/[id]/terminate-job'.
+     *
+     * @return The queued job with status 202, its id is used on '/TerminationJobs/[id]'.
+     */
+    @PostMapping("/VirtualServers/{id}/terminate-job")
+    public ResponseEntity<TerminationJob> enqueue(@PathVariable Long id) {
+        try {
+            return ResponseEntity.accepted().body(this.service.enqueue(id));
+        } catch (InvalidVirtualMachineIdException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        } catch (TerminationQueueFullException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many termination jobs are waiting");
+        }
+    }
+
+    /**
+     * This method should return the job that has the appropriate identifier.
+     * The method should be mapped on path '/TerminationJobs/[id]'.
+     */
+    @GetMapping("/TerminationJobs/{id}")
+    public TerminationJob find(@PathVariable Long id) {
+        try {
+            return this.service.findById(id);
+        } catch (InvalidTerminationJobIdException e) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /**
+     * This method should return the queue depth and latency of the termination jobs.
+     * The method should be mapped on path '/TerminationJobs/metrics'.
+     */
+    @GetMapping("/TerminationJobs/metrics")
+    public Map<String, Long> metrics() {
+        return this.service.metrics();
+    }
+}
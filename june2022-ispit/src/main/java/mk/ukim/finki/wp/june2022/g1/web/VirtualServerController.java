@@ -1,16 +1,22 @@
 package mk.ukim.finki.wp.june2022.g1.web;
 
+import mk.ukim.finki.wp.june2022.g1.model.BulkResult;
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
 import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
 import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidCidrException;
 import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
 import mk.ukim.finki.wp.june2022.g1.service.UserService;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 
 
 import java.time.LocalDate;
@@ -31,17 +37,28 @@ public class VirtualServerController {
      * This method should use the "list.html" template to display all entities.
      * The method should be mapped on paths '/' and '/VirtualServers'.
      * The arguments that this method takes are optional and can be 'null'.
+     * The 'cidr' argument, e.g. '194.149.136.0/24', shows only the servers with an IP address in that block,
+     * a block that is not valid is answered with 400.
+     * The archived terminated servers are shown only with 'includeTerminated=true'.
      *
      * @return The view "list.html".
      */
     @GetMapping(value = {"/","/VirtualServers"})
     public String showList(@RequestParam(required = false) Integer activeMoreThanDays,
-                           @RequestParam(required = false) Long ownerId, Model model) {
+                           @RequestParam(required = false) Long ownerId,
+                           @RequestParam(required = false) String cidr,
+                           @RequestParam(defaultValue = "false") boolean includeTerminated, Model model) {
         List<VirtualServer> virtualServers;
-        if (ownerId == null && activeMoreThanDays == null) {
+        if (cidr != null && !cidr.isBlank()) {
+            try {
+                virtualServers = this.service.filterByCidr(cidr.trim(), ownerId, activeMoreThanDays, includeTerminated);
+            } catch (InvalidCidrException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Not a valid CIDR block: " + cidr);
+            }
+        } else if (ownerId == null && activeMoreThanDays == null && !includeTerminated) {
             virtualServers = this.service.listAll();
         } else {
-            virtualServers = this.service.filter(ownerId, activeMoreThanDays);
+            virtualServers = this.service.filter(ownerId, activeMoreThanDays, includeTerminated);
         }
         model.addAttribute("virtualServers",virtualServers);
         model.addAttribute("owners",this.userService.listAll());
@@ -136,4 +153,76 @@ public class VirtualServerController {
         this.service.markTerminated(id);
         return "redirect:/VirtualServers";
     }
+
+    /**
+     * This method should mark as terminated the virtual servers with the given ids, or all virtual servers that match
+     * the filter arguments when no ids are given. Matching every virtual server requires 'all=true'.
+     * The method should be mapped on path '/VirtualServers/bulk/terminate'.
+     *
+     * @return The outcome for every id as JSON.
+     */
+    @PostMapping("/VirtualServers/bulk/terminate")
+    @ResponseBody
+    public BulkResult bulkTerminate(@RequestParam(required = false) List<Long> ids,
+                                    @RequestParam(required = false) Long ownerId,
+                                    @RequestParam(required = false) Integer activeMoreThanDays,
+                                    @RequestParam(defaultValue = "false") boolean all) {
+        if (ids != null) {
+            return this.service.markTerminatedAll(ids);
+        }
+        checkBulkFilter(ownerId, activeMoreThanDays, all);
+        return this.service.markTerminatedMatching(ownerId, activeMoreThanDays);
+    }
+
+    /**
+     * This method should delete the virtual servers with the given ids, or all virtual servers that match
+     * the filter arguments when no ids are given. Matching every virtual server requires 'all=true'.
+     * The method should be mapped on path '/VirtualServers/bulk/delete'.
+     *
+     * @return The outcome for every id as JSON.
+     */
+    @PostMapping("/VirtualServers/bulk/delete")
+    @ResponseBody
+    public BulkResult bulkDelete(@RequestParam(required = false) List<Long> ids,
+                                 @RequestParam(required = false) Long ownerId,
+                                 @RequestParam(required = false) Integer activeMoreThanDays,
+                                 @RequestParam(defaultValue = "false") boolean all) {
+        if (ids != null) {
+            return this.service.deleteAll(ids);
+        }
+        checkBulkFilter(ownerId, activeMoreThanDays, all);
+        return this.service.deleteMatching(ownerId, activeMoreThanDays);
+    }
+
+    /**
+     * This method should return the number of virtual servers that the list shows for the same filter arguments.
+     * The method should be mapped on path '/VirtualServers/count'.
+     *
+     * @return The number as JSON.
+     */
+    @GetMapping("/VirtualServers/count")
+    @ResponseBody
+    public long count(@RequestParam(required = false) Long ownerId,
+                      @RequestParam(required = false) Integer activeMoreThanDays) {
+        return this.service.count(ownerId, activeMoreThanDays);
+    }
+
+    /**
+     * This method should return the number of active and terminated virtual servers of every OS type,
+     * of the whole fleet or of the owner with the given id.
+     * The method should be mapped on path '/VirtualServers/statistics'.
+     *
+     * @return The statistics as JSON.
+     */
+    @GetMapping("/VirtualServers/statistics")
+    @ResponseBody
+    public FleetStatistics statistics(@RequestParam(required = false) Long ownerId) {
+        return ownerId == null ? this.service.statistics() : this.service.statisticsByOwner(ownerId);
+    }
+
+    private static void checkBulkFilter(Long ownerId, Integer activeMoreThanDays, boolean all) {
+        if (ownerId == null && activeMoreThanDays == null && !all) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Give ids, a filter or all=true");
+        }
+    }
 }
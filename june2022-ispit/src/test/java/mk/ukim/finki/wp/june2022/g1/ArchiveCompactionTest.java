@@ -0,0 +1,155 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.BulkOutcome;
+import mk.ukim.finki.wp.june2022.g1.model.BulkResult;
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import mk.ukim.finki.wp.june2022.g1.service.impl.ArchiveCompactionJob;
+import mk.ukim.finki.wp.june2022.g1.service.impl.FleetStatisticsIndex;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:archive",
+        "archive.compaction.batch-size=2"
+})
+@AutoConfigureMockMvc
+@WithMockUser
+public class ArchiveCompactionTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    ArchiveCompactionJob compactionJob;
+
+    @Autowired
+    FleetStatisticsIndex statisticsIndex;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void terminatedServersMoveToTheArchiveWithTheirOwners() throws Exception {
+        List<User> users = this.userService.listAll();
+        User owner = this.userService.create("archive-owner", "pass", "ROLE_USER");
+        List<Long> owners = Arrays.asList(owner.getId(), users.get(0).getId());
+        VirtualServer active = this.service.create("Active", "10.9.0.1", OSType.UBUNTU, owners, LocalDate.now().minusDays(20));
+        VirtualServer[] terminated = new VirtualServer[3];
+        for (int i = 0; i < terminated.length; i++) {
+            terminated[i] = this.service.create("Terminated " + i, "10.9.0." + (10 + i), OSType.WINDOWS, owners,
+                    LocalDate.now().minusDays(10 * i));
+            this.service.markTerminated(terminated[i].getId());
+        }
+        // any other terminated servers are archived too, in batches of 2
+        this.compactionJob.compact();
+        long total = this.service.count(null, null);
+        long terminatedTotal = this.service.statistics().getTerminated();
+        long ownerTerminated = this.service.statisticsByOwner(owner.getId()).getTerminated();
+        long ownerTotal = this.service.count(owner.getId(), null);
+        int links = rows("virtual_server_owners");
+        int archivedLinks = rows("archived_virtual_server_owners");
+
+        VirtualServer last = this.service.create("Terminated late", "10.9.0.20", OSType.DEBIAN,
+                Arrays.asList(owner.getId()), LocalDate.now().minusDays(30));
+        this.service.markTerminated(last.getId());
+        Assertions.assertEquals(1, this.compactionJob.compact());
+        Assertions.assertEquals(0, this.compactionJob.compact());
+
+        Assertions.assertEquals(total, this.service.count(null, null));
+        Assertions.assertEquals(total, this.service.listAll().size());
+        // the archived servers stay in the terminated counts, also when the counts are loaded again
+        Assertions.assertEquals(rows("archived_virtual_server"), this.service.statistics().getTerminated());
+        Assertions.assertEquals(terminatedTotal + 1, this.service.statistics().getTerminated());
+        Assertions.assertEquals(total + rows("archived_virtual_server"), this.service.statistics().getTotal());
+        Assertions.assertEquals(ownerTerminated + 1, this.service.statisticsByOwner(owner.getId()).getTerminated());
+        FleetStatistics statistics = this.service.statistics();
+        this.statisticsIndex.reload();
+        for (OSType osType : OSType.values()) {
+            for (boolean state : new boolean[]{false, true}) {
+                Assertions.assertEquals(statistics.getCount(osType, state),
+                        this.service.statistics().getCount(osType, state));
+            }
+        }
+        Assertions.assertEquals(total, this.service.count(null, null));
+        Assertions.assertEquals(ownerTotal, this.service.count(owner.getId(), null));
+        Assertions.assertEquals(links, rows("virtual_server_owners"));
+        Assertions.assertEquals(archivedLinks + 1, rows("archived_virtual_server_owners"));
+        Assertions.assertThrows(InvalidVirtualMachineIdException.class, () -> this.service.findById(last.getId()));
+
+        // the active set no longer has them, the flag unions in the archive
+        Assertions.assertEquals(Arrays.asList(active.getId()), ids(this.service.filter(owner.getId(), null)));
+        List<VirtualServer> all = this.service.filter(owner.getId(), null, true);
+        Assertions.assertEquals(Arrays.asList(active.getId(), terminated[0].getId(), terminated[1].getId(),
+                terminated[2].getId(), last.getId()), ids(all));
+        VirtualServer archived = all.get(3);
+        Assertions.assertTrue(archived.getTerminated());
+        Assertions.assertEquals("Terminated 2", archived.getInstanceName());
+        Assertions.assertEquals(OSType.WINDOWS, archived.getOSType());
+        Assertions.assertEquals(LocalDate.now().minusDays(20), archived.getLaunchDate());
+        Assertions.assertEquals(2, archived.getOwners().size());
+
+        Assertions.assertEquals(Arrays.asList(active.getId(), terminated[2].getId(), last.getId()),
+                ids(this.service.filter(owner.getId(), 15, true)));
+        Assertions.assertEquals(Arrays.asList(active.getId()), ids(this.service.filterByCidr("10.9.0.0/24")));
+        Assertions.assertEquals(Arrays.asList(active.getId(), terminated[0].getId(), terminated[1].getId(),
+                terminated[2].getId(), last.getId()), ids(this.service.filterByCidr("10.9.0.0/24", true)));
+        Assertions.assertTrue(ids(this.service.filter(null, 25, true)).contains(last.getId()));
+        Assertions.assertEquals(total + rows("archived_virtual_server"),
+                this.service.filter(null, null, true).size());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/VirtualServers").param("ownerId", owner.getId().toString()))
+                .andExpect(MockMvcResultMatchers.model().attribute("virtualServers", Matchers.hasSize(1)));
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/VirtualServers").param("ownerId", owner.getId().toString())
+                        .param("includeTerminated", "true"))
+                .andExpect(MockMvcResultMatchers.model().attribute("virtualServers", Matchers.hasSize(5)))
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.containsString(
+                        "/VirtualServers/" + active.getId() + "/terminate")))
+                .andExpect(MockMvcResultMatchers.content().string(Matchers.not(Matchers.containsString(
+                        "/VirtualServers/" + last.getId() + "/terminate"))));
+
+        // deleting an archived server removes it from the archive and from the terminated counts
+        long terminatedBefore = this.service.statistics().getTerminated();
+        BulkResult result = this.service.deleteAll(Arrays.asList(last.getId(), -1L));
+        Assertions.assertEquals(BulkOutcome.DELETED, result.getResults().get(last.getId()));
+        Assertions.assertEquals(BulkOutcome.NOT_FOUND, result.getResults().get(-1L));
+        Assertions.assertEquals(terminatedBefore - 1, this.service.statistics().getTerminated());
+        Assertions.assertEquals(ownerTerminated, this.service.statisticsByOwner(owner.getId()).getTerminated());
+        Assertions.assertEquals(archivedLinks, rows("archived_virtual_server_owners"));
+        Assertions.assertEquals(total, this.service.count(null, null));
+        Assertions.assertFalse(ids(this.service.filter(owner.getId(), null, true)).contains(last.getId()));
+    }
+
+    private int rows(String table) {
+        return this.jdbcTemplate.queryForObject("select count(*) from " + table, Integer.class);
+    }
+
+    private static List<Long> ids(List<VirtualServer> virtualServers) {
+        return virtualServers.stream().map(VirtualServer::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,90 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.repository.UserRepository;
+import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:fleet",
+        "fleet.users=50",
+        "fleet.servers=2000",
+        "fleet.ip-range=172.16.0.0/12",
+        "fleet.launch-period=P2Y",
+        "fleet.batch-size=300"
+})
+@ActiveProfiles("fleet")
+public class FleetGeneratorTest {
+
+    private static final long FIRST_ID = 1_000_000_000L;
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    VirtualServerRepository virtualServerRepository;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    UserDetailsService userDetailsService;
+
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void theFleetFollowsTheSettings() {
+        Assertions.assertEquals(2000, this.service.filterByCidr("172.16.0.0/12").size());
+        Assertions.assertEquals(56, this.userRepository.count());
+        Assertions.assertEquals(2010, this.virtualServerRepository.count());
+        Assertions.assertTrue(this.virtualServerRepository.findAllByLaunchDateBefore(LocalDate.now().minusYears(2)).isEmpty());
+
+        int links = this.jdbcTemplate.queryForObject("select count(*) from virtual_server_owners where virtual_server_id >= ?",
+                Integer.class, FIRST_ID);
+        // 1.5 owners per server on average
+        Assertions.assertTrue(links > 2800 && links < 3200, "links: " + links);
+
+        FleetStatistics statistics = this.service.statistics();
+        Assertions.assertEquals(2010, statistics.getTotal());
+        Assertions.assertTrue(statistics.getTerminated() > 120 && statistics.getTerminated() < 280);
+        for (OSType osType : OSType.values()) {
+            Assertions.assertTrue(statistics.getCount(osType, false) > 200, osType.name());
+        }
+
+        // the indexes were reloaded after the inserts
+        for (long owner = FIRST_ID; owner < FIRST_ID + 50; owner += 7) {
+            User user = this.userRepository.findById(owner).get();
+            List<Long> expected = ids(this.virtualServerRepository.findAllByOwnersContaining(user));
+            Assertions.assertEquals(expected, ids(this.service.filter(owner, null)));
+            Assertions.assertEquals(expected.size(), this.service.count(owner, null));
+        }
+        Assertions.assertEquals(this.virtualServerRepository.findAllByLaunchDateBefore(LocalDate.now().minusDays(300)).size(),
+                this.service.count(null, 300));
+
+        Assertions.assertTrue(this.passwordEncoder.matches("pass",
+                this.userDetailsService.loadUserByUsername("fleet-user-3").getPassword()));
+    }
+
+    private static List<Long> ids(List<VirtualServer> virtualServers) {
+        return virtualServers.stream().map(VirtualServer::getId).sorted().collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,111 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.repository.ArchivedVirtualServerRepository;
+import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import mk.ukim.finki.wp.june2022.g1.service.impl.FleetStatisticsIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:statistics")
+@AutoConfigureMockMvc
+@WithMockUser
+public class FleetStatisticsTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    VirtualServerRepository virtualServerRepository;
+
+    @Autowired
+    ArchivedVirtualServerRepository archivedVirtualServerRepository;
+
+    @Test
+    public void statisticsFollowEveryChange() {
+        List<User> users = this.userService.listAll();
+        User owner = this.userService.create("statistics-owner", "pass", "ROLE_USER");
+        long ubuntu = this.service.statistics().getCount(OSType.UBUNTU, false);
+
+        VirtualServer first = this.service.create("Stats 1", "10.5.0.1", OSType.UBUNTU,
+                Arrays.asList(owner.getId(), owner.getId()), LocalDate.now());
+        VirtualServer second = this.service.create("Stats 2", "10.5.0.2", OSType.UBUNTU,
+                Arrays.asList(owner.getId(), users.get(0).getId()), LocalDate.now());
+        VirtualServer third = this.service.create("Stats 3", "10.5.0.3", OSType.DEBIAN,
+                Arrays.asList(owner.getId()), LocalDate.now());
+        Assertions.assertEquals(ubuntu + 2, this.service.statistics().getCount(OSType.UBUNTU, false));
+        Assertions.assertEquals(2, this.service.statisticsByOwner(owner.getId()).getCount(OSType.UBUNTU, false));
+        assertMatchesTheDatabase(owner);
+
+        this.service.update(first.getId(), "Stats 1", "10.5.0.1", OSType.WINDOWS, Arrays.asList(users.get(0).getId()));
+        this.service.markTerminated(second.getId());
+        this.service.markTerminated(second.getId());
+        FleetStatistics owned = this.service.statisticsByOwner(owner.getId());
+        Assertions.assertEquals(0, owned.getCount(OSType.UBUNTU, false));
+        Assertions.assertEquals(1, owned.getCount(OSType.UBUNTU, true));
+        Assertions.assertEquals(1, owned.getActive());
+        assertMatchesTheDatabase(owner);
+
+        this.service.markTerminatedAll(Arrays.asList(second.getId(), third.getId()));
+        assertMatchesTheDatabase(owner);
+
+        this.service.delete(first.getId());
+        this.service.deleteAll(Arrays.asList(second.getId(), third.getId(), -1L));
+        Assertions.assertEquals(0, this.service.statisticsByOwner(owner.getId()).getTotal());
+        assertMatchesTheDatabase(owner);
+    }
+
+    @Test
+    public void statisticsAreServedAsJson() throws Exception {
+        FleetStatistics statistics = this.service.statistics();
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/VirtualServers/statistics"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.total").value(statistics.getTotal()))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.byOsType.DEBIAN.active")
+                        .value(statistics.getCount(OSType.DEBIAN, false)));
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/VirtualServers/statistics")
+                        .param("ownerId", this.userService.listAll().get(0).getId().toString()))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.byOsType.UBUNTU.terminated").exists());
+    }
+
+    /**
+     * The kept counts are the same as the counts of a new index that is loaded from the database.
+     */
+    private void assertMatchesTheDatabase(User owner) {
+        FleetStatisticsIndex loaded = new FleetStatisticsIndex(this.virtualServerRepository,
+                this.archivedVirtualServerRepository);
+        long total = this.service.listAll().size();
+        Assertions.assertEquals(total, this.service.statistics().getTotal());
+        for (OSType osType : OSType.values()) {
+            for (boolean terminated : new boolean[]{false, true}) {
+                Assertions.assertEquals(loaded.fleet().getCount(osType, terminated),
+                        this.service.statistics().getCount(osType, terminated));
+                Assertions.assertEquals(loaded.owner(owner.getId()).getCount(osType, terminated),
+                        this.service.statisticsByOwner(owner.getId()).getCount(osType, terminated));
+            }
+        }
+    }
+}
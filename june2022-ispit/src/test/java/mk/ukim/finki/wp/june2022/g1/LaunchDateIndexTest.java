@@ -0,0 +1,90 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import mk.ukim.finki.wp.june2022.g1.service.impl.LaunchDateIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:launch-date-index")
+@AutoConfigureMockMvc
+@WithMockUser
+public class LaunchDateIndexTest {
+
+    private static final int[] DAYS = {0, 1, 2, 3, 5, 10, 29, 30, 31, 400, 401, 5000};
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    VirtualServerRepository repository;
+
+    @Autowired
+    LaunchDateIndex launchDateIndex;
+
+    @Test
+    public void dateFilterAndCountMatchTheRepositoryQuery() {
+        User owner = this.userService.listAll().get(0);
+        List<VirtualServer> created = new ArrayList<>();
+        for (int days : new int[]{30, 30, 31, 400, 400, 1, 0}) {
+            created.add(this.service.create("Launched " + days, "10.6.0." + created.size(), OSType.DEBIAN,
+                    Arrays.asList(owner.getId()), LocalDate.now().minusDays(days)));
+        }
+        this.service.create("Not launched", "10.6.1.1", OSType.DEBIAN, Arrays.asList(owner.getId()), null);
+        assertMatchesTheRepository(owner);
+
+        this.service.delete(created.get(0).getId());
+        this.service.deleteAll(Arrays.asList(created.get(3).getId(), created.get(4).getId()));
+        assertMatchesTheRepository(owner);
+
+        int size = this.launchDateIndex.size();
+        this.launchDateIndex.reload();
+        Assertions.assertEquals(size, this.launchDateIndex.size());
+        assertMatchesTheRepository(owner);
+        Assertions.assertEquals(this.service.listAll().size(), this.service.count(null, null));
+    }
+
+    @Test
+    public void countIsServedAsJson() throws Exception {
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/VirtualServers/count").param("activeMoreThanDays", "2"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().string(String.valueOf(this.service.filter(null, 2).size())));
+    }
+
+    private void assertMatchesTheRepository(User owner) {
+        for (int days : DAYS) {
+            List<Long> expected = ids(this.repository.findAllByLaunchDateBefore(LocalDate.now().minusDays(days)));
+            Assertions.assertEquals(expected, ids(this.service.filter(null, days)));
+            Assertions.assertEquals(expected.size(), this.service.count(null, days));
+            Assertions.assertEquals(this.service.filter(owner.getId(), days).size(), this.service.count(owner.getId(), days));
+        }
+        Assertions.assertEquals(this.service.filter(owner.getId(), null).size(), this.service.count(owner.getId(), null));
+    }
+
+    private static List<Long> ids(List<VirtualServer> virtualServers) {
+        return virtualServers.stream().map(VirtualServer::getId).collect(Collectors.toList());
+    }
+}
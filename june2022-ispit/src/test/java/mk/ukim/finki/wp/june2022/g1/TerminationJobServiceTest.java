@@ -0,0 +1,170 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJob;
+import mk.ukim.finki.wp.june2022.g1.model.TerminationJobStatus;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidTerminationJobIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.TerminationQueueFullException;
+import mk.ukim.finki.wp.june2022.g1.repository.TerminationJobRepository;
+import mk.ukim.finki.wp.june2022.g1.service.TerminationJobService;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import mk.ukim.finki.wp.june2022.g1.service.impl.TerminationJobServiceImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:termination-jobs",
+        "termination.jobs.teardown-delay=PT0.05S"
+})
+@AutoConfigureMockMvc
+@WithMockUser
+public class TerminationJobServiceTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    TerminationJobService terminationJobService;
+
+    @Autowired
+    VirtualServerService virtualServerService;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    TerminationJobRepository terminationJobRepository;
+
+    @Test
+    public void jobsTerminateTheServerInTheBackground() throws Exception {
+        VirtualServer server = this.virtualServerService.create("Job", "10.4.0.1", OSType.UBUNTU,
+                Arrays.asList(this.userService.listAll().get(0).getId()), LocalDate.now());
+
+        TerminationJob job = this.terminationJobService.enqueue(server.getId());
+        Assertions.assertEquals(TerminationJobStatus.PENDING, job.getStatus());
+        job = await(job.getId());
+        Assertions.assertEquals(TerminationJobStatus.DONE, job.getStatus());
+        Assertions.assertTrue(this.virtualServerService.findById(server.getId()).getTerminated());
+        Assertions.assertFalse(job.getStarted().isBefore(job.getCreated()));
+        Assertions.assertTrue(job.getFinished().toEpochMilli() - job.getStarted().toEpochMilli() >= 50);
+
+        Map<String, Long> metrics = this.terminationJobService.metrics();
+        Assertions.assertTrue(metrics.get("done") >= 1);
+        Assertions.assertTrue(metrics.get("maxRunMillis") >= 50);
+        Assertions.assertEquals(0L, metrics.get("queueDepth"));
+
+        Assertions.assertThrows(InvalidVirtualMachineIdException.class, () -> this.terminationJobService.enqueue(-1L));
+        Assertions.assertThrows(InvalidTerminationJobIdException.class, () -> this.terminationJobService.findById(-1L));
+    }
+
+    @Test
+    public void jobsAreQueuedAndFollowedOverHttp() throws Exception {
+        VirtualServer server = this.virtualServerService.create("Http job", "10.4.0.2", OSType.DEBIAN,
+                Arrays.asList(this.userService.listAll().get(0).getId()), LocalDate.now());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post("/VirtualServers/" + server.getId() + "/terminate-job"))
+                .andExpect(MockMvcResultMatchers.status().isAccepted())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.virtualServerId").value(server.getId()));
+        this.mockMvc.perform(MockMvcRequestBuilders.post("/VirtualServers/-1/terminate-job"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/TerminationJobs/-1"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/TerminationJobs/metrics"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.queueDepth").exists());
+    }
+
+    @Test
+    public void everyAcceptedJobRunsWhenTheQueueFillsConcurrently() throws Exception {
+        VirtualServer server = this.virtualServerService.create("Full queue", "10.4.0.3", OSType.UBUNTU,
+                Arrays.asList(this.userService.listAll().get(0).getId()), LocalDate.now());
+        // one worker and two waiting jobs
+        TerminationJobServiceImpl service = new TerminationJobServiceImpl(this.terminationJobRepository,
+                this.virtualServerService, 1, 2, Duration.ofMillis(200), Duration.ofSeconds(10));
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        List<Future<TerminationJob>> results = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            results.add(clients.submit(() -> service.enqueue(server.getId())));
+        }
+        List<Long> accepted = new ArrayList<>();
+        int rejected = 0;
+        for (Future<TerminationJob> result : results) {
+            try {
+                accepted.add(result.get().getId());
+            } catch (ExecutionException e) {
+                Assertions.assertTrue(e.getCause() instanceof TerminationQueueFullException);
+                rejected++;
+            }
+        }
+        clients.shutdown();
+
+        Assertions.assertEquals(16, accepted.size() + rejected);
+        Assertions.assertTrue(accepted.size() <= 3);
+        for (Long id : accepted) {
+            Assertions.assertEquals(TerminationJobStatus.DONE, await(id).getStatus());
+        }
+        // the rejected jobs are not left PENDING in the table
+        Assertions.assertEquals(accepted.size(), this.terminationJobRepository.findAll().stream()
+                .filter(job -> server.getId().equals(job.getVirtualServerId())).count());
+        service.drain();
+    }
+
+    @Test
+    public void pendingJobsBeyondTheQueueCapacityAreQueuedAsItFreesUp() throws Exception {
+        VirtualServer server = this.virtualServerService.create("Backlog", "10.4.0.4", OSType.UBUNTU,
+                Arrays.asList(this.userService.listAll().get(0).getId()), LocalDate.now());
+        List<Long> pending = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            pending.add(this.terminationJobRepository.save(new TerminationJob(server.getId(), Instant.now())).getId());
+        }
+        // one worker and two waiting jobs, so four jobs are left over on the start
+        TerminationJobServiceImpl service = new TerminationJobServiceImpl(this.terminationJobRepository,
+                this.virtualServerService, 1, 2, Duration.ofMillis(50), Duration.ofSeconds(10));
+        service.recover();
+        Assertions.assertEquals(TerminationJobStatus.PENDING, this.terminationJobService.findById(pending.get(6)).getStatus());
+
+        for (int i = 0; i < 100 && service.metrics().get("done") < pending.size(); i++) {
+            service.queueBacklog();
+            Thread.sleep(20);
+        }
+        for (Long id : pending) {
+            Assertions.assertEquals(TerminationJobStatus.DONE, await(id).getStatus());
+        }
+        Assertions.assertEquals(pending.size(), service.metrics().get("done"));
+        Assertions.assertEquals(0, service.queueBacklog());
+        service.drain();
+    }
+
+    private TerminationJob await(Long id) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            TerminationJob job = this.terminationJobService.findById(id);
+            if (job.getStatus() == TerminationJobStatus.DONE || job.getStatus() == TerminationJobStatus.FAILED) {
+                return job;
+            }
+            Thread.sleep(50);
+        }
+        return Assertions.fail("The job did not finish");
+    }
+}
@@ -0,0 +1,73 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:bulk-users",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "users.hashing.threads=4",
+        "users.create-batch-size=30"
+})
+public class UserBulkCreateTest {
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    UserDetailsService userDetailsService;
+
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    public void createAllEncodesThePasswordsAndKeepsTheOrder() {
+        // cached as unknown before the users exist
+        Assertions.assertThrows(UsernameNotFoundException.class, () -> this.userDetailsService.loadUserByUsername("bulk-0"));
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 70; i++) {
+            users.add(new User("bulk-" + i, "secret-" + i, "ROLE_USER"));
+        }
+        Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        List<User> created = this.userService.createAll(users);
+
+        Assertions.assertEquals(70, created.size());
+        // the given users keep their raw passwords
+        for (int i = 0; i < users.size(); i++) {
+            Assertions.assertEquals("secret-" + i, users.get(i).getPassword());
+            Assertions.assertNull(users.get(i).getId());
+        }
+        for (int i = 0; i < created.size(); i++) {
+            User user = created.get(i);
+            Assertions.assertEquals("bulk-" + i, user.getUsername());
+            Assertions.assertNotNull(user.getId());
+            Assertions.assertTrue(this.passwordEncoder.matches("secret-" + i, user.getPassword()));
+            if (i > 0) {
+                Assertions.assertTrue(user.getId() > created.get(i - 1).getId());
+            }
+        }
+        Assertions.assertEquals(70, statistics.getEntityInsertCount());
+        // three batches of at most 30 users, one transaction each
+        Assertions.assertEquals(3, statistics.getSuccessfulTransactionCount());
+        Assertions.assertTrue(this.passwordEncoder.matches("secret-0",
+                this.userDetailsService.loadUserByUsername("bulk-0").getPassword()));
+    }
+}
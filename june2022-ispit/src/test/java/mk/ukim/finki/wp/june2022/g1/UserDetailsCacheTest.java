@@ -0,0 +1,114 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.service.impl.UserDetailsCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+public class UserDetailsCacheTest {
+
+    @Test
+    public void usersExpireAfterTheTtl() {
+        MutableClock clock = new MutableClock();
+        UserDetailsCache cache = new UserDetailsCache(2, Duration.ofMinutes(5), Duration.ofSeconds(30), clock);
+
+        Assertions.assertNull(cache.get("user1"));
+        cache.put("user1", new User("user1", "hash", "ROLE_USER"), cache.generation());
+        UserDetails details = cache.get("user1");
+        Assertions.assertEquals("hash", details.getPassword());
+        Assertions.assertEquals("ROLE_USER", details.getAuthorities().iterator().next().getAuthority());
+        // every call gets its own copy, so erasing the credentials of one does not change the cached user
+        Assertions.assertNotSame(details, cache.get("user1"));
+
+        clock.advance(Duration.ofMinutes(5));
+        Assertions.assertNull(cache.get("user1"));
+        Assertions.assertEquals(2, cache.hits());
+        Assertions.assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void unknownUsernamesAreRejectedUntilCreated() {
+        MutableClock clock = new MutableClock();
+        UserDetailsCache cache = new UserDetailsCache(2, Duration.ofMinutes(5), Duration.ofSeconds(30), clock);
+
+        cache.put("user1", new User("user1", "hash", "ROLE_USER"), cache.generation());
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertNull(cache.get("unknown" + i));
+            cache.put("unknown" + i, null, cache.generation());
+        }
+        Assertions.assertThrows(UsernameNotFoundException.class, () -> cache.get("unknown9"));
+        Assertions.assertEquals(1, cache.negativeHits());
+        // the unknown usernames only evict each other
+        Assertions.assertNotNull(cache.get("user1"));
+        Assertions.assertNull(cache.get("unknown0"));
+
+        cache.invalidate("unknown9");
+        Assertions.assertNull(cache.get("unknown9"));
+
+        cache.put("unknown8", null, cache.generation());
+        clock.advance(Duration.ofSeconds(30));
+        Assertions.assertNull(cache.get("unknown8"));
+    }
+
+    @Test
+    public void passwordChangesInvalidateTheUser() {
+        UserDetailsCache cache = new UserDetailsCache(2, Duration.ofMinutes(5), Duration.ofSeconds(30), new MutableClock());
+
+        cache.put("user1", new User("user1", "old", "ROLE_USER"), cache.generation());
+        cache.invalidate("user1");
+        Assertions.assertNull(cache.get("user1"));
+        cache.put("user1", new User("user1", "new", "ROLE_SYSADMIN"), cache.generation());
+        Assertions.assertEquals("new", cache.get("user1").getPassword());
+    }
+
+    @Test
+    public void usersReadBeforeAnInvalidateAreNotCached() {
+        UserDetailsCache cache = new UserDetailsCache(2, Duration.ofMinutes(5), Duration.ofSeconds(30), new MutableClock());
+
+        // a login reads the old row, the password changes, then the login stores what it read
+        long generation = cache.generation();
+        cache.invalidate("user1");
+        cache.put("user1", new User("user1", "old", "ROLE_USER"), generation);
+        Assertions.assertNull(cache.get("user1"));
+
+        generation = cache.generation();
+        cache.clear();
+        cache.put("unknown", null, generation);
+        Assertions.assertNull(cache.get("unknown"));
+
+        cache.put("user1", new User("user1", "new", "ROLE_USER"), cache.generation());
+        Assertions.assertEquals("new", cache.get("user1").getPassword());
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2022-06-01T10:00:00Z");
+
+        void advance(Duration duration) {
+            this.now = this.now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return this.now;
+        }
+    }
+}
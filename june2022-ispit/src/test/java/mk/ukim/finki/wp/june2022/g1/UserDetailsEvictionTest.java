@@ -0,0 +1,52 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.impl.UserDetailsCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:user-details")
+public class UserDetailsEvictionTest {
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    UserDetailsService userDetailsService;
+
+    @Autowired
+    UserDetailsCache userDetailsCache;
+
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
+    @Test
+    public void userChangesEvictTheCachedDetails() {
+        // cached as unknown, then created
+        Assertions.assertThrows(UsernameNotFoundException.class, () -> this.userDetailsService.loadUserByUsername("evicted"));
+        Assertions.assertThrows(UsernameNotFoundException.class, () -> this.userDetailsService.loadUserByUsername("evicted"));
+        User user = this.userService.create("evicted", "first", "ROLE_USER");
+        Assertions.assertTrue(this.passwordEncoder.matches("first", load().getPassword()));
+
+        long hits = this.userDetailsCache.hits();
+        load();
+        Assertions.assertEquals(hits + 1, this.userDetailsCache.hits());
+
+        this.userService.changePassword(user.getId(), "second");
+        Assertions.assertTrue(this.passwordEncoder.matches("second", load().getPassword()));
+
+        this.userService.changeRole(user.getId(), "ROLE_SYSADMIN");
+        Assertions.assertEquals("ROLE_SYSADMIN", load().getAuthorities().iterator().next().getAuthority());
+    }
+
+    private UserDetails load() {
+        return this.userDetailsService.loadUserByUsername("evicted");
+    }
+}
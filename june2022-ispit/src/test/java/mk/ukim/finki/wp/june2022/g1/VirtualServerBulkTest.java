@@ -0,0 +1,138 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.BulkOutcome;
+import mk.ukim.finki.wp.june2022.g1.model.BulkResult;
+import mk.ukim.finki.wp.june2022.g1.model.FleetStatistics;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidVirtualMachineIdException;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:bulk")
+@AutoConfigureMockMvc
+@WithMockUser
+public class VirtualServerBulkTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    public void terminateReportsEveryId() throws Exception {
+        List<Long> owners = Arrays.asList(this.userService.listAll().get(0).getId());
+        VirtualServer first = this.service.create("Bulk 1", "10.2.0.1", OSType.DEBIAN, owners, LocalDate.now());
+        VirtualServer second = this.service.create("Bulk 2", "10.2.0.2", OSType.DEBIAN, owners, LocalDate.now());
+        this.service.markTerminated(second.getId());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post("/VirtualServers/bulk/terminate")
+                        .param("ids", first.getId().toString(), second.getId().toString(), "-5"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results." + first.getId()).value("TERMINATED"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results." + second.getId()).value("ALREADY_TERMINATED"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.results.-5").value("NOT_FOUND"));
+        Assertions.assertTrue(this.service.findById(first.getId()).getTerminated());
+
+        this.mockMvc.perform(MockMvcRequestBuilders.post("/VirtualServers/bulk/delete"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    public void concurrentTerminatesMoveTheServerOnce() throws Exception {
+        List<Long> owners = Arrays.asList(this.userService.listAll().get(0).getId());
+        FleetStatistics before = this.service.statistics();
+        int threads = 8;
+        List<VirtualServer> servers = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            servers.add(this.service.create("Race " + i, "10.9.0." + i, OSType.WINDOWS, owners, LocalDate.now()));
+        }
+
+        AtomicInteger terminated = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (VirtualServer server : servers) {
+                        if (thread % 2 == 0) {
+                            this.service.markTerminated(server.getId());
+                        } else if (this.service.markTerminatedAll(Arrays.asList(server.getId())).getResults()
+                                .get(server.getId()) == BulkOutcome.TERMINATED) {
+                            terminated.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        FleetStatistics after = this.service.statistics();
+        Assertions.assertTrue(terminated.get() <= servers.size());
+        Assertions.assertEquals(before.getCount(OSType.WINDOWS, false), after.getCount(OSType.WINDOWS, false));
+        Assertions.assertEquals(before.getCount(OSType.WINDOWS, true) + servers.size(), after.getCount(OSType.WINDOWS, true));
+        Assertions.assertEquals(before.getTotal() + servers.size(), after.getTotal());
+    }
+
+    @Test
+    public void deleteMatchingRemovesTheServersAndTheirOwnerLinks() {
+        List<User> users = this.userService.listAll();
+        User owner = this.userService.create("bulk-owner", "pass", "ROLE_USER");
+        VirtualServer shared = this.service.create("Shared", "10.3.0.1", OSType.UBUNTU,
+                Arrays.asList(owner.getId(), users.get(0).getId()), LocalDate.now().minusDays(10));
+        this.service.create("Owned", "10.3.0.2", OSType.UBUNTU, Arrays.asList(owner.getId()), LocalDate.now().minusDays(1));
+        int links = links();
+
+        BulkResult result = this.service.deleteMatching(owner.getId(), 5);
+        Assertions.assertEquals(BulkOutcome.DELETED, result.getResults().get(shared.getId()));
+        Assertions.assertEquals(1, result.getResults().size());
+        Assertions.assertEquals(links - 2, links());
+        Assertions.assertThrows(InvalidVirtualMachineIdException.class, () -> this.service.findById(shared.getId()));
+        Assertions.assertFalse(this.service.filter(users.get(0).getId(), null).stream()
+                .anyMatch(virtualServer -> virtualServer.getId().equals(shared.getId())));
+        Assertions.assertEquals(1, this.service.filter(owner.getId(), null).size());
+
+        Assertions.assertEquals(BulkOutcome.NOT_FOUND, this.service.deleteAll(Arrays.asList(shared.getId())).getResults().get(shared.getId()));
+    }
+
+    private int links() {
+        return this.jdbcTemplate.queryForObject("select count(*) from virtual_server_owners", Integer.class);
+    }
+}
@@ -0,0 +1,126 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.Ipv4Range;
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidCidrException;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidUserIdException;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:cidr")
+@AutoConfigureMockMvc
+@WithMockUser
+public class VirtualServerCidrTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    UserService userService;
+
+    @Test
+    public void rangesCoverTheWholeBlock() {
+        Ipv4Range range = Ipv4Range.parse("194.149.136.77/20");
+        Assertions.assertEquals(Ipv4Range.toNumber("194.149.128.0"), range.getFirst());
+        Assertions.assertEquals(Ipv4Range.toNumber("194.149.143.255"), range.getLast());
+        Assertions.assertEquals(0xFFFFFFFFL, Ipv4Range.parse("0.0.0.0/0").getLast());
+        Assertions.assertEquals(Ipv4Range.toNumber("255.255.255.255"), Ipv4Range.parse("255.255.255.255").getFirst());
+
+        Assertions.assertNull(Ipv4Range.toNumber("256.1.1.1"));
+        Assertions.assertNull(Ipv4Range.toNumber("1.2.3"));
+        Assertions.assertNull(Ipv4Range.toNumber("fe80::1"));
+        Assertions.assertThrows(InvalidCidrException.class, () -> Ipv4Range.parse("10.0.0.0/33"));
+        Assertions.assertThrows(InvalidCidrException.class, () -> Ipv4Range.parse("10.0.0/8"));
+        Assertions.assertThrows(InvalidCidrException.class, () -> Ipv4Range.parse("10.0.0.0/x"));
+        Assertions.assertThrows(InvalidCidrException.class, () -> Ipv4Range.parse("10.0.0.0/+24"));
+        Assertions.assertThrows(InvalidCidrException.class, () -> Ipv4Range.parse("10.0.0.0/-0"));
+        Assertions.assertThrows(InvalidCidrException.class, () -> Ipv4Range.parse("+10.0.0.0/8"));
+        Assertions.assertThrows(InvalidCidrException.class, () -> Ipv4Range.parse("10.0.0.0/\u0662\u0664"));
+    }
+
+    @Test
+    public void filterByCidrReturnsTheServersInTheBlock() {
+        List<Long> owners = Arrays.asList(this.userService.listAll().get(0).getId());
+        for (String ip : new String[]{"194.149.135.255", "194.149.136.0", "194.149.136.200", "194.149.137.1", "not an ip"}) {
+            this.service.create("Cidr " + ip, ip, OSType.UBUNTU, owners, LocalDate.now());
+        }
+
+        Assertions.assertEquals(Arrays.asList("194.149.136.0", "194.149.136.102", "194.149.136.200"),
+                addresses(this.service.filterByCidr("194.149.136.0/24")));
+        Assertions.assertEquals(Arrays.asList("194.149.136.0", "194.149.136.102", "194.149.136.200", "194.149.137.1"),
+                addresses(this.service.filterByCidr("194.149.136.0/23")));
+        Assertions.assertEquals(Arrays.asList("194.149.136.200"), addresses(this.service.filterByCidr("194.149.136.200/32")));
+        Assertions.assertFalse(addresses(this.service.filterByCidr("0.0.0.0/0")).contains("not an ip"));
+
+        VirtualServer moved = this.service.filterByCidr("194.149.137.1/32").get(0);
+        this.service.update(moved.getId(), moved.getInstanceName(), "10.10.5.1", OSType.UBUNTU, owners);
+        Assertions.assertTrue(this.service.filterByCidr("194.149.137.0/24").isEmpty());
+        Assertions.assertEquals(1, this.service.filterByCidr("10.10.5.1").size());
+    }
+
+    @Test
+    public void filterByCidrAndOwnerMatchesBothFilters() {
+        List<User> users = this.userService.listAll();
+        User owner = this.userService.create("cidr-owner", "pass", "ROLE_USER");
+        this.service.create("Cidr owned old", "172.16.0.1", OSType.DEBIAN, Arrays.asList(owner.getId()),
+                LocalDate.now().minusDays(30));
+        this.service.create("Cidr owned new", "172.16.0.2", OSType.DEBIAN, Arrays.asList(owner.getId(), users.get(0).getId()),
+                LocalDate.now());
+        this.service.create("Cidr other", "172.16.0.3", OSType.DEBIAN, Arrays.asList(users.get(0).getId()),
+                LocalDate.now().minusDays(30));
+        this.service.create("Cidr owned undated", "172.16.0.4", OSType.DEBIAN, Arrays.asList(owner.getId()), null);
+        this.service.create("Cidr owned outside", "172.17.0.1", OSType.DEBIAN, Arrays.asList(owner.getId()),
+                LocalDate.now().minusDays(30));
+
+        for (Integer days : new Integer[]{null, 10}) {
+            for (Long ownerId : new Long[]{null, owner.getId()}) {
+                Set<Long> filtered = ids(this.service.filter(ownerId, days, false)).stream().collect(Collectors.toSet());
+                List<Long> expected = ids(this.service.filterByCidr("172.16.0.0/24")).stream()
+                        .filter(filtered::contains).collect(Collectors.toList());
+                Assertions.assertEquals(expected, ids(this.service.filterByCidr("172.16.0.0/24", ownerId, days, false)));
+            }
+        }
+        Assertions.assertEquals(Arrays.asList("172.16.0.1"),
+                addresses(this.service.filterByCidr("172.16.0.0/24", owner.getId(), 10, false)));
+        Assertions.assertThrows(InvalidUserIdException.class,
+                () -> this.service.filterByCidr("172.16.0.0/24", -1L, null, false));
+    }
+
+    @Test
+    public void invalidCidrIsABadRequest() throws Exception {
+        for (String cidr : new String[]{"10.0.0.0/33", "10.0.0/8", "not a block", "10.0.0.0/+24", "+10.0.0.0/8"}) {
+            this.mockMvc.perform(MockMvcRequestBuilders.get("/VirtualServers").param("cidr", cidr))
+                    .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        }
+        this.mockMvc.perform(MockMvcRequestBuilders.get("/VirtualServers").param("cidr", "10.0.0.0/8"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+    }
+
+    private static List<Long> ids(List<VirtualServer> virtualServers) {
+        return virtualServers.stream().map(VirtualServer::getId).collect(Collectors.toList());
+    }
+
+    private static List<String> addresses(List<VirtualServer> virtualServers) {
+        return virtualServers.stream().map(VirtualServer::getIpAddress).distinct().collect(Collectors.toList());
+    }
+}
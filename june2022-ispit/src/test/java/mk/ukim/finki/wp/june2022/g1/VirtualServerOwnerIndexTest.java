@@ -0,0 +1,128 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.model.VirtualServer;
+import mk.ukim.finki.wp.june2022.g1.model.exceptions.InvalidUserIdException;
+import mk.ukim.finki.wp.june2022.g1.repository.VirtualServerRepository;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import mk.ukim.finki.wp.june2022.g1.service.impl.VirtualServerOwnerIndex;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest(properties = "spring.datasource.url=jdbc:h2:mem:owner-index")
+public class VirtualServerOwnerIndexTest {
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    VirtualServerRepository repository;
+
+    @Autowired
+    VirtualServerOwnerIndex ownerIndex;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Test
+    public void ownerFiltersMatchTheRepositoryQueries() {
+        List<User> users = this.userService.listAll();
+        User first = users.get(0);
+        User second = users.get(1);
+        VirtualServer created = this.service.create("Indexed", "10.0.0.1", OSType.DEBIAN,
+                Arrays.asList(first.getId(), second.getId()), LocalDate.now().minusDays(30));
+        this.service.update(created.getId(), "Indexed", "10.0.0.1", OSType.DEBIAN, Arrays.asList(second.getId()));
+        VirtualServer deleted = this.service.create("Deleted", "10.0.0.2", OSType.UBUNTU,
+                Arrays.asList(first.getId()), LocalDate.now().minusDays(3));
+        this.service.delete(deleted.getId());
+
+        for (User user : users) {
+            Assertions.assertEquals(ids(this.repository.findAllByOwnersContaining(user)),
+                    ids(this.service.filter(user.getId(), null)));
+            for (int days : new int[]{0, 1, 2, 5, 29, 30, 31}) {
+                Assertions.assertEquals(
+                        ids(this.repository.findAllByLaunchDateBeforeAndAndOwnersContaining(LocalDate.now().minusDays(days), user)),
+                        ids(this.service.filter(user.getId(), days)));
+            }
+        }
+        Assertions.assertTrue(ids(this.service.filter(second.getId(), 29)).contains(created.getId()));
+        Assertions.assertFalse(ids(this.service.filter(first.getId(), null)).contains(created.getId()));
+        Assertions.assertThrows(InvalidUserIdException.class, () -> this.service.filter(-1L, null));
+    }
+
+    @Test
+    public void serversWithoutALaunchDateAreFoundByOwner() {
+        User owner = this.userService.create("undated-owner", "pass", "ROLE_USER");
+        VirtualServer dated = this.service.create("Dated", "10.0.1.1", OSType.DEBIAN,
+                Arrays.asList(owner.getId()), LocalDate.now().minusDays(10));
+        VirtualServer undated = this.service.create("Undated", "10.0.1.2", OSType.DEBIAN,
+                Arrays.asList(owner.getId()), null);
+        VirtualServer removed = this.service.create("Undated removed", "10.0.1.3", OSType.UBUNTU,
+                Arrays.asList(owner.getId()), null);
+        this.service.delete(removed.getId());
+
+        for (boolean reloaded : new boolean[]{false, true}) {
+            if (reloaded) {
+                this.ownerIndex.reload();
+            }
+            Assertions.assertEquals(Arrays.asList(dated.getId(), undated.getId()),
+                    Arrays.stream(this.ownerIndex.findByOwner(owner.getId())).boxed().collect(Collectors.toList()));
+            Assertions.assertEquals(ids(this.repository.findAllByOwnersContaining(owner)),
+                    ids(this.service.filter(owner.getId(), null)));
+            Assertions.assertEquals(2, this.service.count(owner.getId(), null));
+            // a server without a launch date is never launched before a date
+            Assertions.assertEquals(Arrays.asList(dated.getId()), ids(this.service.filter(owner.getId(), 5)));
+            Assertions.assertEquals(1, this.service.count(owner.getId(), 5));
+        }
+
+        this.service.update(undated.getId(), "Undated", "10.0.1.2", OSType.DEBIAN, Arrays.asList(owner.getId(), owner.getId()));
+        Assertions.assertEquals(2, this.ownerIndex.findByOwner(owner.getId()).length);
+        this.service.delete(undated.getId());
+        Assertions.assertEquals(Arrays.asList(dated.getId()), ids(this.service.filter(owner.getId(), null)));
+    }
+
+    @Test
+    public void rolledBackChangesDoNotReachTheIndexes() {
+        User owner = this.userService.create("rollback-owner", "pass", "ROLE_USER");
+        VirtualServer kept = this.service.create("Kept", "10.0.2.1", OSType.UBUNTU,
+                Arrays.asList(owner.getId()), LocalDate.now().minusDays(10));
+        long total = this.service.count(null, null);
+        long launched = this.service.count(null, 5);
+        TransactionTemplate transaction = new TransactionTemplate(this.transactionManager);
+
+        transaction.executeWithoutResult(status -> {
+            this.service.create("Rolled back", "10.0.2.2", OSType.UBUNTU, Arrays.asList(owner.getId()),
+                    LocalDate.now().minusDays(10));
+            this.service.update(kept.getId(), "Kept", "10.0.2.1", OSType.DEBIAN, Arrays.asList(owner.getId(), owner.getId()));
+            status.setRollbackOnly();
+        });
+        transaction.executeWithoutResult(status -> {
+            this.service.delete(kept.getId());
+            status.setRollbackOnly();
+        });
+
+        Assertions.assertEquals(Arrays.asList(kept.getId()),
+                Arrays.stream(this.ownerIndex.findByOwner(owner.getId())).boxed().collect(Collectors.toList()));
+        Assertions.assertEquals(total, this.service.count(null, null));
+        Assertions.assertEquals(launched, this.service.count(null, 5));
+        Assertions.assertEquals(1, this.service.statisticsByOwner(owner.getId()).getCount(OSType.UBUNTU, false));
+    }
+
+    private static List<Long> ids(List<VirtualServer> virtualServers) {
+        return virtualServers.stream().map(VirtualServer::getId).sorted().collect(Collectors.toList());
+    }
+}
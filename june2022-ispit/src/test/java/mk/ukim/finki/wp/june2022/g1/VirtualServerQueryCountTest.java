@@ -0,0 +1,74 @@
+package mk.ukim.finki.wp.june2022.g1;
+
+import mk.ukim.finki.wp.june2022.g1.model.OSType;
+import mk.ukim.finki.wp.june2022.g1.model.User;
+import mk.ukim.finki.wp.june2022.g1.service.UserService;
+import mk.ukim.finki.wp.june2022.g1.service.VirtualServerService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The number of statements of the list page should not depend on the number of servers or owners.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:query-count",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@AutoConfigureMockMvc
+@WithMockUser
+public class VirtualServerQueryCountTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    VirtualServerService service;
+
+    @Autowired
+    UserService userService;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    public void listPageStatementCountDoesNotGrowWithTheFleet() throws Exception {
+        long small = statements("/VirtualServers");
+        long smallFilter = statements("/VirtualServers?activeMoreThanDays=1");
+        long smallOwner = statements("/VirtualServers?ownerId=" + this.userService.listAll().get(1).getId());
+
+        List<User> users = this.userService.listAll();
+        for (int i = 0; i < 200; i++) {
+            this.service.create("Fleet " + i, "10.1.0." + i, OSType.values()[i % 3],
+                    Arrays.asList(users.get(i % users.size()).getId(), users.get((i + 1) % users.size()).getId()),
+                    LocalDate.now().minusDays(i % 40));
+        }
+
+        // the servers with their owners, and the users of the filter form
+        Assertions.assertEquals(2, small);
+        Assertions.assertEquals(small, statements("/VirtualServers"));
+        Assertions.assertEquals(smallFilter, statements("/VirtualServers?activeMoreThanDays=1"));
+        Assertions.assertEquals(smallOwner, statements("/VirtualServers?ownerId=" + users.get(1).getId()));
+    }
+
+    private long statements(String url) throws Exception {
+        Statistics statistics = this.entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        this.mockMvc.perform(MockMvcRequestBuilders.get(url))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        return statistics.getPrepareStatementCount();
+    }
+}